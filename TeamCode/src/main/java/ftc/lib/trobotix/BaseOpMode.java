@@ -5,6 +5,8 @@ package ftc.lib.trobotix;
 
 import com.outoftheboxrobotics.photoncore.Photon;
 import com.qualcomm.robotcore.eventloop.opmode.LinearOpMode;
+import ftc.lib.trobotix.hardware.BatteryMonitor;
+import ftc.lib.trobotix.hardware.HubManager;
 import ftc.lib.wpilib.commands.CommandScheduler;
 import ftc.lib.wpilib.commands.button.Trigger;
 
@@ -15,14 +17,29 @@ import ftc.lib.wpilib.commands.button.Trigger;
  */
 @Photon
 public abstract class BaseOpMode extends LinearOpMode {
+  // How often the bulk cache is cleared while waiting for start
+  private static final double kInitCacheClearPeriod = 0.05;
+
   private final Trigger enableTrigger = new Trigger(this::opModeIsActive);
 
   @Override
   public final void runOpMode() {
     Telemetry.put("Status", "Startup");
+    HubManager.init(this);
+    BatteryMonitor.init(this);
     startup();
     Telemetry.put("Status", "Waiting for start");
-    waitForStart();
+    // Reads made while waiting, like checking a sensor to pick an auto, should see fresh data, but
+    // not so fresh that every read is its own bulk read
+    var lastCacheClear = Utils.getTimeSeconds();
+    while (opModeInInit()) {
+      var now = Utils.getTimeSeconds();
+      if (now - lastCacheClear >= kInitCacheClearPeriod) {
+        HubManager.clearBulkCache();
+        lastCacheClear = now;
+      }
+      idle();
+    }
     EndableThread.startThreads();
     Telemetry.put("Status", "Running");
     while (opModeIsActive()) {
@@ -10,6 +10,7 @@ import java.util.ArrayList;
  */
 public abstract class EndableThread extends Thread {
   private static volatile boolean ENABLED = true;
+  private static volatile boolean STARTED = false;
 
   private final String NAME;
 
@@ -40,8 +41,19 @@ public abstract class EndableThread extends Thread {
 
   private static final ArrayList<EndableThread> threads = new ArrayList<>();
 
+  /**
+   * Whether the op mode has started its threads. Threads created after this won't be started
+   * automatically, so they have to be started by hand.
+   *
+   * @return If the threads have been started.
+   */
+  protected static boolean threadsStarted() {
+    return STARTED;
+  }
+
   protected static void startThreads() {
     ENABLED = true;
+    STARTED = true;
     threads.forEach(
         (thread) -> {
           try {
@@ -55,6 +67,7 @@ public abstract class EndableThread extends Thread {
 
   protected static void endThreads() {
     ENABLED = false;
+    STARTED = false;
     threads.clear();
   }
 }
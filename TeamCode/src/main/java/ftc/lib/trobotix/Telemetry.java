@@ -78,7 +78,7 @@ public final class Telemetry {
   private static class TelemetryThread extends Thread implements AutoCloseable {
     private static TelemetryThread instance;
 
-    private static TelemetryThread getInstance() {
+    private static synchronized TelemetryThread getInstance() {
       if (instance == null) {
         instance = new TelemetryThread(256);
         instance.start();
@@ -117,7 +117,10 @@ public final class Telemetry {
     }
 
     void add(QueuedEntry entry) {
-      circularQueue.addLast(entry);
+      // Puts can come from any thread, like a pose service
+      synchronized (circularQueue) {
+        circularQueue.addLast(entry);
+      }
     }
 
     @Override
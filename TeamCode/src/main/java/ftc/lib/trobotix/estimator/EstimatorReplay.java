@@ -0,0 +1,345 @@
+// Copyright (c) 2024-2025 FTC 8696
+// All rights reserved.
+
+package ftc.lib.trobotix.estimator;
+
+import ftc.lib.trobotix.Telemetry;
+import ftc.lib.wpilib.math.Matrix;
+import ftc.lib.wpilib.math.VecBuilder;
+import ftc.lib.wpilib.math.estimator.PoseEstimator;
+import ftc.lib.wpilib.math.geometry.Pose2d;
+import ftc.lib.wpilib.math.geometry.Rotation2d;
+import ftc.lib.wpilib.math.interpolation.TimeInterpolatableBuffer;
+import ftc.lib.wpilib.math.kinematics.WheelPositions;
+import ftc.lib.wpilib.math.numbers.N1;
+import ftc.lib.wpilib.math.numbers.N3;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Replays a {@link ReplayLog} through a pose estimator as fast as it can run, and compares the
+ * estimates to the ground truth. Tuning standard deviations on the robot means driving the same
+ * path over and over, while a replay of one recording takes milliseconds, so every combination in
+ * a grid can be tried.
+ *
+ * <p>Only plain Java and this library are used, so replays can run on the robot or on a computer.
+ * The estimators the factories here create don't publish to {@link Telemetry}, as every one would
+ * publish over the same keys as the robot's. Custom factories should do the same, with {@code
+ * setPublishTelemetry(false)}.
+ *
+ * <p>Rows are fed to the estimator in the order they were recorded. After each odometry row, the
+ * vision measurements recorded up to then are added, like {@link PoseService} does, and the
+ * estimate is compared to the ground truth at that time.
+ */
+public final class EstimatorReplay {
+  private EstimatorReplay() {}
+
+  /**
+   * Replays a log with one set of standard deviations.
+   *
+   * @param log The log.
+   * @param factory Creates the estimator.
+   * @param config The standard deviations.
+   * @return How far off the estimates were.
+   */
+  public static Result replay(ReplayLog log, Factory factory, Config config) {
+    return replay(log, truthBuffer(log), factory, config);
+  }
+
+  /**
+   * Replays a log with every combination of state and vision measurement standard deviations, in
+   * parallel across every core.
+   *
+   * @param log The log.
+   * @param factory Creates the estimators.
+   * @param stateStdDevs The state standard deviations to try, each in the form {x, y, theta}.
+   * @param visionMeasurementStdDevs The vision measurement standard deviations to try, each in the
+   *     form {x, y, theta}.
+   * @return The result of every combination, best first. Combinations are ranked by their RMS
+   *     translation error.
+   * @throws InterruptedException If the thread is interrupted while waiting for the replays.
+   */
+  public static List<Result> gridSearch(
+      ReplayLog log, Factory factory, double[][] stateStdDevs, double[][] visionMeasurementStdDevs)
+      throws InterruptedException {
+    var truth = truthBuffer(log);
+    var replays = new ArrayList<Callable<Result>>();
+    for (var state : stateStdDevs) {
+      for (var vision : visionMeasurementStdDevs) {
+        var config =
+            new Config(
+                VecBuilder.fill(state[0], state[1], state[2]),
+                VecBuilder.fill(vision[0], vision[1], vision[2]));
+        replays.add(() -> replay(log, truth, factory, config));
+      }
+    }
+
+    var executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    try {
+      var results = new ArrayList<Result>();
+      for (Future<Result> future : executor.invokeAll(replays)) {
+        results.add(future.get());
+      }
+      results.sort(Comparator.comparingDouble(Result::translationErrorMeters));
+      return results;
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw new RuntimeException(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  // Read only once it's built, so every replay of a grid search can share it
+  private static TimeInterpolatableBuffer<Pose2d> truthBuffer(ReplayLog log) {
+    var buffer = TimeInterpolatableBuffer.<Pose2d>createBuffer(Double.POSITIVE_INFINITY);
+    for (var row : log.getTruth()) {
+      buffer.addSample(row[0], new Pose2d(row[1], row[2], new Rotation2d(row[3])));
+    }
+    return buffer;
+  }
+
+  private static Result replay(
+      ReplayLog log, TimeInterpolatableBuffer<Pose2d> truth, Factory factory, Config config) {
+    var odometry = log.getOdometry();
+    var vision = log.getVision();
+    if (odometry.length == 0) {
+      return new Result(config, Double.NaN, Double.NaN);
+    }
+    var initialPose = truth.getSample(odometry[0][0]).orElse(Pose2d.kZero);
+    var estimator = factory.create(config, odometry[0], initialPose);
+
+    double squaredTranslationError = 0;
+    double squaredHeadingError = 0;
+    int comparisons = 0;
+    int visionIndex = 0;
+    for (var row : odometry) {
+      var timestampSeconds = row[0];
+      var pose = estimator.update(row);
+      if (visionIndex < vision.length && vision[visionIndex][0] <= timestampSeconds) {
+        while (visionIndex < vision.length && vision[visionIndex][0] <= timestampSeconds) {
+          var measurement = vision[visionIndex];
+          var stdDevs =
+              measurement.length >= 8
+                  ? VecBuilder.fill(measurement[5], measurement[6], measurement[7])
+                  : null;
+          estimator.addVisionMeasurement(
+              new Pose2d(measurement[2], measurement[3], new Rotation2d(measurement[4])),
+              measurement[1],
+              stdDevs);
+          visionIndex++;
+        }
+        pose = estimator.getEstimatedPosition();
+      }
+
+      // Only compare where there's ground truth, instead of against the nearest truth sample
+      if (truth.isEmpty()
+          || timestampSeconds < truth.getTimestamp(0)
+          || timestampSeconds > truth.getTimestamp(truth.size() - 1)) {
+        continue;
+      }
+      var truePose = truth.getSample(timestampSeconds).orElseThrow();
+      var translationError = pose.getTranslation().getDistance(truePose.getTranslation());
+      var headingError = pose.getRotation().minus(truePose.getRotation()).getRadians();
+      squaredTranslationError += translationError * translationError;
+      squaredHeadingError += headingError * headingError;
+      comparisons++;
+    }
+    return new Result(
+        config,
+        Math.sqrt(squaredTranslationError / comparisons),
+        Math.sqrt(squaredHeadingError / comparisons));
+  }
+
+  /**
+   * Creates replay estimators for a {@link PoseEstimator}, like {@link OmniWheelPoseEstimator}.
+   * Each odometry row is the timestamp, the gyro angle in radians, and then the wheel positions.
+   *
+   * @param constructor Creates the estimator.
+   * @param wheelPositions Reads the wheel positions from a whole odometry row, timestamp included.
+   * @param <T> Wheel positions type.
+   * @return The factory.
+   */
+  public static <T extends WheelPositions<T>> Factory forPoseEstimator(
+      PoseEstimatorConstructor<T> constructor, Function<double[], T> wheelPositions) {
+    return (config, initialOdometry, initialPose) -> {
+      var estimator =
+          constructor.create(
+              new Rotation2d(initialOdometry[1]),
+              wheelPositions.apply(initialOdometry),
+              initialPose,
+              config.stateStdDevs(),
+              config.visionMeasurementStdDevs());
+      estimator.setPublishTelemetry(false);
+      return new Estimator() {
+        @Override
+        public Pose2d update(double[] odometry) {
+          return estimator.updateWithTime(
+              odometry[0], new Rotation2d(odometry[1]), wheelPositions.apply(odometry));
+        }
+
+        @Override
+        public void addVisionMeasurement(
+            Pose2d visionRobotPoseMeters,
+            double timestampSeconds,
+            Matrix<N3, N1> visionMeasurementStdDevs) {
+          if (visionMeasurementStdDevs == null) {
+            estimator.addVisionMeasurement(visionRobotPoseMeters, timestampSeconds);
+          } else {
+            estimator.addVisionMeasurement(
+                visionRobotPoseMeters, timestampSeconds, visionMeasurementStdDevs);
+          }
+        }
+
+        @Override
+        public Pose2d getEstimatedPosition() {
+          return estimator.getEstimatedPosition();
+        }
+      };
+    };
+  }
+
+  /**
+   * Creates replay estimators for a {@link GoBildaPinpointPoseEstimator}. Each odometry row is the
+   * timestamp, and then the x, y, and heading the Pinpoint reported. The Pinpoint's pose is used as
+   * is, so the ground truth isn't used as the initial pose.
+   *
+   * <p>Like on the robot, vision measurement standard deviations continue to apply to later
+   * measurements.
+   *
+   * @return The factory.
+   */
+  public static Factory forPinpoint() {
+    return (config, initialOdometry, initialPose) -> {
+      var estimator =
+          new GoBildaPinpointPoseEstimator(
+              config.stateStdDevs(), config.visionMeasurementStdDevs());
+      estimator.setPublishTelemetry(false);
+      return new Estimator() {
+        @Override
+        public Pose2d update(double[] odometry) {
+          estimator.addOdometrySample(
+              odometry[0], new Pose2d(odometry[1], odometry[2], new Rotation2d(odometry[3])));
+          return estimator.getEstimatedPosition();
+        }
+
+        @Override
+        public void addVisionMeasurement(
+            Pose2d visionRobotPoseMeters,
+            double timestampSeconds,
+            Matrix<N3, N1> visionMeasurementStdDevs) {
+          if (visionMeasurementStdDevs == null) {
+            estimator.addVisionMeasurement(visionRobotPoseMeters, timestampSeconds);
+          } else {
+            estimator.addVisionMeasurement(
+                visionRobotPoseMeters, timestampSeconds, visionMeasurementStdDevs);
+          }
+        }
+
+        @Override
+        public Pose2d getEstimatedPosition() {
+          return estimator.getEstimatedPosition();
+        }
+      };
+    };
+  }
+
+  /**
+   * The standard deviations to replay with.
+   *
+   * @param stateStdDevs Standard deviations of the pose estimate (x position in meters, y position
+   *     in meters, and heading in radians).
+   * @param visionMeasurementStdDevs Standard deviations of the vision pose measurement (x position
+   *     in meters, y position in meters, and heading in radians).
+   */
+  public record Config(Matrix<N3, N1> stateStdDevs, Matrix<N3, N1> visionMeasurementStdDevs) {}
+
+  /**
+   * How far off a replay's estimates were from the ground truth. NaN if there was nothing to
+   * compare.
+   *
+   * @param config The standard deviations that were replayed with.
+   * @param translationErrorMeters The RMS distance from the true position. Meters.
+   * @param headingErrorRadians The RMS difference from the true heading. Radians.
+   */
+  public record Result(Config config, double translationErrorMeters, double headingErrorRadians) {}
+
+  /** Creates a fresh estimator for a replay. Called from the replay's thread. */
+  @FunctionalInterface
+  public interface Factory {
+    /**
+     * Creates a fresh estimator for a replay.
+     *
+     * @param config The standard deviations to use.
+     * @param initialOdometry The first odometry row.
+     * @param initialPose The true pose at the first odometry row, or the origin if there's no
+     *     ground truth then.
+     * @return The estimator.
+     */
+    Estimator create(Config config, double[] initialOdometry, Pose2d initialPose);
+  }
+
+  /**
+   * Creates a {@link PoseEstimator}.
+   *
+   * @param <T> Wheel positions type.
+   */
+  @FunctionalInterface
+  public interface PoseEstimatorConstructor<T extends WheelPositions<T>> {
+    /**
+     * Creates a {@link PoseEstimator}.
+     *
+     * @param gyroAngle The first gyro angle.
+     * @param wheelPositions The first wheel positions.
+     * @param initialPoseMeters The starting pose estimate.
+     * @param stateStdDevs Standard deviations of the pose estimate.
+     * @param visionMeasurementStdDevs Standard deviations of the vision pose measurement.
+     * @return The estimator.
+     */
+    PoseEstimator<T> create(
+        Rotation2d gyroAngle,
+        T wheelPositions,
+        Pose2d initialPoseMeters,
+        Matrix<N3, N1> stateStdDevs,
+        Matrix<N3, N1> visionMeasurementStdDevs);
+  }
+
+  /** A pose estimator being replayed. Only called from the replay's thread. */
+  public interface Estimator {
+    /**
+     * Adds an odometry row to the estimate.
+     *
+     * @param odometry The row, starting with its timestamp.
+     * @return The estimated robot pose in meters.
+     */
+    Pose2d update(double[] odometry);
+
+    /**
+     * Fuses a vision measurement.
+     *
+     * @param visionRobotPoseMeters The pose of the robot as measured by the vision camera.
+     * @param timestampSeconds The timestamp of the vision measurement in seconds.
+     * @param visionMeasurementStdDevs Standard deviations of the vision pose measurement, or null
+     *     to use the estimator's.
+     */
+    void addVisionMeasurement(
+        Pose2d visionRobotPoseMeters,
+        double timestampSeconds,
+        Matrix<N3, N1> visionMeasurementStdDevs);
+
+    /**
+     * Gets the estimated robot pose.
+     *
+     * @return The estimated robot pose in meters.
+     */
+    Pose2d getEstimatedPosition();
+  }
+}
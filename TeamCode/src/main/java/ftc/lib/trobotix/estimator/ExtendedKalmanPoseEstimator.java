@@ -0,0 +1,675 @@
+// Copyright (c) 2024-2025 FTC 8696
+// All rights reserved.
+
+package ftc.lib.trobotix.estimator;
+
+import ftc.lib.trobotix.Telemetry;
+import ftc.lib.trobotix.Utils;
+import ftc.lib.wpilib.math.MathUtil;
+import ftc.lib.wpilib.math.Matrix;
+import ftc.lib.wpilib.math.Nat;
+import ftc.lib.wpilib.math.estimator.PoseEstimator;
+import ftc.lib.wpilib.math.geometry.Pose2d;
+import ftc.lib.wpilib.math.geometry.Rotation2d;
+import ftc.lib.wpilib.math.geometry.Twist2d;
+import ftc.lib.wpilib.math.kinematics.Kinematics;
+import ftc.lib.wpilib.math.kinematics.WheelPositions;
+import ftc.lib.wpilib.math.numbers.N1;
+import ftc.lib.wpilib.math.numbers.N3;
+import java.util.Arrays;
+
+/**
+ * An extended Kalman filter alternative to {@link PoseEstimator}, with the same API.
+ *
+ * <p>{@link PoseEstimator} uses the steady state gain of a filter where x, y, and heading are
+ * independent. This keeps the full 3x3 covariance of the pose instead, and propagates it through
+ * every odometry twist, so uncertainty in heading turns into uncertainty in position as the robot
+ * drives. Each vision measurement can have its own covariance, including correlations between x, y
+ * and heading, and the gain is calculated from the covariance at the measurement's timestamp.
+ *
+ * <p>The state stdDevs are how much the pose drifts per second of odometry. After a reset, the
+ * pose is trusted completely until it drifts.
+ *
+ * <p>Vision measurements are latency compensated like {@link PoseEstimator}: the filter is updated
+ * at the measurement's timestamp, and every later odometry step is replayed from there. The pose
+ * history stores poses, covariances and odometry twists in primitive arrays, and all of the 3x3
+ * math is done by hand, so vision measurements and their replays don't allocate.
+ *
+ * @param <T> Wheel positions type.
+ */
+public class ExtendedKalmanPoseEstimator<T extends WheelPositions<T>> {
+  private static final double kBufferDuration = 1.5;
+  private static final double kVelocityWindow = 0.05;
+  private static final int kInitialCapacity = 16;
+
+  private final Kinematics<?, T> kinematics;
+
+  // Process noise, per second
+  private final double[] q = new double[3];
+  // Default vision measurement covariance, in the same layout as a covariance sample
+  private final double[] visionR = new double[6];
+
+  private double gateThreshold = Double.POSITIVE_INFINITY;
+  private int acceptedMeasurements;
+  private int rejectedMeasurements;
+  private boolean publishTelemetry = true;
+
+  private Rotation2d previousGyroAngle;
+  private T previousWheelPositions;
+
+  // The newest state, which is also kept while the history is empty
+  private double x;
+  private double y;
+  private double theta;
+  // Covariance, as p00, p01, p02, p11, p12, p22
+  private final double[] covariance = new double[6];
+
+  // History ring buffer, sorted by timestamp
+  private double[] times = new double[kInitialCapacity];
+  // x, y, theta of each sample
+  private double[] states = new double[kInitialCapacity * 3];
+  private double[] covariances = new double[kInitialCapacity * 6];
+  // Robot relative dx, dy, dtheta from the previous sample
+  private double[] twists = new double[kInitialCapacity * 3];
+  private int head = 0;
+  private int size = 0;
+
+  // Scratch space for the measurement update
+  private final double[] measurementR = new double[6];
+  private final double[] gain = new double[9];
+
+  /**
+   * Constructs an ExtendedKalmanPoseEstimator.
+   *
+   * @param kinematics A correctly-configured kinematics object for your drivetrain.
+   * @param gyroAngle The current gyro angle.
+   * @param wheelPositions The current encoder readings.
+   * @param initialPoseMeters The starting pose estimate.
+   * @param stateStdDevs Standard deviations of how much the pose estimate drifts per second (x
+   *     position in meters, y position in meters, and heading in radians). Increase these numbers
+   *     to trust your state estimate less.
+   * @param visionMeasurementStdDevs Standard deviations of the vision pose measurement (x position
+   *     in meters, y position in meters, and heading in radians). Increase these numbers to trust
+   *     the vision pose measurement less.
+   */
+  public ExtendedKalmanPoseEstimator(
+      Kinematics<?, T> kinematics,
+      Rotation2d gyroAngle,
+      T wheelPositions,
+      Pose2d initialPoseMeters,
+      Matrix<N3, N1> stateStdDevs,
+      Matrix<N3, N1> visionMeasurementStdDevs) {
+    this.kinematics = kinematics;
+    for (int i = 0; i < 3; i++) {
+      q[i] = stateStdDevs.get(i, 0) * stateStdDevs.get(i, 0);
+    }
+    setVisionMeasurementStdDevs(visionMeasurementStdDevs);
+    resetPosition(gyroAngle, wheelPositions, initialPoseMeters);
+  }
+
+  /**
+   * Sets the pose estimator's trust of global measurements. See {@link
+   * PoseEstimator#setVisionMeasurementStdDevs(Matrix)}.
+   *
+   * @param visionMeasurementStdDevs Standard deviations of the vision measurements. Increase these
+   *     numbers to trust global measurements from vision less. This matrix is in the form [x, y,
+   *     theta]ᵀ, with units in meters and radians.
+   */
+  public void setVisionMeasurementStdDevs(Matrix<N3, N1> visionMeasurementStdDevs) {
+    stdDevsToCovariance(visionMeasurementStdDevs, visionR);
+  }
+
+  /**
+   * Sets how unlikely a vision measurement can be before it's rejected. A measurement is rejected
+   * if its squared Mahalanobis distance from the estimated pose at its timestamp is above the
+   * threshold, using the full covariance of the estimate and of the measurement. Rejected
+   * measurements are dropped before anything is replayed, so they're cheap.
+   *
+   * <p>If the covariances are accurate, the squared distance has a chi-square distribution with 3
+   * degrees of freedom. For example, a threshold of 11.34 only rejects 1% of good measurements.
+   * Defaults to infinity, which accepts every measurement.
+   *
+   * @param chiSquaredThreshold The largest squared Mahalanobis distance that's accepted.
+   */
+  public void setVisionGateThreshold(double chiSquaredThreshold) {
+    gateThreshold = chiSquaredThreshold;
+  }
+
+  /**
+   * Gets how many vision measurements have passed the gate. See {@link
+   * ExtendedKalmanPoseEstimator#setVisionGateThreshold(double)}.
+   *
+   * @return The number of accepted vision measurements.
+   */
+  public int getAcceptedVisionMeasurements() {
+    return acceptedMeasurements;
+  }
+
+  /**
+   * Gets how many vision measurements have been rejected by the gate. See {@link
+   * ExtendedKalmanPoseEstimator#setVisionGateThreshold(double)}.
+   *
+   * @return The number of rejected vision measurements.
+   */
+  public int getRejectedVisionMeasurements() {
+    return rejectedMeasurements;
+  }
+
+  /**
+   * Sets whether the gate's counters are published to {@link Telemetry}. Estimators that aren't
+   * the robot's, like ones being replayed, can turn it off so they don't publish over its keys.
+   *
+   * @param publishTelemetry Whether to publish the counters. Defaults to true.
+   */
+  public void setPublishTelemetry(boolean publishTelemetry) {
+    this.publishTelemetry = publishTelemetry;
+  }
+
+  /**
+   * Resets the robot's position on the field, and trusts it completely.
+   *
+   * <p>The gyroscope angle does not need to be reset here on the user's robot code. The library
+   * automatically takes care of offsetting the gyro angle.
+   *
+   * @param gyroAngle The angle reported by the gyroscope.
+   * @param wheelPositions The current encoder readings.
+   * @param poseMeters The position on the field that your robot is at.
+   */
+  public void resetPosition(Rotation2d gyroAngle, T wheelPositions, Pose2d poseMeters) {
+    previousGyroAngle = gyroAngle;
+    previousWheelPositions = wheelPositions.copy();
+    x = poseMeters.getX();
+    y = poseMeters.getY();
+    theta = poseMeters.getRotation().getRadians();
+    Arrays.fill(covariance, 0);
+    head = 0;
+    size = 0;
+  }
+
+  /**
+   * Gets the estimated robot pose.
+   *
+   * @return The estimated robot pose in meters.
+   */
+  public Pose2d getEstimatedPosition() {
+    return new Pose2d(x, y, new Rotation2d(theta));
+  }
+
+  /**
+   * Predicts the robot's pose at a time after the last update, by continuing along the arc it's
+   * been driving. See {@link PoseEstimator#getPredictedPose(double)}.
+   *
+   * <p>The velocity is measured from the odometry twists of the last 50 ms of updates, so vision
+   * measurements don't affect it.
+   *
+   * @param futureTimeSeconds The time to predict the pose at, in the same timebase as {@link
+   *     ExtendedKalmanPoseEstimator#updateWithTime}. Seconds.
+   * @return The predicted pose in meters.
+   */
+  public Pose2d getPredictedPose(double futureTimeSeconds) {
+    if (size < 2) {
+      return getEstimatedPosition();
+    }
+    // Along a constant curvature arc, the twists of each step add up to the twist of the whole arc
+    int newest = physicalIndex(size - 1);
+    int start = Math.min(ceilingIndex(times[newest] - kVelocityWindow), size - 2);
+    double dx = 0;
+    double dy = 0;
+    double dtheta = 0;
+    for (int i = start + 1; i < size; i++) {
+      int p = physicalIndex(i);
+      dx += twists[p * 3];
+      dy += twists[p * 3 + 1];
+      dtheta += twists[p * 3 + 2];
+    }
+    double elapsed = times[newest] - times[physicalIndex(start)];
+    if (elapsed <= 0) {
+      return getEstimatedPosition();
+    }
+    double scale = (futureTimeSeconds - times[newest]) / elapsed;
+    return getEstimatedPosition().exp(new Twist2d(dx * scale, dy * scale, dtheta * scale));
+  }
+
+  /**
+   * Gets the covariance of the estimated robot pose.
+   *
+   * @return The covariance, with rows and columns of x in meters, y in meters and heading in
+   *     radians.
+   */
+  public Matrix<N3, N3> getEstimatedCovariance() {
+    var matrix = new Matrix<>(Nat.N3(), Nat.N3());
+    matrix.set(0, 0, covariance[0]);
+    matrix.set(0, 1, covariance[1]);
+    matrix.set(1, 0, covariance[1]);
+    matrix.set(0, 2, covariance[2]);
+    matrix.set(2, 0, covariance[2]);
+    matrix.set(1, 1, covariance[3]);
+    matrix.set(1, 2, covariance[4]);
+    matrix.set(2, 1, covariance[4]);
+    matrix.set(2, 2, covariance[5]);
+    return matrix;
+  }
+
+  /**
+   * Updates the pose estimator with wheel encoder and gyro information. This should be called every
+   * loop.
+   *
+   * @param gyroAngle The current gyro angle.
+   * @param wheelPositions The current encoder readings.
+   * @return The estimated pose of the robot in meters.
+   */
+  public Pose2d update(Rotation2d gyroAngle, T wheelPositions) {
+    return updateWithTime(Utils.getTimeSeconds(), gyroAngle, wheelPositions);
+  }
+
+  /**
+   * Updates the pose estimator with wheel encoder and gyro information. This should be called every
+   * loop.
+   *
+   * @param currentTimeSeconds Time at which this method was called, in seconds. Times older than
+   *     the last update are treated as the time of the last update.
+   * @param gyroAngle The current gyro angle.
+   * @param wheelPositions The current encoder readings.
+   * @return The estimated pose of the robot in meters.
+   */
+  public Pose2d updateWithTime(double currentTimeSeconds, Rotation2d gyroAngle, T wheelPositions) {
+    var twist = kinematics.toTwist2d(previousWheelPositions, wheelPositions);
+    twist.dtheta = gyroAngle.minus(previousGyroAngle).getRadians();
+    previousGyroAngle = gyroAngle;
+    previousWheelPositions = wheelPositions.copy();
+
+    double previousTime = size > 0 ? times[physicalIndex(size - 1)] : currentTimeSeconds;
+    currentTimeSeconds = Math.max(currentTimeSeconds, previousTime);
+    cleanUp(currentTimeSeconds);
+
+    ensureCapacity();
+    int p = physicalIndex(size);
+    size++;
+    times[p] = currentTimeSeconds;
+    twists[p * 3] = twist.dx;
+    twists[p * 3 + 1] = twist.dy;
+    twists[p * 3 + 2] = twist.dtheta;
+    propagate(p, currentTimeSeconds - previousTime);
+    storeCurrent(p);
+
+    return getEstimatedPosition();
+  }
+
+  /**
+   * Adds a vision measurement to the Kalman Filter, using the default vision measurement standard
+   * deviations. See {@link PoseEstimator#addVisionMeasurement(Pose2d, double)}.
+   *
+   * @param visionRobotPoseMeters The pose of the robot as measured by the vision camera.
+   * @param timestampSeconds The timestamp of the vision measurement in seconds.
+   */
+  public void addVisionMeasurement(Pose2d visionRobotPoseMeters, double timestampSeconds) {
+    System.arraycopy(visionR, 0, measurementR, 0, 6);
+    applyVisionMeasurement(visionRobotPoseMeters, timestampSeconds);
+  }
+
+  /**
+   * Adds a vision measurement to the Kalman Filter. Unlike {@link
+   * PoseEstimator#addVisionMeasurement(Pose2d, double, Matrix)}, the standard deviations only apply
+   * to this measurement.
+   *
+   * @param visionRobotPoseMeters The pose of the robot as measured by the vision camera.
+   * @param timestampSeconds The timestamp of the vision measurement in seconds.
+   * @param visionMeasurementStdDevs Standard deviations of the vision pose measurement (x position
+   *     in meters, y position in meters, and heading in radians).
+   */
+  public void addVisionMeasurement(
+      Pose2d visionRobotPoseMeters,
+      double timestampSeconds,
+      Matrix<N3, N1> visionMeasurementStdDevs) {
+    stdDevsToCovariance(visionMeasurementStdDevs, measurementR);
+    applyVisionMeasurement(visionRobotPoseMeters, timestampSeconds);
+  }
+
+  /**
+   * Adds a vision measurement to the Kalman Filter, with its full covariance.
+   *
+   * @param visionRobotPoseMeters The pose of the robot as measured by the vision camera.
+   * @param timestampSeconds The timestamp of the vision measurement in seconds.
+   * @param visionMeasurementCovariance The covariance of the vision pose measurement, with rows
+   *     and columns of x in meters, y in meters and heading in radians. Must be symmetric.
+   */
+  public void addVisionMeasurementWithCovariance(
+      Pose2d visionRobotPoseMeters,
+      double timestampSeconds,
+      Matrix<N3, N3> visionMeasurementCovariance) {
+    measurementR[0] = visionMeasurementCovariance.get(0, 0);
+    measurementR[1] = visionMeasurementCovariance.get(0, 1);
+    measurementR[2] = visionMeasurementCovariance.get(0, 2);
+    measurementR[3] = visionMeasurementCovariance.get(1, 1);
+    measurementR[4] = visionMeasurementCovariance.get(1, 2);
+    measurementR[5] = visionMeasurementCovariance.get(2, 2);
+    applyVisionMeasurement(visionRobotPoseMeters, timestampSeconds);
+  }
+
+  private void applyVisionMeasurement(Pose2d visionRobotPoseMeters, double timestampSeconds) {
+    // Step 0: If this measurement is old enough to be outside the pose buffer's timespan, skip.
+    if (size == 0 || times[physicalIndex(size - 1)] - kBufferDuration > timestampSeconds) {
+      return;
+    }
+
+    // Step 1: Get the state at the moment the vision measurement was made.
+    int index = ceilingIndex(timestampSeconds);
+    boolean existingSample = index < size && times[physicalIndex(index)] == timestampSeconds;
+    if (existingSample) {
+      loadCurrent(physicalIndex(index));
+    } else {
+      predict(index, timestampSeconds);
+    }
+
+    // Step 2: Update the state and covariance with the measurement, unless it's rejected. Nothing
+    // in the history has been changed yet, so a rejection only has to restore the newest state.
+    boolean accepted =
+        correct(
+            visionRobotPoseMeters.getX(),
+            visionRobotPoseMeters.getY(),
+            visionRobotPoseMeters.getRotation().getRadians());
+    if (!accepted) {
+      loadCurrent(physicalIndex(size - 1));
+      return;
+    }
+    // Update the sample at this timestamp in place if there is one
+    int p = existingSample ? physicalIndex(index) : insertSample(index, timestampSeconds);
+    storeCurrent(p);
+
+    // Step 3: Replay odometry from the measurement to the newest sample.
+    double previousTime = times[p];
+    for (int i = index + 1; i < size; i++) {
+      int next = physicalIndex(i);
+      propagate(next, times[next] - previousTime);
+      storeCurrent(next);
+      previousTime = times[next];
+    }
+  }
+
+  /**
+   * Loads the state at a timestamp between samples, without changing the history. The odometry
+   * twist of the sample after it is split at the timestamp.
+   *
+   * @param index The index of the oldest sample after the timestamp.
+   */
+  private void predict(int index, double timestampSeconds) {
+    if (index == 0) {
+      // Older than every sample, so use the oldest sample's state
+      loadCurrent(physicalIndex(0));
+    } else if (index == size) {
+      // Newer than every sample, so use the newest sample's state
+      int previous = physicalIndex(index - 1);
+      loadCurrent(previous);
+      propagate(0, 0, 0, timestampSeconds - times[previous]);
+    } else {
+      // The twist along a constant curvature arc splits exactly by scaling it
+      int previous = physicalIndex(index - 1);
+      int next = physicalIndex(index);
+      double fraction = (timestampSeconds - times[previous]) / (times[next] - times[previous]);
+      loadCurrent(previous);
+      propagate(
+          twists[next * 3] * fraction,
+          twists[next * 3 + 1] * fraction,
+          twists[next * 3 + 2] * fraction,
+          timestampSeconds - times[previous]);
+    }
+  }
+
+  /**
+   * Inserts a sample at a timestamp between samples, splitting the odometry twist of the sample
+   * after it the same way as {@link #predict(int, double)}.
+   *
+   * @return The physical index of the inserted sample.
+   */
+  private int insertSample(int index, double timestampSeconds) {
+    ensureCapacity();
+    for (int i = size; i > index; i--) {
+      move(physicalIndex(i - 1), physicalIndex(i));
+    }
+    size++;
+    int p = physicalIndex(index);
+    times[p] = timestampSeconds;
+
+    if (index == 0) {
+      // Takes the oldest sample's twist, so the oldest sample doesn't move after it
+      int next = physicalIndex(1);
+      System.arraycopy(twists, next * 3, twists, p * 3, 3);
+      twists[next * 3] = 0;
+      twists[next * 3 + 1] = 0;
+      twists[next * 3 + 2] = 0;
+    } else if (index == size - 1) {
+      twists[p * 3] = 0;
+      twists[p * 3 + 1] = 0;
+      twists[p * 3 + 2] = 0;
+    } else {
+      int previous = physicalIndex(index - 1);
+      int next = physicalIndex(index + 1);
+      double fraction = (timestampSeconds - times[previous]) / (times[next] - times[previous]);
+      for (int i = 0; i < 3; i++) {
+        twists[p * 3 + i] = twists[next * 3 + i] * fraction;
+        twists[next * 3 + i] *= 1 - fraction;
+      }
+    }
+    return p;
+  }
+
+  /**
+   * Propagates the current state and covariance through a sample's odometry twist.
+   *
+   * @param p The physical index of the sample.
+   * @param dt The time since the previous sample. Seconds.
+   */
+  private void propagate(int p, double dt) {
+    propagate(twists[p * 3], twists[p * 3 + 1], twists[p * 3 + 2], dt);
+  }
+
+  /**
+   * Propagates the current state and covariance through an odometry twist.
+   *
+   * @param dx The robot relative forward distance. Meters.
+   * @param dy The robot relative leftward distance. Meters.
+   * @param dtheta The change in heading. Radians.
+   * @param dt The time the twist took. Seconds.
+   */
+  private void propagate(double dx, double dy, double dtheta, double dt) {
+    // Same as Pose2d.exp()
+    double s;
+    double c;
+    if (Math.abs(dtheta) < 1E-9) {
+      s = 1.0 - 1.0 / 6.0 * dtheta * dtheta;
+      c = 0.5 * dtheta;
+    } else {
+      s = Math.sin(dtheta) / dtheta;
+      c = (1 - Math.cos(dtheta)) / dtheta;
+    }
+    double forward = dx * s - dy * c;
+    double left = dx * c + dy * s;
+
+    double cos = Math.cos(theta);
+    double sin = Math.sin(theta);
+    x += forward * cos - left * sin;
+    y += forward * sin + left * cos;
+    theta += dtheta;
+
+    // Jacobian of the new pose with respect to the old heading. The rest of it is the identity.
+    double f02 = -forward * sin - left * cos;
+    double f12 = forward * cos - left * sin;
+
+    // P = FPFᵀ + Q
+    double p00 = covariance[0];
+    double p01 = covariance[1];
+    double p02 = covariance[2];
+    double p11 = covariance[3];
+    double p12 = covariance[4];
+    double p22 = covariance[5];
+    covariance[0] = p00 + 2 * f02 * p02 + f02 * f02 * p22 + q[0] * dt;
+    covariance[1] = p01 + f02 * p12 + f12 * p02 + f02 * f12 * p22;
+    covariance[2] = p02 + f02 * p22;
+    covariance[3] = p11 + 2 * f12 * p12 + f12 * f12 * p22 + q[1] * dt;
+    covariance[4] = p12 + f12 * p22;
+    covariance[5] = p22 + q[2] * dt;
+  }
+
+  /**
+   * Corrects the current state and covariance with a pose measurement whose covariance is in
+   * measurementR. The measurement model is the identity.
+   *
+   * @return False if the measurement was rejected, in which case nothing is changed.
+   */
+  private boolean correct(double measuredX, double measuredY, double measuredTheta) {
+    double p00 = covariance[0];
+    double p01 = covariance[1];
+    double p02 = covariance[2];
+    double p11 = covariance[3];
+    double p12 = covariance[4];
+    double p22 = covariance[5];
+
+    // S = P + R
+    double s00 = p00 + measurementR[0];
+    double s01 = p01 + measurementR[1];
+    double s02 = p02 + measurementR[2];
+    double s11 = p11 + measurementR[3];
+    double s12 = p12 + measurementR[4];
+    double s22 = p22 + measurementR[5];
+
+    // S⁻¹, from the adjugate. S is symmetric, so so is its inverse.
+    double a00 = s11 * s22 - s12 * s12;
+    double a01 = s02 * s12 - s01 * s22;
+    double a02 = s01 * s12 - s02 * s11;
+    double det = s00 * a00 + s01 * a01 + s02 * a02;
+    if (det <= 0) {
+      return false;
+    }
+    double i00 = a00 / det;
+    double i01 = a01 / det;
+    double i02 = a02 / det;
+    double i11 = (s00 * s22 - s02 * s02) / det;
+    double i12 = (s01 * s02 - s00 * s12) / det;
+    double i22 = (s00 * s11 - s01 * s01) / det;
+
+    // Reject the measurement if the squared Mahalanobis distance, eᵀS⁻¹e, is too large. The heading
+    // error is wrapped.
+    double errorX = measuredX - x;
+    double errorY = measuredY - y;
+    double errorTheta = MathUtil.angleModulus(measuredTheta - theta);
+    double distanceSquared =
+        i00 * errorX * errorX
+            + i11 * errorY * errorY
+            + i22 * errorTheta * errorTheta
+            + 2 * (i01 * errorX * errorY + i02 * errorX * errorTheta + i12 * errorY * errorTheta);
+    if (distanceSquared > gateThreshold) {
+      rejectedMeasurements++;
+      if (publishTelemetry) {
+        Telemetry.put(
+            "ExtendedKalmanPoseEstimator/Rejected Vision Measurements", rejectedMeasurements);
+      }
+      return false;
+    }
+    acceptedMeasurements++;
+    if (publishTelemetry) {
+      Telemetry.put(
+          "ExtendedKalmanPoseEstimator/Accepted Vision Measurements", acceptedMeasurements);
+    }
+
+    // K = PS⁻¹
+    gain[0] = p00 * i00 + p01 * i01 + p02 * i02;
+    gain[1] = p00 * i01 + p01 * i11 + p02 * i12;
+    gain[2] = p00 * i02 + p01 * i12 + p02 * i22;
+    gain[3] = p01 * i00 + p11 * i01 + p12 * i02;
+    gain[4] = p01 * i01 + p11 * i11 + p12 * i12;
+    gain[5] = p01 * i02 + p11 * i12 + p12 * i22;
+    gain[6] = p02 * i00 + p12 * i01 + p22 * i02;
+    gain[7] = p02 * i01 + p12 * i11 + p22 * i12;
+    gain[8] = p02 * i02 + p12 * i12 + p22 * i22;
+
+    // x += K(z - x)
+    x += gain[0] * errorX + gain[1] * errorY + gain[2] * errorTheta;
+    y += gain[3] * errorX + gain[4] * errorY + gain[5] * errorTheta;
+    theta += gain[6] * errorX + gain[7] * errorY + gain[8] * errorTheta;
+
+    // P -= KP, which is symmetric since KP = PS⁻¹P
+    covariance[0] = p00 - (gain[0] * p00 + gain[1] * p01 + gain[2] * p02);
+    covariance[1] = p01 - (gain[0] * p01 + gain[1] * p11 + gain[2] * p12);
+    covariance[2] = p02 - (gain[0] * p02 + gain[1] * p12 + gain[2] * p22);
+    covariance[3] = p11 - (gain[3] * p01 + gain[4] * p11 + gain[5] * p12);
+    covariance[4] = p12 - (gain[3] * p02 + gain[4] * p12 + gain[5] * p22);
+    covariance[5] = p22 - (gain[6] * p02 + gain[7] * p12 + gain[8] * p22);
+    return true;
+  }
+
+  private static void stdDevsToCovariance(Matrix<N3, N1> stdDevs, double[] covariance) {
+    covariance[0] = stdDevs.get(0, 0) * stdDevs.get(0, 0);
+    covariance[1] = 0;
+    covariance[2] = 0;
+    covariance[3] = stdDevs.get(1, 0) * stdDevs.get(1, 0);
+    covariance[4] = 0;
+    covariance[5] = stdDevs.get(2, 0) * stdDevs.get(2, 0);
+  }
+
+  private void loadCurrent(int p) {
+    x = states[p * 3];
+    y = states[p * 3 + 1];
+    theta = states[p * 3 + 2];
+    System.arraycopy(covariances, p * 6, covariance, 0, 6);
+  }
+
+  private void storeCurrent(int p) {
+    states[p * 3] = x;
+    states[p * 3 + 1] = y;
+    states[p * 3 + 2] = theta;
+    System.arraycopy(covariance, 0, covariances, p * 6, 6);
+  }
+
+  private int ceilingIndex(double timeSeconds) {
+    int low = 0;
+    int high = size;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (times[physicalIndex(mid)] < timeSeconds) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /** Removes samples older than the buffer duration. The current state is kept. */
+  private void cleanUp(double time) {
+    while (size > 0 && time - times[head] >= kBufferDuration) {
+      head = (head + 1) % times.length;
+      size--;
+    }
+  }
+
+  private void move(int from, int to) {
+    times[to] = times[from];
+    System.arraycopy(states, from * 3, states, to * 3, 3);
+    System.arraycopy(covariances, from * 6, covariances, to * 6, 6);
+    System.arraycopy(twists, from * 3, twists, to * 3, 3);
+  }
+
+  private void ensureCapacity() {
+    if (size < times.length) {
+      return;
+    }
+    times = unwrap(times, 1);
+    states = unwrap(states, 3);
+    covariances = unwrap(covariances, 6);
+    twists = unwrap(twists, 3);
+    head = 0;
+  }
+
+  /** Copies a full ring into the start of an array twice its size. */
+  private double[] unwrap(double[] array, int stride) {
+    var unwrapped = new double[array.length * 2];
+    int firstPart = array.length - head * stride;
+    System.arraycopy(array, head * stride, unwrapped, 0, firstPart);
+    System.arraycopy(array, 0, unwrapped, firstPart, head * stride);
+    return unwrapped;
+  }
+
+  private int physicalIndex(int index) {
+    return (head + index) % times.length;
+  }
+}
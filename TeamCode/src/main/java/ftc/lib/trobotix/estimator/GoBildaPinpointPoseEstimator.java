@@ -4,8 +4,10 @@
 package ftc.lib.trobotix.estimator;
 
 import com.qualcomm.robotcore.eventloop.opmode.OpMode;
+import ftc.lib.trobotix.Telemetry;
 import ftc.lib.trobotix.Utils;
 import ftc.lib.trobotix.hardware.GoBildaPinpointDriver;
+import ftc.lib.trobotix.hardware.GoBildaPinpointPoller;
 import ftc.lib.wpilib.Timer;
 import ftc.lib.wpilib.math.MathUtil;
 import ftc.lib.wpilib.math.Matrix;
@@ -18,9 +20,8 @@ import ftc.lib.wpilib.math.geometry.Twist2d;
 import ftc.lib.wpilib.math.interpolation.TimeInterpolatableBuffer;
 import ftc.lib.wpilib.math.numbers.N1;
 import ftc.lib.wpilib.math.numbers.N3;
-import java.util.NavigableMap;
+import java.util.Arrays;
 import java.util.Optional;
-import java.util.TreeMap;
 
 /**
  * This class wraps {@link GoBildaPinpointDriver} to fuse latency-compensated vision measurements
@@ -34,19 +35,46 @@ import java.util.TreeMap;
 public class GoBildaPinpointPoseEstimator {
   private final Matrix<N3, N1> odometryMatrix = new Matrix<>(Nat.N3(), Nat.N1());
   private final Matrix<N3, N3> visionMatrix = new Matrix<>(Nat.N3(), Nat.N3());
+  private final double[] visionVariances = new double[3];
+
+  private double gateThreshold = Double.POSITIVE_INFINITY;
+  private int acceptedMeasurements;
+  private int rejectedMeasurements;
+  private boolean publishTelemetry = true;
 
   private static final double kBufferDuration = 1.5;
+  private static final double kVelocityWindow = 0.05;
   // Maps timestamps to odometry-only pose estimates
   private final TimeInterpolatableBuffer<Pose2d> poseBuffer =
       TimeInterpolatableBuffer.createBuffer(kBufferDuration);
-  // Maps timestamps to vision updates
-  // Always contains one entry before the oldest entry in m_odometryPoseBuffer, unless there have
-  // been no vision measurements after the last reset
-  private final NavigableMap<Double, VisionUpdate> visionUpdates = new TreeMap<>();
+  // Enough for over 150 vision measurements a second for the whole pose buffer
+  private static final int kMaxVisionUpdates = 256;
+  // Vision updates, sorted by timestamp in a ring starting at visionHead. Each one is the
+  // vision-compensated pose at its timestamp, and the odometry-only pose it compensates.
+  // Always contains one update before the oldest entry in poseBuffer, unless there have been no
+  // vision measurements after the last reset
+  private final double[] visionTimestamps = new double[kMaxVisionUpdates];
+  private final Pose2d[] visionPoses = new Pose2d[kMaxVisionUpdates];
+  private final Pose2d[] visionOdometryPoses = new Pose2d[kMaxVisionUpdates];
+  private int visionHead = 0;
+  private int visionCount = 0;
 
   private final GoBildaPinpointDriver odometry;
+  private GoBildaPinpointPoller poller;
 
+  private Pose2d odometryPose = Pose2d.kZero;
+  // Built from the compensated values below when it's asked for, if they're newer
   private Pose2d poseEstimate = Pose2d.kZero;
+  // Written by compensate(), with the rotation not yet normalized
+  private double compensatedX;
+  private double compensatedY;
+  private double compensatedRotationX;
+  private double compensatedRotationY;
+  private final Twist2d scaledTwist = new Twist2d();
+
+  private boolean usePinpointVelocity = false;
+  // Robot relative, per second
+  private final Twist2d pinpointVelocity = new Twist2d();
 
   public GoBildaPinpointPoseEstimator(
       OpMode opMode,
@@ -72,7 +100,39 @@ public class GoBildaPinpointPoseEstimator {
       boolean[] inversions,
       Matrix<N3, N1> stateStdDevs,
       Matrix<N3, N1> visionMeasurementStdDevs) {
-    odometry = opMode.hardwareMap.get(GoBildaPinpointDriver.class, name);
+    this(
+        configure(
+            opMode.hardwareMap.get(GoBildaPinpointDriver.class, name), pods, offsets, inversions),
+        stateStdDevs,
+        visionMeasurementStdDevs);
+  }
+
+  /**
+   * Creates an estimator without a Pinpoint, for replaying recorded odometry through {@link
+   * GoBildaPinpointPoseEstimator#addOdometrySample(double, Pose2d)}. Nothing that reads or resets
+   * the Pinpoint can be used. See {@link EstimatorReplay}.
+   */
+  GoBildaPinpointPoseEstimator(
+      Matrix<N3, N1> stateStdDevs, Matrix<N3, N1> visionMeasurementStdDevs) {
+    this(null, stateStdDevs, visionMeasurementStdDevs);
+  }
+
+  private GoBildaPinpointPoseEstimator(
+      GoBildaPinpointDriver odometry,
+      Matrix<N3, N1> stateStdDevs,
+      Matrix<N3, N1> visionMeasurementStdDevs) {
+    this.odometry = odometry;
+    for (int i = 0; i < 3; ++i) {
+      odometryMatrix.set(i, 0, stateStdDevs.get(i, 0) * stateStdDevs.get(i, 0));
+    }
+    setVisionMeasurementStdDevs(visionMeasurementStdDevs);
+  }
+
+  private static GoBildaPinpointDriver configure(
+      GoBildaPinpointDriver odometry,
+      GoBildaPinpointDriver.GoBildaOdometryPods pods,
+      double[] offsets,
+      boolean[] inversions) {
     odometry.setOffsets(offsets[0], offsets[1]);
     odometry.setEncoderResolution(pods);
     odometry.setEncoderDirections(
@@ -85,11 +145,33 @@ public class GoBildaPinpointPoseEstimator {
 
     odometry.resetPosAndIMU();
     Timer.delay(.25);
+    return odometry;
+  }
 
-    for (int i = 0; i < 3; ++i) {
-      odometryMatrix.set(i, 0, stateStdDevs.get(i, 0) * stateStdDevs.get(i, 0));
+  /**
+   * Reads the Pinpoint on its own thread, instead of in {@link
+   * GoBildaPinpointPoseEstimator#update()}. Every sample the thread takes is added to the pose
+   * history, stamped with the midpoint of its I2C transaction. This has to be called before the op
+   * mode starts.
+   *
+   * <p>See {@link GoBildaPinpointPoller}.
+   */
+  public void enablePolling() {
+    if (poller == null) {
+      poller = new GoBildaPinpointPoller(odometry);
     }
-    setVisionMeasurementStdDevs(visionMeasurementStdDevs);
+  }
+
+  /**
+   * Makes {@link GoBildaPinpointPoseEstimator#getPredictedPose(double)} use the velocity the
+   * Pinpoint measures, instead of the velocity between recent odometry samples. The Pinpoint
+   * measures it every one of its own loops, so it reacts to changes sooner, but it has to be read
+   * along with the position every update. The poller always reads it.
+   *
+   * @param usePinpointVelocity Whether to use the Pinpoint's velocity.
+   */
+  public void setUsePinpointVelocity(boolean usePinpointVelocity) {
+    this.usePinpointVelocity = usePinpointVelocity;
   }
 
   /**
@@ -102,9 +184,8 @@ public class GoBildaPinpointPoseEstimator {
    *     theta]ᵀ, with units in meters and radians.
    */
   public final void setVisionMeasurementStdDevs(Matrix<N3, N1> visionMeasurementStdDevs) {
-    var r = new double[3];
     for (int i = 0; i < 3; ++i) {
-      r[i] = visionMeasurementStdDevs.get(i, 0) * visionMeasurementStdDevs.get(i, 0);
+      visionVariances[i] = visionMeasurementStdDevs.get(i, 0) * visionMeasurementStdDevs.get(i, 0);
     }
 
     // Solve for closed form Kalman gain for continuous Kalman filter with A = 0
@@ -117,19 +198,68 @@ public class GoBildaPinpointPoseEstimator {
             row,
             row,
             odometryMatrix.get(row, 0)
-                / (odometryMatrix.get(row, 0) + Math.sqrt(odometryMatrix.get(row, 0) * r[row])));
+                / (odometryMatrix.get(row, 0)
+                    + Math.sqrt(odometryMatrix.get(row, 0) * visionVariances[row])));
       }
     }
   }
 
   /**
-   * Resets the robot's pose.
+   * Sets how unlikely a vision measurement can be before it's rejected. A measurement is rejected
+   * if its squared Mahalanobis distance from the estimated pose at its timestamp is above the
+   * threshold, using both the state and the vision measurement standard deviations.
+   *
+   * <p>If the standard deviations are accurate, the squared distance has a chi-square distribution
+   * with 3 degrees of freedom. For example, a threshold of 11.34 only rejects 1% of good
+   * measurements. Defaults to infinity, which accepts every measurement.
+   *
+   * @param chiSquaredThreshold The largest squared Mahalanobis distance that's accepted.
+   */
+  public void setVisionGateThreshold(double chiSquaredThreshold) {
+    gateThreshold = chiSquaredThreshold;
+  }
+
+  /**
+   * Gets how many vision measurements have passed the gate. See {@link
+   * GoBildaPinpointPoseEstimator#setVisionGateThreshold(double)}.
+   *
+   * @return The number of accepted vision measurements.
+   */
+  public int getAcceptedVisionMeasurements() {
+    return acceptedMeasurements;
+  }
+
+  /**
+   * Gets how many vision measurements have been rejected by the gate. See {@link
+   * GoBildaPinpointPoseEstimator#setVisionGateThreshold(double)}.
+   *
+   * @return The number of rejected vision measurements.
+   */
+  public int getRejectedVisionMeasurements() {
+    return rejectedMeasurements;
+  }
+
+  /**
+   * Sets whether the gate's counters are published to {@link Telemetry}. Estimators that aren't
+   * the robot's, like ones being replayed, can turn it off so they don't publish over its keys.
+   *
+   * @param publishTelemetry Whether to publish the counters. Defaults to true.
+   */
+  public void setPublishTelemetry(boolean publishTelemetry) {
+    this.publishTelemetry = publishTelemetry;
+  }
+
+  /**
+   * Resets the robot's pose. The estimate is the new pose right away. Odometry read before the new
+   * pose is written to the Pinpoint is dropped, including samples the poller has already taken.
    *
    * @param pose The pose to reset to.
    */
   public void resetPose(Pose2d pose) {
     odometry.resetPosition(pose);
     poseBuffer.clear();
+    clearVisionUpdates();
+    poseEstimate = pose;
   }
 
   /**
@@ -140,6 +270,8 @@ public class GoBildaPinpointPoseEstimator {
   public void resetTranslation(Translation2d translation) {
     odometry.resetTranslation(translation);
     poseBuffer.clear();
+    clearVisionUpdates();
+    poseEstimate = new Pose2d(translation, getEstimatedPosition().getRotation());
   }
 
   /**
@@ -150,6 +282,8 @@ public class GoBildaPinpointPoseEstimator {
   public void resetRotation(Rotation2d rotation) {
     odometry.resetHeading(rotation);
     poseBuffer.clear();
+    clearVisionUpdates();
+    poseEstimate = new Pose2d(getEstimatedPosition().getTranslation(), rotation);
   }
 
   /**
@@ -158,9 +292,53 @@ public class GoBildaPinpointPoseEstimator {
    * @return The estimated robot pose in meters.
    */
   public Pose2d getEstimatedPosition() {
+    if (poseEstimate == null) {
+      poseEstimate =
+          new Pose2d(
+              compensatedX,
+              compensatedY,
+              new Rotation2d(compensatedRotationX, compensatedRotationY));
+    }
     return poseEstimate;
   }
 
+  /**
+   * Predicts the robot's pose at a time after the last update, by continuing along the arc it's
+   * been driving. Control commands can use this to act on where the robot will be when their
+   * output takes effect, instead of where it was.
+   *
+   * <p>The velocity is measured from the odometry of the last 50 ms of updates, so vision
+   * measurements don't affect it, or read from the Pinpoint if {@link
+   * GoBildaPinpointPoseEstimator#setUsePinpointVelocity(boolean)} is enabled.
+   *
+   * @param futureTimeSeconds The time to predict the pose at, in the same timebase as {@link
+   *     GoBildaPinpointPoseEstimator#updateWithTime(double)}. Seconds.
+   * @return The predicted pose in meters.
+   */
+  public Pose2d getPredictedPose(double futureTimeSeconds) {
+    if (poseBuffer.isEmpty()) {
+      return getEstimatedPosition();
+    }
+    var velocity = usePinpointVelocity ? pinpointVelocity : getBufferVelocity();
+    var dt = futureTimeSeconds - poseBuffer.getTimestamp(poseBuffer.size() - 1);
+    return getEstimatedPosition()
+        .exp(new Twist2d(velocity.dx * dt, velocity.dy * dt, velocity.dtheta * dt));
+  }
+
+  /** Returns the robot relative velocity between odometry samples, per second. */
+  private Twist2d getBufferVelocity() {
+    var newest = poseBuffer.size() - 1;
+    if (newest < 1) {
+      return new Twist2d();
+    }
+    var newestTime = poseBuffer.getTimestamp(newest);
+    var start = Math.min(poseBuffer.ceilingIndex(newestTime - kVelocityWindow), newest - 1);
+    var dt = newestTime - poseBuffer.getTimestamp(start);
+    // Odometry-only poses, so the twist isn't affected by vision
+    var twist = poseBuffer.getValue(start).log(poseBuffer.getValue(newest));
+    return new Twist2d(twist.dx / dt, twist.dy / dt, twist.dtheta / dt);
+  }
+
   /**
    * Return the pose at a given timestamp, if the buffer is not empty.
    *
@@ -168,54 +346,137 @@ public class GoBildaPinpointPoseEstimator {
    * @return The pose at the given timestamp (or Optional.empty() if the buffer is empty).
    */
   public Optional<Pose2d> sampleAt(double timestampSeconds) {
+    return Optional.ofNullable(sample(timestampSeconds));
+  }
+
+  /** Like {@link #sampleAt(double)}, but returns null if the buffer is empty. */
+  private Pose2d sample(double timestampSeconds) {
     // Step 0: If there are no odometry updates to sample, skip.
-    if (poseBuffer.getInternalBuffer().isEmpty()) {
-      return Optional.empty();
+    if (poseBuffer.isEmpty()) {
+      return null;
     }
 
     // Step 1: Make sure timestamp matches the sample from the odometry pose buffer. (When sampling,
     // the buffer will always use a timestamp between the first and last timestamps)
-    double oldestOdometryTimestamp = poseBuffer.getInternalBuffer().firstKey();
-    double newestOdometryTimestamp = poseBuffer.getInternalBuffer().lastKey();
+    double oldestOdometryTimestamp = poseBuffer.getTimestamp(0);
+    double newestOdometryTimestamp = poseBuffer.getTimestamp(poseBuffer.size() - 1);
     timestampSeconds =
         MathUtil.clamp(timestampSeconds, oldestOdometryTimestamp, newestOdometryTimestamp);
 
-    // Step 2: If there are no applicable vision updates, use the odometry-only information.
-    if (visionUpdates.isEmpty() || timestampSeconds < visionUpdates.firstKey()) {
-      return poseBuffer.getSample(timestampSeconds);
-    }
-
-    // Step 3: Get the latest vision update from before or at the timestamp to sample at.
-    double floorTimestamp = visionUpdates.floorKey(timestampSeconds);
-    var visionUpdate = visionUpdates.get(floorTimestamp);
+    // Step 2: Get the pose measured by odometry at the time of the sample.
+    var odometryEstimate = poseBuffer.getSample(timestampSeconds).orElseThrow();
 
-    // Step 4: Get the pose measured by odometry at the time of the sample.
-    var odometryEstimate = poseBuffer.getSample(timestampSeconds);
+    // Step 3: Get the latest vision update from before or at the timestamp to sample at. If there
+    // isn't one, use the odometry-only information.
+    int visionUpdate = countVisionUpdatesUpTo(timestampSeconds) - 1;
+    if (visionUpdate < 0) {
+      return odometryEstimate;
+    }
 
-    // Step 5: Apply the vision compensation to the odometry pose.
-    return odometryEstimate.map(odometryPose -> visionUpdate.compensate(odometryPose));
+    // Step 4: Apply the vision compensation to the odometry pose.
+    compensate(visionUpdate, odometryEstimate);
+    return new Pose2d(
+        compensatedX, compensatedY, new Rotation2d(compensatedRotationX, compensatedRotationY));
   }
 
   /** Removes stale vision updates that won't affect sampling. */
   private void cleanUpVisionUpdates() {
     // Step 0: If there are no odometry samples, skip.
-    if (poseBuffer.getInternalBuffer().isEmpty()) {
+    if (poseBuffer.isEmpty()) {
       return;
     }
 
     // Step 1: Find the oldest timestamp that needs a vision update.
-    double oldestOdometryTimestamp = poseBuffer.getInternalBuffer().firstKey();
+    double oldestOdometryTimestamp = poseBuffer.getTimestamp(0);
 
-    // Step 2: If there are no vision updates before that timestamp, skip.
-    if (visionUpdates.isEmpty() || oldestOdometryTimestamp < visionUpdates.firstKey()) {
-      return;
+    // Step 2: Find the newest vision update before or at the oldest timestamp. If there isn't one,
+    // skip.
+    int newestNeededVisionUpdate = countVisionUpdatesUpTo(oldestOdometryTimestamp) - 1;
+
+    // Step 3: Remove all updates strictly before the newest update we need.
+    for (int i = 0; i < newestNeededVisionUpdate; i++) {
+      removeOldestVisionUpdate();
     }
+  }
+
+  /** Returns how many vision updates are before or at the timestamp. */
+  private int countVisionUpdatesUpTo(double timestampSeconds) {
+    int low = 0;
+    int high = visionCount;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (visionTimestamps[visionIndex(mid)] <= timestampSeconds) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
 
-    // Step 3: Find the newest vision update timestamp before or at the oldest timestamp.
-    double newestNeededVisionUpdateTimestamp = visionUpdates.floorKey(oldestOdometryTimestamp);
+  // Vision updates from before a reset would move the new pose
+  private void clearVisionUpdates() {
+    Arrays.fill(visionPoses, null);
+    Arrays.fill(visionOdometryPoses, null);
+    visionHead = 0;
+    visionCount = 0;
+  }
+
+  private void removeOldestVisionUpdate() {
+    visionPoses[visionHead] = null;
+    visionOdometryPoses[visionHead] = null;
+    visionHead = (visionHead + 1) % kMaxVisionUpdates;
+    visionCount--;
+  }
 
-    // Step 4: Remove all entries strictly before the newest timestamp we need.
-    visionUpdates.headMap(newestNeededVisionUpdateTimestamp, false).clear();
+  private int visionIndex(int index) {
+    return (visionHead + index) % kMaxVisionUpdates;
+  }
+
+  /**
+   * Computes the vision-compensated version of a pose. Specifically, changes the pose from being
+   * relative to a vision update's odometry pose to being relative to its vision pose.
+   *
+   * <p>This is <code>visionPose.plus(pose.minus(odometryPose))</code> of the update, step for step,
+   * so the result is identical, but it's written to the compensated fields instead of allocating.
+   *
+   * @param index The index of the vision update, where 0 is the oldest.
+   * @param pose The pose to compensate.
+   */
+  private void compensate(int index, Pose2d pose) {
+    var physicalIndex = visionIndex(index);
+    var updateOdometryPose = visionOdometryPoses[physicalIndex];
+    var updateVisionPose = visionPoses[physicalIndex];
+
+    // delta = pose.minus(updateOdometryPose)
+    var inverseCos = Math.cos(-updateOdometryPose.getRotation().getRadians());
+    var inverseSin = Math.sin(-updateOdometryPose.getRotation().getRadians());
+    var translationX = pose.getX() - updateOdometryPose.getX();
+    var translationY = pose.getY() - updateOdometryPose.getY();
+    var deltaX = translationX * inverseCos - translationY * inverseSin;
+    var deltaY = translationX * inverseSin + translationY * inverseCos;
+    var poseCos = pose.getRotation().getCos();
+    var poseSin = pose.getRotation().getSin();
+    var deltaRotationX = poseCos * inverseCos - poseSin * inverseSin;
+    var deltaRotationY = poseCos * inverseSin + poseSin * inverseCos;
+    var deltaMagnitude = Math.hypot(deltaRotationX, deltaRotationY);
+    double deltaCos;
+    double deltaSin;
+    if (deltaMagnitude > 1e-6) {
+      deltaSin = deltaRotationY / deltaMagnitude;
+      deltaCos = deltaRotationX / deltaMagnitude;
+    } else {
+      deltaSin = 0.0;
+      deltaCos = 1.0;
+    }
+
+    // updateVisionPose.plus(delta)
+    var visionCos = updateVisionPose.getRotation().getCos();
+    var visionSin = updateVisionPose.getRotation().getSin();
+    compensatedX = updateVisionPose.getX() + (deltaX * visionCos - deltaY * visionSin);
+    compensatedY = updateVisionPose.getY() + (deltaX * visionSin + deltaY * visionCos);
+    compensatedRotationX = deltaCos * visionCos - deltaSin * visionSin;
+    compensatedRotationY = deltaCos * visionSin + deltaSin * visionCos;
   }
 
   /**
@@ -234,8 +495,8 @@ public class GoBildaPinpointPoseEstimator {
    */
   public void addVisionMeasurement(Pose2d visionRobotPoseMeters, double timestampSeconds) {
     // Step 0: If this measurement is old enough to be outside the pose buffer's timespan, skip.
-    if (poseBuffer.getInternalBuffer().isEmpty()
-        || poseBuffer.getInternalBuffer().lastKey() - kBufferDuration > timestampSeconds) {
+    if (poseBuffer.isEmpty()
+        || poseBuffer.getTimestamp(poseBuffer.size() - 1) - kBufferDuration > timestampSeconds) {
       return;
     }
 
@@ -243,41 +504,89 @@ public class GoBildaPinpointPoseEstimator {
     cleanUpVisionUpdates();
 
     // Step 2: Get the pose measured by odometry at the moment the vision measurement was made.
-    var odometrySample = poseBuffer.getSample(timestampSeconds);
-
-    if (odometrySample.isEmpty()) {
-      return;
-    }
+    // The buffer isn't empty, so there's always a sample.
+    var odometrySample = poseBuffer.getSample(timestampSeconds).orElseThrow();
 
     // Step 3: Get the vision-compensated pose estimate at the moment the vision measurement was
     // made.
-    var visionSample = sampleAt(timestampSeconds);
+    var visionSample = sample(timestampSeconds);
 
-    if (visionSample.isEmpty()) {
+    // Step 4: Measure the twist between the old pose estimate and the vision pose, and reject the
+    // measurement if it's too far off.
+    var twist = visionSample.log(visionRobotPoseMeters);
+    if (!passesGate(twist)) {
       return;
     }
 
-    // Step 4: Measure the twist between the old pose estimate and the vision pose.
-    var twist = visionSample.get().log(visionRobotPoseMeters);
-
     // Step 5: We should not trust the twist entirely, so instead we scale this twist by a Kalman
     // gain matrix representing how much we trust vision measurements compared to our current pose.
-    var k_times_twist = visionMatrix.times(VecBuilder.fill(twist.dx, twist.dy, twist.dtheta));
-
-    // Step 6: Convert back to Twist2d.
-    var scaledTwist =
-        new Twist2d(k_times_twist.get(0, 0), k_times_twist.get(1, 0), k_times_twist.get(2, 0));
-
-    // Step 7: Calculate and record the vision update.
-    var visionUpdate = new VisionUpdate(visionSample.get().exp(scaledTwist), odometrySample.get());
-    visionUpdates.put(timestampSeconds, visionUpdate);
+    // The gain is diagonal, so it's applied per axis, straight into a reused Twist2d (step 6).
+    scaledTwist.dx = visionMatrix.get(0, 0) * twist.dx;
+    scaledTwist.dy = visionMatrix.get(1, 1) * twist.dy;
+    scaledTwist.dtheta = visionMatrix.get(2, 2) * twist.dtheta;
+
+    // Step 7: Remove vision updates at or after this one. (Matches previous behavior)
+    var keptUpdates = countVisionUpdatesUpTo(timestampSeconds);
+    if (keptUpdates > 0 && visionTimestamps[visionIndex(keptUpdates - 1)] == timestampSeconds) {
+      keptUpdates--;
+    }
+    for (int i = keptUpdates; i < visionCount; i++) {
+      visionPoses[visionIndex(i)] = null;
+      visionOdometryPoses[visionIndex(i)] = null;
+    }
+    visionCount = keptUpdates;
 
-    // Step 8: Remove later vision measurements. (Matches previous behavior)
-    visionUpdates.tailMap(timestampSeconds, false).entrySet().clear();
+    // Step 8: Calculate and record the vision update. If the ring is full, the oldest update is
+    // dropped, which only changes samples from before it.
+    if (visionCount == kMaxVisionUpdates) {
+      removeOldestVisionUpdate();
+    }
+    var index = visionIndex(visionCount);
+    visionTimestamps[index] = timestampSeconds;
+    visionPoses[index] = visionSample.exp(scaledTwist);
+    visionOdometryPoses[index] = odometrySample;
+    visionCount++;
 
     // Step 9: Update latest pose estimate. Since we cleared all updates after this vision update,
     // it's guaranteed to be the latest vision update.
-    poseEstimate = visionUpdate.compensate(odometry.getPose());
+    compensate(visionCount - 1, odometryPose);
+    poseEstimate = null;
+  }
+
+  /**
+   * Checks a vision measurement against the estimated pose at its timestamp, and counts whether
+   * it was accepted.
+   *
+   * @param twist The twist from the estimated pose to the vision pose.
+   * @return Whether the measurement should be fused.
+   */
+  private boolean passesGate(Twist2d twist) {
+    // The innovation covariance is diagonal, so the squared Mahalanobis distance is a sum.
+    var distanceSquared =
+        normalizedSquare(twist.dx, odometryMatrix.get(0, 0) + visionVariances[0])
+            + normalizedSquare(twist.dy, odometryMatrix.get(1, 0) + visionVariances[1])
+            + normalizedSquare(twist.dtheta, odometryMatrix.get(2, 0) + visionVariances[2]);
+
+    var accepted = !(distanceSquared > gateThreshold);
+    if (accepted) {
+      acceptedMeasurements++;
+      if (publishTelemetry) {
+        Telemetry.put(
+            "GoBildaPinpointPoseEstimator/Accepted Vision Measurements", acceptedMeasurements);
+      }
+    } else {
+      rejectedMeasurements++;
+      if (publishTelemetry) {
+        Telemetry.put(
+            "GoBildaPinpointPoseEstimator/Rejected Vision Measurements", rejectedMeasurements);
+      }
+    }
+    return accepted;
+  }
+
+  // Axes with no variance can't be judged, and aren't corrected either
+  private static double normalizedSquare(double error, double variance) {
+    return variance > 0 ? error * error / variance : 0;
   }
 
   /**
@@ -312,55 +621,114 @@ public class GoBildaPinpointPoseEstimator {
   /**
    * Updates the pose estimator with wheel encoder and gyro information. This should be called every
    * loop.
+   *
+   * <p>The odometry pose is stamped with the midpoint of the read, or with the midpoint of each
+   * read made by the polling thread if {@link GoBildaPinpointPoseEstimator#enablePolling()} was
+   * called.
+   *
+   * @return The estimated pose of the robot in meters.
    */
   public Pose2d update() {
-    return updateWithTime(Utils.getTimeSeconds());
+    if (poller != null) {
+      return updateFromPoller();
+    }
+    var startTime = Utils.getTimeSeconds();
+    if (!odometry.update() || isFromBeforeReset(startTime)) {
+      return getEstimatedPosition();
+    }
+    return addOdometrySample((startTime + Utils.getTimeSeconds()) / 2);
   }
 
   /**
    * Updates the pose estimator with wheel encoder and gyro information. This should be called every
    * loop.
    *
+   * <p>If {@link GoBildaPinpointPoseEstimator#enablePolling()} was called, the polling thread's
+   * timestamps are used instead of the given time.
+   *
    * @param currentTimeSeconds Time at which this method was called, in seconds.
    * @return The estimated pose of the robot in meters.
    */
   public Pose2d updateWithTime(double currentTimeSeconds) {
-    odometry.update();
-    if (odometry.getDeviceStatus() != GoBildaPinpointDriver.DeviceStatus.READY) {
+    if (poller != null) {
+      return updateFromPoller();
+    }
+    var startTime = Utils.getTimeSeconds();
+    if (!odometry.update() || isFromBeforeReset(startTime)) {
       return getEstimatedPosition();
     }
-    var odometryEstimate = odometry.getPose();
-
-    poseBuffer.addSample(currentTimeSeconds, odometryEstimate);
+    return addOdometrySample(currentTimeSeconds);
+  }
 
-    if (visionUpdates.isEmpty()) {
-      poseEstimate = odometryEstimate;
-    } else {
-      var visionUpdate = visionUpdates.get(visionUpdates.lastKey());
-      poseEstimate = visionUpdate.compensate(odometryEstimate);
+  private Pose2d addOdometrySample(double timestampSeconds) {
+    if (odometry.getDeviceStatus() != GoBildaPinpointDriver.DeviceStatus.READY) {
+      return getEstimatedPosition();
+    }
+    if (usePinpointVelocity) {
+      setPinpointVelocity(
+          odometry.getHeadingRadians(),
+          odometry.getVelX(),
+          odometry.getVelY(),
+          odometry.getHeadingVelocity());
     }
+    addOdometrySample(timestampSeconds, odometry.getPose());
+    return getEstimatedPosition();
+  }
 
+  private Pose2d updateFromPoller() {
+    // Only the poller's samples are read, as the poller's thread is writing the driver's fields
+    poller.drain(
+        sample -> {
+          if (isFromBeforeReset(sample.timestampSeconds)) {
+            return;
+          }
+          if (usePinpointVelocity) {
+            setPinpointVelocity(
+                sample.heading, sample.xVelocity, sample.yVelocity, sample.headingVelocity);
+          }
+          addOdometrySample(
+              sample.timestampSeconds,
+              new Pose2d(sample.x, sample.y, new Rotation2d(sample.heading)));
+        });
     return getEstimatedPosition();
   }
 
   /**
-   * Represents a vision update record. The record contains the vision-compensated pose estimate as
-   * well as the corresponding odometry pose estimate.
+   * Whether a read may have returned the pose from before the last reset, which would undo it.
+   * That's the case for samples the poller took before the reset, and for reads made before a
+   * reset sent through a {@link ftc.lib.trobotix.hardware.HubWriter} was written.
    *
-   * @param visionPose The vision-compensated pose estimate.
-   * @param odometryPose The pose estimated based solely on odometry.
+   * @param readTimeSeconds When the read was made. Seconds.
    */
-  private record VisionUpdate(Pose2d visionPose, Pose2d odometryPose) {
-    /**
-     * Returns the vision-compensated version of the pose. Specifically, changes the pose from being
-     * relative to this record's odometry pose to being relative to this record's vision pose.
-     *
-     * @param pose The pose to compensate.
-     * @return The compensated pose.
-     */
-    public Pose2d compensate(Pose2d pose) {
-      var delta = pose.minus(this.odometryPose);
-      return this.visionPose.plus(delta);
+  private boolean isFromBeforeReset(double readTimeSeconds) {
+    return odometry.isResetPending() || readTimeSeconds < odometry.getResetWriteTime();
+  }
+
+  private void setPinpointVelocity(
+      double heading, double velocityX, double velocityY, double headingVelocity) {
+    // The Pinpoint's velocity is field relative
+    var cos = Math.cos(heading);
+    var sin = Math.sin(heading);
+    pinpointVelocity.dx = velocityX * cos + velocityY * sin;
+    pinpointVelocity.dy = -velocityX * sin + velocityY * cos;
+    pinpointVelocity.dtheta = headingVelocity;
+  }
+
+  /**
+   * Adds a pose read from the Pinpoint to the pose history, and updates the estimate.
+   *
+   * @param timestampSeconds When the pose was read. Seconds.
+   * @param odometryEstimate The pose the Pinpoint reported, in meters.
+   */
+  void addOdometrySample(double timestampSeconds, Pose2d odometryEstimate) {
+    odometryPose = odometryEstimate;
+    poseBuffer.addSample(timestampSeconds, odometryEstimate);
+
+    if (visionCount == 0) {
+      poseEstimate = odometryEstimate;
+    } else {
+      compensate(visionCount - 1, odometryEstimate);
+      poseEstimate = null;
     }
   }
 }
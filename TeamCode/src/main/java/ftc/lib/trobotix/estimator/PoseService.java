@@ -0,0 +1,287 @@
+// Copyright (c) 2024-2025 FTC 8696
+// All rights reserved.
+
+package ftc.lib.trobotix.estimator;
+
+import ftc.lib.trobotix.EndableThread;
+import ftc.lib.trobotix.Utils;
+import ftc.lib.wpilib.math.Matrix;
+import ftc.lib.wpilib.math.estimator.PoseEstimator;
+import ftc.lib.wpilib.math.geometry.Pose2d;
+import ftc.lib.wpilib.math.numbers.N1;
+import ftc.lib.wpilib.math.numbers.N3;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a pose estimator on its own thread, so odometry is read and fused at a higher rate than the
+ * control loop runs at, and vision measurements don't block whoever produced them.
+ *
+ * <p>The estimator is only ever touched by the service's thread. Odometry is read every period,
+ * vision measurements from any thread are queued and fused after the next odometry update, and
+ * resets are applied before it. After every update the estimate is published as an immutable
+ * {@link Estimate}, which replaces the previous one, so the control loop always reads a pose and
+ * timestamp that belong together without locking anything.
+ *
+ * <p>The odometry sources are read on the service's thread, so they have to be safe to read from
+ * it, and be read when they're called. The Pinpoint is, so it's what the service is built for. An
+ * {@link Estimator} can wrap other sources that are read directly over I2C. Encoders read through
+ * a hub, like {@link ftc.lib.trobotix.hardware.Motor} and {@link
+ * ftc.lib.trobotix.hardware.RelativeEncoder}, can't be used. Their reads come from a bulk cache
+ * that the control loop clears (see {@link ftc.lib.trobotix.hardware.HubManager}), so the service
+ * would stamp stale positions with its own time, and they cache state that isn't safe to share
+ * between threads. Estimators that read wheels or deadwheels, like {@link OmniWheelPoseEstimator}
+ * and {@link DeadwheelsWithGyroPoseEstimator}, have to run on the control loop instead.
+ *
+ * <p>Like other {@link EndableThread}s, the service starts when the op mode starts and stops when
+ * it ends. It has to be created before the op mode starts.
+ */
+public class PoseService extends EndableThread {
+  private static final double kDefaultPeriod = 0.002;
+
+  private final Estimator estimator;
+
+  private volatile double period = kDefaultPeriod;
+  private volatile Estimate estimate;
+
+  private final ConcurrentLinkedQueue<PoseEstimator.Measurement> visionQueue =
+      new ConcurrentLinkedQueue<>();
+  private final AtomicReference<Pose2d> pendingReset = new AtomicReference<>();
+  // Only used by the service's thread
+  private final ArrayList<PoseEstimator.Measurement> visionMeasurements = new ArrayList<>();
+  private double resetTimestamp = Double.NEGATIVE_INFINITY;
+
+  /**
+   * Creates a service for any estimator. Its odometry sources have to be safe to read from the
+   * service's thread, see {@link PoseService}.
+   *
+   * @param estimator The estimator.
+   */
+  public PoseService(Estimator estimator) {
+    super("Pose Service");
+    this.estimator = estimator;
+    estimate = new Estimate(estimator.getEstimatedPosition(), Utils.getTimeSeconds());
+  }
+
+  /**
+   * Creates a service for a {@link GoBildaPinpointPoseEstimator}. The Pinpoint is read by the
+   * service's thread, so {@link GoBildaPinpointPoseEstimator#enablePolling()} shouldn't be used
+   * with it.
+   *
+   * <p>Unlike WPILib's estimators, vision measurement standard deviations continue to apply to
+   * later measurements, see {@link GoBildaPinpointPoseEstimator#addVisionMeasurement(Pose2d,
+   * double, Matrix)}.
+   *
+   * @param estimator The estimator.
+   */
+  public PoseService(GoBildaPinpointPoseEstimator estimator) {
+    this(
+        new Estimator() {
+          @Override
+          public Pose2d update(double timestampSeconds) {
+            // Stamped with the midpoint of the read instead
+            return estimator.update();
+          }
+
+          @Override
+          public void addVisionMeasurement(
+              Pose2d visionRobotPoseMeters,
+              double timestampSeconds,
+              Matrix<N3, N1> visionMeasurementStdDevs) {
+            if (visionMeasurementStdDevs == null) {
+              estimator.addVisionMeasurement(visionRobotPoseMeters, timestampSeconds);
+            } else {
+              estimator.addVisionMeasurement(
+                  visionRobotPoseMeters, timestampSeconds, visionMeasurementStdDevs);
+            }
+          }
+
+          @Override
+          public void resetPose(Pose2d poseMeters) {
+            estimator.resetPose(poseMeters);
+          }
+
+          @Override
+          public Pose2d getEstimatedPosition() {
+            return estimator.getEstimatedPosition();
+          }
+        });
+  }
+
+  /**
+   * Sets how often odometry is read. Defaults to 0.002 seconds. (500 hz) If an update takes longer
+   * than the period, the next one starts immediately.
+   *
+   * @param seconds The time between updates. Seconds.
+   */
+  public void setPeriod(double seconds) {
+    period = seconds;
+  }
+
+  @Override
+  public void loop() {
+    var startTime = Utils.getTimeSeconds();
+    step(startTime);
+
+    var remaining = startTime + period - Utils.getTimeSeconds();
+    if (remaining > 0) {
+      LockSupport.parkNanos((long) (remaining * 1e9));
+    }
+  }
+
+  /**
+   * Applies a pending reset, reads odometry, fuses every queued vision measurement, and publishes
+   * the new estimate.
+   *
+   * <p>Called by the service's thread, but can be called manually to step a simulation without
+   * starting the thread. Shouldn't be called while the thread is running.
+   *
+   * @param timestampSeconds The time odometry is read at. Seconds.
+   */
+  public void step(double timestampSeconds) {
+    var reset = pendingReset.getAndSet(null);
+    if (reset != null) {
+      estimator.resetPose(reset);
+      resetTimestamp = timestampSeconds;
+    }
+
+    var pose = estimator.update(timestampSeconds);
+
+    PoseEstimator.Measurement measurement;
+    while ((measurement = visionQueue.poll()) != null) {
+      // Measurements of where the robot was before a reset would undo it
+      if (measurement.timestampSeconds() >= resetTimestamp) {
+        visionMeasurements.add(measurement);
+      }
+    }
+    if (!visionMeasurements.isEmpty()) {
+      visionMeasurements.sort(
+          Comparator.comparingDouble(PoseEstimator.Measurement::timestampSeconds));
+      estimator.addVisionMeasurements(visionMeasurements);
+      visionMeasurements.clear();
+      pose = estimator.getEstimatedPosition();
+    }
+
+    estimate = new Estimate(pose, timestampSeconds);
+  }
+
+  /**
+   * Queues a vision measurement, to be fused after the next odometry update. Can be called from any
+   * thread.
+   *
+   * @param visionRobotPoseMeters The pose of the robot as measured by the vision camera.
+   * @param timestampSeconds The timestamp of the vision measurement in seconds.
+   */
+  public void addVisionMeasurement(Pose2d visionRobotPoseMeters, double timestampSeconds) {
+    visionQueue.add(new PoseEstimator.Measurement(visionRobotPoseMeters, timestampSeconds));
+  }
+
+  /**
+   * Queues a vision measurement, to be fused after the next odometry update. Can be called from any
+   * thread.
+   *
+   * @param visionRobotPoseMeters The pose of the robot as measured by the vision camera.
+   * @param timestampSeconds The timestamp of the vision measurement in seconds.
+   * @param visionMeasurementStdDevs Standard deviations of the vision pose measurement (x position
+   *     in meters, y position in meters, and heading in radians). Increase these numbers to trust
+   *     the vision pose measurement less.
+   */
+  public void addVisionMeasurement(
+      Pose2d visionRobotPoseMeters,
+      double timestampSeconds,
+      Matrix<N3, N1> visionMeasurementStdDevs) {
+    visionQueue.add(
+        new PoseEstimator.Measurement(
+            visionRobotPoseMeters, timestampSeconds, visionMeasurementStdDevs));
+  }
+
+  /**
+   * Resets the robot's pose before the next odometry update. Vision measurements from before the
+   * reset are dropped. Can be called from any thread.
+   *
+   * @param poseMeters The pose to reset to.
+   */
+  public void resetPose(Pose2d poseMeters) {
+    pendingReset.set(poseMeters);
+  }
+
+  /**
+   * Gets the latest estimate. Can be called from any thread.
+   *
+   * @return The latest estimate.
+   */
+  public Estimate getEstimate() {
+    return estimate;
+  }
+
+  /**
+   * Gets the latest estimated robot pose. Can be called from any thread.
+   *
+   * @return The estimated robot pose in meters.
+   */
+  public Pose2d getEstimatedPosition() {
+    return estimate.poseMeters();
+  }
+
+  /**
+   * A pose estimate, and the time of the odometry reading it includes.
+   *
+   * @param poseMeters The estimated robot pose in meters.
+   * @param timestampSeconds The time odometry was read at. Seconds.
+   */
+  public record Estimate(Pose2d poseMeters, double timestampSeconds) {}
+
+  /** A pose estimator that the service can run. Only called from the service's thread. */
+  public interface Estimator {
+    /**
+     * Reads odometry, and adds it to the estimate.
+     *
+     * @param timestampSeconds The time odometry is read at. Seconds.
+     * @return The estimated robot pose in meters.
+     */
+    Pose2d update(double timestampSeconds);
+
+    /**
+     * Fuses a vision measurement.
+     *
+     * @param visionRobotPoseMeters The pose of the robot as measured by the vision camera.
+     * @param timestampSeconds The timestamp of the vision measurement in seconds.
+     * @param visionMeasurementStdDevs Standard deviations of the vision pose measurement, or null
+     *     to use the estimator's.
+     */
+    void addVisionMeasurement(
+        Pose2d visionRobotPoseMeters,
+        double timestampSeconds,
+        Matrix<N3, N1> visionMeasurementStdDevs);
+
+    /**
+     * Fuses vision measurements. By default, they're fused one at a time.
+     *
+     * @param measurements The vision measurements, oldest first.
+     */
+    default void addVisionMeasurements(List<PoseEstimator.Measurement> measurements) {
+      for (var measurement : measurements) {
+        addVisionMeasurement(
+            measurement.poseMeters(), measurement.timestampSeconds(), measurement.stdDevs());
+      }
+    }
+
+    /**
+     * Resets the robot's pose.
+     *
+     * @param poseMeters The pose to reset to.
+     */
+    void resetPose(Pose2d poseMeters);
+
+    /**
+     * Gets the estimated robot pose.
+     *
+     * @return The estimated robot pose in meters.
+     */
+    Pose2d getEstimatedPosition();
+  }
+}
@@ -0,0 +1,216 @@
+// Copyright (c) 2024-2025 FTC 8696
+// All rights reserved.
+
+package ftc.lib.trobotix.estimator;
+
+import edu.wpi.first.util.datalog.DataLogReader;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Recorded odometry, vision measurements, and ground truth poses, for {@link EstimatorReplay}.
+ *
+ * <p>Every row is a double array that starts with the time it was recorded, in the robot's
+ * timebase. ({@link ftc.lib.trobotix.Utils#getTimeSeconds()}) The rest of the row depends on what
+ * it is:
+ *
+ * <ul>
+ *   <li>Odometry: whatever the estimator reads. For a {@link
+ *       ftc.lib.wpilib.math.estimator.PoseEstimator}, the gyro angle in radians followed by the
+ *       wheel positions. For a {@link GoBildaPinpointPoseEstimator}, the x, y, and heading the
+ *       Pinpoint reported.
+ *   <li>Vision: the time the measurement was captured, the measured x, y, and heading, and
+ *       optionally its x, y, and heading standard deviations.
+ *   <li>Ground truth: the true x, y, and heading.
+ * </ul>
+ *
+ * <p>On the robot, rows are recorded with a {@link ReplayRecorder}. For example, <code>
+ * recorder.recordOdometry(Utils.getTimeSeconds(), gyro.getRadians(), fl, fr, rl, rr)</code>. The
+ * recording time is in the row instead of taken from the log, so rows recorded on other threads,
+ * like a pose service's, keep the time they were read.
+ */
+public final class ReplayLog {
+  private final double[][] odometry;
+  private final double[][] vision;
+  private final double[][] truth;
+
+  /**
+   * Creates a log from rows. Each list is sorted by recording time.
+   *
+   * @param odometry The odometry rows.
+   * @param vision The vision measurement rows.
+   * @param truth The ground truth rows.
+   */
+  public ReplayLog(List<double[]> odometry, List<double[]> vision, List<double[]> truth) {
+    this.odometry = sorted(odometry);
+    this.vision = sorted(vision);
+    this.truth = sorted(truth);
+  }
+
+  private static double[][] sorted(List<double[]> rows) {
+    var array = rows.toArray(new double[0][]);
+    // Stable, so rows recorded at the same time keep their order
+    Arrays.sort(array, Comparator.comparingDouble(row -> row[0]));
+    return array;
+  }
+
+  /**
+   * Loads a log from a CSV file. Each line is a row type, either <code>odometry</code>, <code>
+   * vision</code>, or <code>truth</code>, followed by the row. Empty lines and lines starting with
+   * <code>#</code> are skipped.
+   *
+   * @param path The path of the file.
+   * @return The log.
+   * @throws IOException If the file can't be read.
+   * @throws IllegalArgumentException If a line isn't a valid row.
+   */
+  public static ReplayLog fromCsv(String path) throws IOException {
+    var odometry = new ArrayList<double[]>();
+    var vision = new ArrayList<double[]>();
+    var truth = new ArrayList<double[]>();
+    try (var reader = new BufferedReader(new FileReader(path))) {
+      String line;
+      int lineNumber = 0;
+      while ((line = reader.readLine()) != null) {
+        lineNumber++;
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        var fields = line.split(",");
+        var row = new double[fields.length - 1];
+        try {
+          for (int i = 0; i < row.length; i++) {
+            row[i] = Double.parseDouble(fields[i + 1].trim());
+          }
+        } catch (NumberFormatException e) {
+          throw new IllegalArgumentException(
+              "Line " + lineNumber + " of " + path + " has a value that isn't a number", e);
+        }
+        switch (fields[0].trim()) {
+          case "odometry":
+            odometry.add(checkLength(row, 1, path, lineNumber));
+            break;
+          case "vision":
+            vision.add(checkLength(row, 5, path, lineNumber));
+            break;
+          case "truth":
+            truth.add(checkLength(row, 4, path, lineNumber));
+            break;
+          default:
+            throw new IllegalArgumentException(
+                "Line " + lineNumber + " of " + path + " has an unknown row type: " + fields[0]);
+        }
+      }
+    }
+    return new ReplayLog(odometry, vision, truth);
+  }
+
+  private static double[] checkLength(double[] row, int minLength, String path, int lineNumber) {
+    if (row.length < minLength) {
+      throw new IllegalArgumentException(
+          "Line " + lineNumber + " of " + path + " has fewer than " + minLength + " values");
+    }
+    return row;
+  }
+
+  /**
+   * Loads a log from a WPILOG file recorded by a {@link ReplayRecorder}.
+   *
+   * @param path The path of the file.
+   * @return The log.
+   * @throws IOException If the file can't be read, or isn't a WPILOG.
+   */
+  public static ReplayLog fromWpilog(String path) throws IOException {
+    return fromWpilog(
+        path, ReplayRecorder.kOdometryKey, ReplayRecorder.kVisionKey, ReplayRecorder.kTruthKey);
+  }
+
+  /**
+   * Loads a log from a WPILOG file, like one recorded from NetworkTables. Each of the keys has to
+   * be a double array entry. Keys published with {@link ftc.lib.trobotix.Telemetry} can be given
+   * without their table, like <code>Replay/Odometry</code> for <code>NT:/Outputs/Replay/Odometry
+   * </code>. Telemetry drops entries when more are put than it publishes, so rows recorded at a
+   * high rate should be recorded with a {@link ReplayRecorder} instead.
+   *
+   * @param path The path of the file.
+   * @param odometryKey The key the odometry rows were published to.
+   * @param visionKey The key the vision measurement rows were published to.
+   * @param truthKey The key the ground truth rows were published to.
+   * @return The log.
+   * @throws IOException If the file can't be read, or isn't a WPILOG.
+   */
+  public static ReplayLog fromWpilog(
+      String path, String odometryKey, String visionKey, String truthKey) throws IOException {
+    var reader = new DataLogReader(path);
+    if (!reader.isValid()) {
+      throw new IOException(path + " isn't a WPILOG file");
+    }
+
+    var odometry = new ArrayList<double[]>();
+    var vision = new ArrayList<double[]>();
+    var truth = new ArrayList<double[]>();
+    // Entry IDs can be reused after an entry is finished
+    var entries = new HashMap<Integer, List<double[]>>();
+    for (var record : reader) {
+      if (record.isStart()) {
+        var data = record.getStartData();
+        if (!data.type.equals("double[]")) {
+          continue;
+        }
+        if (matches(data.name, odometryKey)) {
+          entries.put(data.entry, odometry);
+        } else if (matches(data.name, visionKey)) {
+          entries.put(data.entry, vision);
+        } else if (matches(data.name, truthKey)) {
+          entries.put(data.entry, truth);
+        }
+      } else if (record.isFinish()) {
+        entries.remove(record.getFinishEntry());
+      } else if (!record.isControl()) {
+        var rows = entries.get(record.getEntry());
+        if (rows != null) {
+          rows.add(record.getDoubleArray());
+        }
+      }
+    }
+    return new ReplayLog(odometry, vision, truth);
+  }
+
+  private static boolean matches(String entryName, String key) {
+    return entryName.equals(key) || entryName.endsWith("/Outputs/" + key);
+  }
+
+  /**
+   * Gets the odometry rows, sorted by recording time. Shouldn't be modified.
+   *
+   * @return The odometry rows.
+   */
+  public double[][] getOdometry() {
+    return odometry;
+  }
+
+  /**
+   * Gets the vision measurement rows, sorted by recording time. Shouldn't be modified.
+   *
+   * @return The vision measurement rows.
+   */
+  public double[][] getVision() {
+    return vision;
+  }
+
+  /**
+   * Gets the ground truth rows, sorted by recording time. Shouldn't be modified.
+   *
+   * @return The ground truth rows.
+   */
+  public double[][] getTruth() {
+    return truth;
+  }
+}
@@ -0,0 +1,79 @@
+// Copyright (c) 2024-2025 FTC 8696
+// All rights reserved.
+
+package ftc.lib.trobotix.estimator;
+
+import edu.wpi.first.util.datalog.DataLog;
+import edu.wpi.first.util.datalog.DataLogBackgroundWriter;
+import edu.wpi.first.util.datalog.DoubleArrayLogEntry;
+
+/**
+ * Records the rows of a {@link ReplayLog} to a WPILOG file, which {@link
+ * ReplayLog#fromWpilog(String)} loads.
+ *
+ * <p>Rows are appended straight to a {@link DataLog}, which buffers them for its own thread to
+ * write to the file, so every row is kept even at the Pinpoint's loop rate. {@link
+ * ftc.lib.trobotix.Telemetry} isn't suitable for recording rows, as it only keeps the newest
+ * entries between publishes. Rows can be recorded from any thread.
+ */
+public final class ReplayRecorder implements AutoCloseable {
+  /** The entry odometry rows are recorded to. */
+  public static final String kOdometryKey = "Replay/Odometry";
+
+  /** The entry vision measurement rows are recorded to. */
+  public static final String kVisionKey = "Replay/Vision";
+
+  /** The entry ground truth rows are recorded to. */
+  public static final String kTruthKey = "Replay/Truth";
+
+  private final DataLog log;
+  private final DoubleArrayLogEntry odometry;
+  private final DoubleArrayLogEntry vision;
+  private final DoubleArrayLogEntry truth;
+
+  /**
+   * Creates a recorder that writes to a new file.
+   *
+   * @param directory The directory to write the file to, like <code>/sdcard/FIRST</code>.
+   * @param filename The name of the file.
+   */
+  public ReplayRecorder(String directory, String filename) {
+    log = new DataLogBackgroundWriter(directory, filename);
+    odometry = new DoubleArrayLogEntry(log, kOdometryKey);
+    vision = new DoubleArrayLogEntry(log, kVisionKey);
+    truth = new DoubleArrayLogEntry(log, kTruthKey);
+  }
+
+  /**
+   * Records an odometry row. See {@link ReplayLog} for what's in it.
+   *
+   * @param row The row, starting with the time it was recorded.
+   */
+  public void recordOdometry(double... row) {
+    odometry.append(row);
+  }
+
+  /**
+   * Records a vision measurement row. See {@link ReplayLog} for what's in it.
+   *
+   * @param row The row, starting with the time it was recorded.
+   */
+  public void recordVision(double... row) {
+    vision.append(row);
+  }
+
+  /**
+   * Records a ground truth row. See {@link ReplayLog} for what's in it.
+   *
+   * @param row The row, starting with the time it was recorded.
+   */
+  public void recordTruth(double... row) {
+    truth.append(row);
+  }
+
+  /** Writes every recorded row to the file and closes it. */
+  @Override
+  public void close() {
+    log.close();
+  }
+}
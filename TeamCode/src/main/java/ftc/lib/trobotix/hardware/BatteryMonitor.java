@@ -0,0 +1,154 @@
+// Copyright (c) 2024-2025 FTC 8696
+// All rights reserved.
+
+package ftc.lib.trobotix.hardware;
+
+import com.qualcomm.hardware.lynx.LynxVoltageSensor;
+import com.qualcomm.robotcore.eventloop.opmode.OpMode;
+import ftc.lib.trobotix.Telemetry;
+import ftc.lib.trobotix.Utils;
+import ftc.lib.wpilib.commands.CommandScheduler;
+import ftc.lib.wpilib.math.filter.LinearFilter;
+import java.util.Arrays;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Samples the battery voltage once for the whole robot.
+ *
+ * <p>Every voltage read is a hub transaction, and every motor would read the same value. So the
+ * voltage is sampled once at the start of every {@link CommandScheduler#run()} (or less often, see
+ * {@link BatteryMonitor#setSamplePeriod(double)}), filtered, and every motor reads the cached
+ * value.
+ *
+ * <p>Also tracks how much the voltage sags below the highest voltage seen, and publishes it to
+ * {@link Telemetry}.
+ */
+public final class BatteryMonitor {
+  private BatteryMonitor() {}
+
+  private static final double kNominalVoltage = 12;
+  private static final int kFilterTaps = 5;
+
+  private static DoubleSupplier voltageSource = () -> kNominalVoltage;
+  private static boolean registered = false;
+
+  private static final LinearFilter filter = LinearFilter.movingAverage(kFilterTaps);
+  private static double samplePeriod = 0;
+  private static double lastSampleTime = 0;
+  private static boolean hasSample = false;
+
+  private static double voltage = kNominalVoltage;
+  private static double restingVoltage = kNominalVoltage;
+  private static double minVoltage = kNominalVoltage;
+  private static double maxSag = 0;
+
+  /**
+   * Samples the battery voltage from the op mode's hub.
+   *
+   * @param opMode The op mode.
+   */
+  public static void init(OpMode opMode) {
+    var sensor = opMode.hardwareMap.getAll(LynxVoltageSensor.class).iterator().next();
+    init(sensor::getVoltage);
+  }
+
+  /**
+   * Samples the battery voltage from the given source, and resets the sag statistics.
+   *
+   * @param source The voltage source. Volts.
+   */
+  public static void init(DoubleSupplier source) {
+    voltageSource = source;
+    hasSample = false;
+    // The scheduler outlives op modes, so only hook into it once.
+    if (!registered) {
+      CommandScheduler.getInstance().onRunStart(BatteryMonitor::update);
+      registered = true;
+    }
+  }
+
+  /**
+   * Sets how often the voltage is sampled. Defaults to 0, which samples every loop.
+   *
+   * @param seconds The time between samples. Seconds.
+   */
+  public static void setSamplePeriod(double seconds) {
+    samplePeriod = seconds;
+  }
+
+  /**
+   * Samples the voltage if it's been long enough since the last sample. Called automatically at the
+   * start of every {@link CommandScheduler#run()}.
+   */
+  public static void update() {
+    if (hasSample && Utils.getTimeSeconds() - lastSampleTime < samplePeriod) {
+      return;
+    }
+    sample();
+    Telemetry.put("BatteryMonitor/Voltage", voltage);
+    Telemetry.put("BatteryMonitor/Min Voltage", minVoltage);
+    Telemetry.put("BatteryMonitor/Sag", getSag());
+    Telemetry.put("BatteryMonitor/Max Sag", maxSag);
+  }
+
+  private static void sample() {
+    var rawVoltage = voltageSource.getAsDouble();
+    HubManager.recordTransaction();
+    lastSampleTime = Utils.getTimeSeconds();
+    if (!hasSample) {
+      // Start the filter at the first reading instead of ramping up from 0
+      var inputs = new double[kFilterTaps];
+      Arrays.fill(inputs, rawVoltage);
+      filter.reset(inputs, new double[0]);
+      voltage = rawVoltage;
+      restingVoltage = rawVoltage;
+      minVoltage = rawVoltage;
+      maxSag = 0;
+      hasSample = true;
+    } else {
+      voltage = filter.calculate(rawVoltage);
+    }
+    restingVoltage = Math.max(restingVoltage, voltage);
+    minVoltage = Math.min(minVoltage, voltage);
+    maxSag = Math.max(maxSag, getSag());
+  }
+
+  /**
+   * Gets the filtered battery voltage. If it hasn't been sampled yet, it's sampled now.
+   *
+   * @return The battery voltage. Volts.
+   */
+  public static double getVoltage() {
+    if (!hasSample) {
+      sample();
+    }
+    return voltage;
+  }
+
+  /**
+   * Gets how far the voltage has sagged below the highest voltage seen.
+   *
+   * @return The voltage sag. Volts.
+   */
+  public static double getSag() {
+    return restingVoltage - voltage;
+  }
+
+  /**
+   * Gets the lowest voltage seen.
+   *
+   * @return The minimum voltage. Volts.
+   */
+  public static double getMinVoltage() {
+    return minVoltage;
+  }
+
+  /**
+   * Gets the largest voltage sag seen.
+   *
+   * @return The maximum sag. Volts.
+   */
+  public static double getMaxSag() {
+    return maxSag;
+  }
+}
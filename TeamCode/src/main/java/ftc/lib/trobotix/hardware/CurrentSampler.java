@@ -0,0 +1,99 @@
+// Copyright (c) 2024-2025 FTC 8696
+// All rights reserved.
+
+package ftc.lib.trobotix.hardware;
+
+import ftc.lib.trobotix.EndableThread;
+import ftc.lib.wpilib.Timer;
+import java.util.ArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Reads the current draw of current limited motors on its own thread, at a lower rate than the
+ * control loop.
+ *
+ * <p>Current isn't part of the hub's bulk data, so every current read is its own hub transaction.
+ * Reading it on every {@link Motor#set(double)} doubles the hub traffic of a drivetrain, so
+ * instead it's sampled here, and motors estimate their current draw between samples. Motors that
+ * start from rest request a sample right away, see {@link #requestSample()}.
+ */
+public final class CurrentSampler extends EndableThread {
+  private static double samplePeriod = 0.1;
+  // How long the current is given to follow a new duty cycle before it's sampled
+  private static final double kSettleTime = 0.005;
+  private static CurrentSampler instance;
+
+  /**
+   * Sets how often motor currents are sampled. Defaults to 0.1 seconds. (10 hz)
+   *
+   * @param seconds The time between samples. Seconds.
+   */
+  public static void setSamplePeriod(double seconds) {
+    samplePeriod = seconds;
+  }
+
+  /**
+   * Starts sampling the current draw of a motor. If the op mode has already started, the sampler's
+   * thread is started immediately.
+   *
+   * @param motor The motor.
+   */
+  static synchronized void register(Motor motor) {
+    if (instance == null) {
+      instance = new CurrentSampler();
+      if (threadsStarted()) {
+        instance.start();
+      }
+    }
+    synchronized (instance.motors) {
+      instance.motors.add(motor);
+    }
+  }
+
+  /**
+   * Samples every motor now, instead of at the end of the sample period.
+   *
+   * <p>Called by motors that start from rest. A sample taken while a motor was stopped can't be
+   * used to estimate its current, so without a motor model it would go without a current limit
+   * until the next sample, right when it's drawing stall current.
+   */
+  static synchronized void requestSample() {
+    if (instance != null) {
+      instance.sampleRequested = true;
+      LockSupport.unpark(instance);
+    }
+  }
+
+  /**
+   * Forgets the current sampler, as its thread can't be restarted for a new op mode. Called
+   * automatically by {@link HubManager}.
+   */
+  static synchronized void clear() {
+    instance = null;
+  }
+
+  private final ArrayList<Motor> motors = new ArrayList<>();
+  private volatile boolean sampleRequested = false;
+
+  private CurrentSampler() {
+    super("Current Sampler");
+  }
+
+  @Override
+  public void loop() {
+    var retry = false;
+    synchronized (motors) {
+      for (var motor : motors) {
+        if (!motor.sampleCurrent()) {
+          retry = true;
+        }
+      }
+    }
+    LockSupport.parkNanos((long) ((retry ? kSettleTime : samplePeriod) * 1e9));
+    if (sampleRequested) {
+      sampleRequested = false;
+      // Woken early by requestSample(), most likely right after the write that started the motor
+      Timer.delay(kSettleTime);
+    }
+  }
+}
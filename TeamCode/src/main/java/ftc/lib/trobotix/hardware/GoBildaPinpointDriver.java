@@ -34,12 +34,13 @@ import com.qualcomm.robotcore.hardware.I2cDeviceSynchSimple;
 import com.qualcomm.robotcore.hardware.configuration.annotations.DeviceProperties;
 import com.qualcomm.robotcore.hardware.configuration.annotations.I2cDeviceType;
 import com.qualcomm.robotcore.util.TypeConversion;
+import ftc.lib.trobotix.Utils;
 import ftc.lib.wpilib.math.geometry.Pose2d;
 import ftc.lib.wpilib.math.geometry.Rotation2d;
 import ftc.lib.wpilib.math.geometry.Translation2d;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
 
 @I2cDeviceType
 @DeviceProperties(
@@ -257,17 +258,53 @@ public class GoBildaPinpointDriver extends I2cDeviceSynchDevice<I2cDeviceSynchSi
   /**
    * Call this once per loop to read new data from the Odometry Computer. Data will only update once
    * this is called.
+   *
+   * <p>Only the fields in the read plan are guaranteed to update. See {@link
+   * GoBildaPinpointDriver#setReadPlan(ReadField...)}.
+   *
+   * @return Whether the read plan's fields were read. False if the read came back short, in which
+   *     case the previous values are kept.
    */
-  public void update() {
-    byte[] bArr = deviceClient.read(Register.BULK_READ.bVal, 40);
-    deviceStatus = byteArrayToInt(Arrays.copyOfRange(bArr, 0, 4), ByteOrder.LITTLE_ENDIAN);
-    loopTime = byteArrayToInt(Arrays.copyOfRange(bArr, 4, 8), ByteOrder.LITTLE_ENDIAN);
-    xPosition = byteArrayToFloat(Arrays.copyOfRange(bArr, 16, 20), ByteOrder.LITTLE_ENDIAN);
-    yPosition = byteArrayToFloat(Arrays.copyOfRange(bArr, 20, 24), ByteOrder.LITTLE_ENDIAN);
-    hOrientation = byteArrayToFloat(Arrays.copyOfRange(bArr, 24, 28), ByteOrder.LITTLE_ENDIAN);
-    xVelocity = byteArrayToFloat(Arrays.copyOfRange(bArr, 28, 32), ByteOrder.LITTLE_ENDIAN);
-    yVelocity = byteArrayToFloat(Arrays.copyOfRange(bArr, 32, 36), ByteOrder.LITTLE_ENDIAN);
-    hVelocity = byteArrayToFloat(Arrays.copyOfRange(bArr, 36, 40), ByteOrder.LITTLE_ENDIAN);
+  public boolean update() {
+    if (adaptiveReads) {
+      var velocityUnused = Utils.getTimeSeconds() - lastVelocityAccessTime > kAdaptiveTimeout;
+      setActiveFields(velocityUnused ? requestedFields & ~kVelocityFields : requestedFields);
+    }
+    // The plan can be changed from another thread, so it's only read once
+    var plan = readPlan;
+
+    var startTime = Utils.getTimeSeconds();
+    var complete =
+        copyToReadBuffer(deviceClient.read(plan.register.bVal, plan.length), plan.length);
+    recordRead(Utils.getTimeSeconds() - startTime);
+    if (!complete) {
+      return false;
+    }
+
+    if (plan.register != Register.BULK_READ) {
+      parseField(plan.field, 0);
+    } else {
+      // Every field in the window was read, so parse them all even if they weren't requested
+      for (var field : kFields) {
+        if (field.bulkOffset + 4 <= plan.length) {
+          parseField(field, field.bulkOffset);
+        }
+      }
+    }
+
+    if ((plan.fields & ReadField.STATUS.bit()) == 0
+        && startTime - lastStatusReadTime >= kStatusPeriod) {
+      readStatus();
+    }
+    return true;
+  }
+
+  /** Reads the status from its own register. */
+  private void readStatus() {
+    lastStatusReadTime = Utils.getTimeSeconds();
+    if (copyToReadBuffer(deviceClient.read(Register.DEVICE_STATUS.bVal, 4), 4)) {
+      deviceStatus = readBuffer.getInt(0);
+    }
   }
 
   /**
@@ -278,13 +315,253 @@ public class GoBildaPinpointDriver extends I2cDeviceSynchDevice<I2cDeviceSynchSi
    * @param data GoBildaPinpointDriver.readData.ONLY_UPDATE_HEADING
    */
   public void update(readData data) {
-    if (data == readData.ONLY_UPDATE_HEADING) {
-      hOrientation =
-          byteArrayToFloat(
-              deviceClient.read(Register.H_ORIENTATION.bVal, 4), ByteOrder.LITTLE_ENDIAN);
+    if (data == readData.ONLY_UPDATE_HEADING
+        && copyToReadBuffer(deviceClient.read(Register.H_ORIENTATION.bVal, 4), 4)) {
+      hOrientation = readBuffer.getFloat(0);
+    }
+  }
+
+  /** Fields that {@link GoBildaPinpointDriver#update()} can read. */
+  public enum ReadField {
+    STATUS(Register.DEVICE_STATUS, 0),
+    LOOP_TIME(Register.LOOP_TIME, 4),
+    X_POSITION(Register.X_POSITION, 16),
+    Y_POSITION(Register.Y_POSITION, 20),
+    HEADING(Register.H_ORIENTATION, 24),
+    X_VELOCITY(Register.X_VELOCITY, 28),
+    Y_VELOCITY(Register.Y_VELOCITY, 32),
+    HEADING_VELOCITY(Register.H_VELOCITY, 36);
+
+    private final Register register;
+    // Where the field is in the bulk read
+    private final int bulkOffset;
+
+    ReadField(Register register, int bulkOffset) {
+      this.register = register;
+      this.bulkOffset = bulkOffset;
+    }
+
+    private int bit() {
+      return 1 << ordinal();
+    }
+  }
+
+  private static final ReadField[] kFields = ReadField.values();
+  private static final int kAllFields = (1 << kFields.length) - 1;
+  private static final int kVelocityFields =
+      ReadField.X_VELOCITY.bit() | ReadField.Y_VELOCITY.bit() | ReadField.HEADING_VELOCITY.bit();
+  // How long velocity can go unread before adaptive reads stop reading it
+  private static final double kAdaptiveTimeout = 0.5;
+  // How often the status is read on its own, when the read plan doesn't include it
+  private static final double kStatusPeriod = 0.25;
+
+  // The plan is set by whichever thread configures the driver, and read by whichever thread
+  // updates it, like a GoBildaPinpointPoller
+  private volatile int requestedFields = kAllFields;
+  private volatile ReadPlan readPlan = new ReadPlan(kAllFields);
+
+  private volatile boolean adaptiveReads = false;
+  private volatile double lastVelocityAccessTime = 0;
+  // Only used by the thread that updates the driver
+  private double lastStatusReadTime = Double.NEGATIVE_INFINITY;
+
+  /** A single transaction, which is replaced rather than changed. */
+  private static final class ReadPlan {
+    final int fields;
+    final Register register;
+    final int length;
+    // The field read, if only one is
+    final ReadField field;
+
+    ReadPlan(int fields) {
+      this.fields = fields;
+      if (Integer.bitCount(fields) == 1) {
+        field = kFields[Integer.numberOfTrailingZeros(fields)];
+        register = field.register;
+        length = 4;
+        return;
+      }
+      field = null;
+      register = Register.BULK_READ;
+      var length = 0;
+      for (var readField : kFields) {
+        if ((fields & readField.bit()) != 0) {
+          length = Math.max(length, readField.bulkOffset + 4);
+        }
+      }
+      this.length = length;
     }
   }
 
+  /**
+   * Sets which fields {@link GoBildaPinpointDriver#update()} reads. Defaults to every field.
+   *
+   * <p>The fields are read in one transaction, with the smallest register window that contains all
+   * of them. A single field is read from its own register, so a plan of just {@link
+   * ReadField#HEADING_VELOCITY} reads 4 bytes. Otherwise, fields are read from the start of the
+   * bulk read up to the last requested field, so fields in between are read as well.
+   *
+   * <p>If the status isn't in the plan, it's still read from its own register every 250 ms, in a
+   * second transaction, so {@link GoBildaPinpointDriver#getDeviceStatus()} can be up to that
+   * stale.
+   *
+   * @param fields The fields to read.
+   */
+  public void setReadPlan(ReadField... fields) {
+    var mask = 0;
+    for (var field : fields) {
+      mask |= field.bit();
+    }
+    if (mask == 0) {
+      throw new IllegalArgumentException("Read plan needs at least one field");
+    }
+    requestedFields = mask;
+    setActiveFields(mask);
+  }
+
+  /**
+   * Stops reading velocity when it hasn't been read by any of the velocity getters for a while.
+   * Calling a velocity getter starts reading it again from the next update, so the first value it
+   * returns may be stale.
+   *
+   * @param adaptive Whether to drop unused velocity fields from the read plan.
+   */
+  public void setAdaptiveReads(boolean adaptive) {
+    adaptiveReads = adaptive;
+    lastVelocityAccessTime = Utils.getTimeSeconds();
+    if (!adaptive) {
+      setActiveFields(requestedFields);
+    }
+  }
+
+  private void setActiveFields(int fields) {
+    // Adaptive reads can leave nothing to read, and the Pinpoint should still be checked
+    if (fields == 0) {
+      fields = ReadField.STATUS.bit();
+    }
+    if (fields != readPlan.fields) {
+      readPlan = new ReadPlan(fields);
+    }
+  }
+
+  private void parseField(ReadField field, int offset) {
+    switch (field) {
+      case STATUS:
+        deviceStatus = readBuffer.getInt(offset);
+        break;
+      case LOOP_TIME:
+        loopTime = readBuffer.getInt(offset);
+        break;
+      case X_POSITION:
+        xPosition = readBuffer.getFloat(offset);
+        break;
+      case Y_POSITION:
+        yPosition = readBuffer.getFloat(offset);
+        break;
+      case HEADING:
+        hOrientation = readBuffer.getFloat(offset);
+        break;
+      case X_VELOCITY:
+        xVelocity = readBuffer.getFloat(offset);
+        break;
+      case Y_VELOCITY:
+        yVelocity = readBuffer.getFloat(offset);
+        break;
+      case HEADING_VELOCITY:
+        hVelocity = readBuffer.getFloat(offset);
+        break;
+    }
+  }
+
+  private double lastReadTime = 0;
+  private double maxReadTime = 0;
+  private double totalReadTime = 0;
+  private long readCount = 0;
+
+  private void recordRead(double seconds) {
+    lastReadTime = seconds;
+    maxReadTime = Math.max(maxReadTime, seconds);
+    totalReadTime += seconds;
+    readCount++;
+  }
+
+  /**
+   * Gets how long the last {@link GoBildaPinpointDriver#update()} transaction took.
+   *
+   * @return The transaction time. Seconds.
+   */
+  public double getLastReadTime() {
+    return lastReadTime;
+  }
+
+  /**
+   * Gets the average time of {@link GoBildaPinpointDriver#update()} transactions.
+   *
+   * @return The average transaction time. Seconds.
+   */
+  public double getAverageReadTime() {
+    return readCount > 0 ? totalReadTime / readCount : 0;
+  }
+
+  /**
+   * Gets the longest {@link GoBildaPinpointDriver#update()} transaction.
+   *
+   * @return The maximum transaction time. Seconds.
+   */
+  public double getMaxReadTime() {
+    return maxReadTime;
+  }
+
+  /**
+   * Gets how many bytes each {@link GoBildaPinpointDriver#update()} currently reads.
+   *
+   * @return The number of bytes.
+   */
+  public int getReadLength() {
+    return readPlan.length;
+  }
+
+  /** Resets the transaction time statistics. */
+  public void resetReadStatistics() {
+    lastReadTime = 0;
+    maxReadTime = 0;
+    totalReadTime = 0;
+    readCount = 0;
+    shortReads = 0;
+  }
+
+  // Reads are copied into one reused buffer, so they can be parsed without allocating
+  private final byte[] readBytes = new byte[40];
+  private final ByteBuffer readBuffer =
+      ByteBuffer.wrap(readBytes).order(ByteOrder.LITTLE_ENDIAN);
+
+  private long shortReads = 0;
+
+  /**
+   * Copies a read into the read buffer.
+   *
+   * @return False if the read was shorter than requested, in which case the buffer still holds
+   *     the previous read and shouldn't be parsed.
+   */
+  private boolean copyToReadBuffer(byte[] bytes, int length) {
+    if (bytes.length < length) {
+      shortReads++;
+      return false;
+    }
+    System.arraycopy(bytes, 0, readBytes, 0, length);
+    return true;
+  }
+
+  /**
+   * Gets how many reads came back shorter than requested, like from an I2C error. Those reads are
+   * dropped, so the previous values are kept.
+   *
+   * @return The number of short reads.
+   */
+  public long getShortReadCount() {
+    return shortReads;
+  }
+
   /**
    * Sets the odometry pod positions relative to the point that the odometry computer tracks around.
    * <br>
@@ -388,18 +665,98 @@ public class GoBildaPinpointDriver extends I2cDeviceSynchDevice<I2cDeviceSynchSi
   }
 
   public void resetTranslation(Translation2d translation) {
-    writeByteArray(
-        Register.X_POSITION,
-        (floatToByteArray((float) (translation.getX() * 1000.0), ByteOrder.LITTLE_ENDIAN)));
-    writeByteArray(
-        Register.Y_POSITION,
-        (floatToByteArray((float) (translation.getY() * 1000.0), ByteOrder.LITTLE_ENDIAN)));
+    var reset = requestedResets.incrementAndGet();
+    if (xPositionOutput != null) {
+      xPositionOutput.post(translation.getX() * 1000.0);
+      yPositionOutput.post(translation.getY() * 1000.0);
+      resetOutput.post(reset);
+      return;
+    }
+    writeFloat(Register.X_POSITION, (float) (translation.getX() * 1000.0));
+    writeFloat(Register.Y_POSITION, (float) (translation.getY() * 1000.0));
+    finishReset(reset);
   }
 
   public void resetHeading(Rotation2d heading) {
-    writeByteArray(
-        Register.H_ORIENTATION,
-        (floatToByteArray((float) heading.getRadians(), ByteOrder.LITTLE_ENDIAN)));
+    var reset = requestedResets.incrementAndGet();
+    if (hOrientationOutput != null) {
+      hOrientationOutput.post(heading.getRadians());
+      resetOutput.post(reset);
+      return;
+    }
+    writeFloat(Register.H_ORIENTATION, (float) heading.getRadians());
+    finishReset(reset);
+  }
+
+  // Resets are numbered, so readers can tell whether the latest one has been written yet
+  private final AtomicLong requestedResets = new AtomicLong();
+  private volatile long writtenResets = 0;
+  private volatile double resetWriteTime = Double.NEGATIVE_INFINITY;
+
+  private void finishReset(long reset) {
+    resetWriteTime = Utils.getTimeSeconds();
+    if (reset > writtenResets) {
+      writtenResets = reset;
+    }
+  }
+
+  /**
+   * Whether a position reset has been requested, but not written to the Pinpoint yet. Reads made
+   * while one is pending return the position from before it. Resets are only delayed when they're
+   * sent through a {@link HubWriter}.
+   *
+   * @return If a reset is pending.
+   */
+  public boolean isResetPending() {
+    return writtenResets < requestedResets.get();
+  }
+
+  /**
+   * Gets when the last position reset finished being written to the Pinpoint. Reads that started
+   * before then may return the position from before it.
+   *
+   * @return The time the reset was written, or negative infinity if there hasn't been one. Seconds.
+   */
+  public double getResetWriteTime() {
+    return resetWriteTime;
+  }
+
+  private HubWriter.Mailbox xPositionOutput;
+  private HubWriter.Mailbox yPositionOutput;
+  private HubWriter.Mailbox hOrientationOutput;
+  // Written after the position, to mark when a reset has landed
+  private HubWriter.Mailbox resetOutput;
+
+  /**
+   * Sends position resets through a {@link HubWriter} instead of blocking on the I2C writes.
+   *
+   * <p>Position reads made before the writer's thread writes the new position will still return
+   * the old position. See {@link GoBildaPinpointDriver#isResetPending()}.
+   *
+   * @param writer The writer for the hub the Pinpoint is plugged into.
+   */
+  public void setWriter(HubWriter writer) {
+    xPositionOutput =
+        writer.addOutput("Pinpoint X", (value) -> writeFloat(Register.X_POSITION, (float) value));
+    yPositionOutput =
+        writer.addOutput("Pinpoint Y", (value) -> writeFloat(Register.Y_POSITION, (float) value));
+    hOrientationOutput =
+        writer.addOutput(
+            "Pinpoint Heading", (value) -> writeFloat(Register.H_ORIENTATION, (float) value));
+    // Mailboxes are written in the order they were added, so this runs after the position writes.
+    // If another reset was posted during the pass, its position is written on the next one.
+    resetOutput =
+        writer.addOutput(
+            "Pinpoint Reset",
+            (value) -> {
+              if (xPositionOutput.isPending()
+                  || yPositionOutput.isPending()
+                  || hOrientationOutput.isPending()) {
+                resetOutput.post(value);
+              } else {
+                finishReset((long) value);
+              }
+            });
   }
 
   public Pose2d getPose() {
@@ -471,10 +828,18 @@ public class GoBildaPinpointDriver extends I2cDeviceSynchDevice<I2cDeviceSynchSi
     return new Rotation2d(hOrientation);
   }
 
+  /**
+   * @return the estimated H (heading) position of the robot in Radians, without allocating
+   */
+  public double getHeadingRadians() {
+    return hOrientation;
+  }
+
   /**
    * @return the estimated X (forward) velocity of the robot in m/sec
    */
   public double getVelX() {
+    lastVelocityAccessTime = Utils.getTimeSeconds();
     return xVelocity / 1000.0;
   }
 
@@ -482,6 +847,7 @@ public class GoBildaPinpointDriver extends I2cDeviceSynchDevice<I2cDeviceSynchSi
    * @return the estimated Y (strafe) velocity of the robot in m/sec
    */
   public double getVelY() {
+    lastVelocityAccessTime = Utils.getTimeSeconds();
     return yVelocity / 1000.0;
   }
 
@@ -489,6 +855,7 @@ public class GoBildaPinpointDriver extends I2cDeviceSynchDevice<I2cDeviceSynchSi
    * @return the estimated H (heading) velocity of the robot in radians/sec
    */
   public double getHeadingVelocity() {
+    lastVelocityAccessTime = Utils.getTimeSeconds();
     return hVelocity;
   }
 }
@@ -0,0 +1,194 @@
+// Copyright (c) 2024-2025 FTC 8696
+// All rights reserved.
+
+package ftc.lib.trobotix.hardware;
+
+import ftc.lib.trobotix.EndableThread;
+import ftc.lib.trobotix.Utils;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Reads a {@link GoBildaPinpointDriver} on its own thread, at the Pinpoint's own loop rate.
+ *
+ * <p>Each sample is stamped with the midpoint of its I2C transaction, and published to a lock-free
+ * ring buffer. The control loop calls {@link GoBildaPinpointPoller#drain(SampleConsumer)} to
+ * consume every sample taken since the last call, so odometry is recorded at a higher rate than
+ * the control loop runs at.
+ *
+ * <p>Only samples taken while the Pinpoint is {@link GoBildaPinpointDriver.DeviceStatus#READY} are
+ * published, and reads that came back short aren't. Each sample holds everything read from the
+ * Pinpoint, and the status is published separately, so the driver's getters shouldn't be called
+ * from other threads while the poller is running. Velocity is part of every sample, so {@link
+ * GoBildaPinpointDriver#setAdaptiveReads(boolean)} keeps reading it.
+ */
+public class GoBildaPinpointPoller extends EndableThread {
+  // Enough for ~80 ms of samples at the Pinpoint's max rate, which is a very slow loop
+  private static final int kCapacity = 128;
+  // Used until the Pinpoint has reported its loop time
+  private static final double kDefaultPeriod = 0.001;
+
+  // Timestamp, x, y, heading, and the three velocities
+  private static final int kFields = 7;
+
+  private final GoBildaPinpointDriver pinpoint;
+
+  // Each slot is guarded by a sequence lock. While sample n is being written to a slot, its
+  // sequence is 2n + 1, and once it's written, 2n + 2. A reader that sees 2n + 2 both before and
+  // after reading the slot read all of sample n. Every access is volatile, which is what makes the
+  // plain seqlock pattern sound under the Java memory model.
+  private final AtomicLongArray sequences = new AtomicLongArray(kCapacity);
+  // Doubles stored as their raw bits, kFields per slot
+  private final AtomicLongArray samples = new AtomicLongArray(kCapacity * kFields);
+  // Number of samples ever published. Only written by the poller's thread.
+  private volatile long writeCount = 0;
+  private long readCount = 0;
+  private int droppedSamples = 0;
+  private final Sample sample = new Sample();
+
+  private volatile GoBildaPinpointDriver.DeviceStatus status =
+      GoBildaPinpointDriver.DeviceStatus.NOT_READY;
+
+  /**
+   * Creates a new poller. Its thread is started along with every other {@link EndableThread}.
+   *
+   * @param pinpoint The Pinpoint to read.
+   */
+  public GoBildaPinpointPoller(GoBildaPinpointDriver pinpoint) {
+    super("Pinpoint Poller");
+    this.pinpoint = pinpoint;
+  }
+
+  @Override
+  public void loop() {
+    var startTime = Utils.getTimeSeconds();
+    var read = pinpoint.update();
+    var endTime = Utils.getTimeSeconds();
+
+    status = pinpoint.getDeviceStatus();
+    // A failed read keeps the previous pose, which would look like the robot stopped
+    if (read && status == GoBildaPinpointDriver.DeviceStatus.READY) {
+      var count = writeCount;
+      var slot = (int) (count % kCapacity);
+      var offset = slot * kFields;
+      sequences.set(slot, 2 * count + 1);
+      samples.set(offset, Double.doubleToRawLongBits((startTime + endTime) / 2));
+      samples.set(offset + 1, Double.doubleToRawLongBits(pinpoint.getPosX()));
+      samples.set(offset + 2, Double.doubleToRawLongBits(pinpoint.getPosY()));
+      samples.set(offset + 3, Double.doubleToRawLongBits(pinpoint.getHeadingRadians()));
+      samples.set(offset + 4, Double.doubleToRawLongBits(pinpoint.getVelX()));
+      samples.set(offset + 5, Double.doubleToRawLongBits(pinpoint.getVelY()));
+      samples.set(offset + 6, Double.doubleToRawLongBits(pinpoint.getHeadingVelocity()));
+      sequences.set(slot, 2 * count + 2);
+      writeCount = count + 1;
+    }
+
+    // Don't read faster than the Pinpoint updates
+    var frequency = pinpoint.getFrequency();
+    var period = frequency > 0 ? 1 / frequency : kDefaultPeriod;
+    var remaining = startTime + period - Utils.getTimeSeconds();
+    if (remaining > 0) {
+      LockSupport.parkNanos((long) (remaining * 1e9));
+    }
+  }
+
+  /**
+   * Passes every sample published since the last call to the consumer, oldest first. Should only
+   * be called from one thread.
+   *
+   * <p>If more samples were published than the buffer holds, the oldest ones are dropped. The
+   * sample passed to the consumer is reused, so it's only valid during the call.
+   *
+   * @param consumer The consumer.
+   * @return The number of samples consumed.
+   */
+  public int drain(SampleConsumer consumer) {
+    var available = writeCount;
+    if (available - readCount > kCapacity) {
+      droppedSamples += (int) (available - kCapacity - readCount);
+      readCount = available - kCapacity;
+    }
+    int consumed = 0;
+    while (readCount < available) {
+      var slot = (int) (readCount % kCapacity);
+      var offset = slot * kFields;
+      var sequence = 2 * readCount + 2;
+      readCount++;
+      if (sequences.get(slot) != sequence) {
+        // Already being overwritten by a newer sample
+        droppedSamples++;
+        continue;
+      }
+      sample.timestampSeconds = Double.longBitsToDouble(samples.get(offset));
+      sample.x = Double.longBitsToDouble(samples.get(offset + 1));
+      sample.y = Double.longBitsToDouble(samples.get(offset + 2));
+      sample.heading = Double.longBitsToDouble(samples.get(offset + 3));
+      sample.xVelocity = Double.longBitsToDouble(samples.get(offset + 4));
+      sample.yVelocity = Double.longBitsToDouble(samples.get(offset + 5));
+      sample.headingVelocity = Double.longBitsToDouble(samples.get(offset + 6));
+      if (sequences.get(slot) != sequence) {
+        // Overwritten while it was being read, so the values may be torn
+        droppedSamples++;
+        continue;
+      }
+      consumer.accept(sample);
+      consumed++;
+    }
+    return consumed;
+  }
+
+  /**
+   * Gets the status of the Pinpoint as of the last read.
+   *
+   * @return The status.
+   */
+  public GoBildaPinpointDriver.DeviceStatus getDeviceStatus() {
+    return status;
+  }
+
+  /**
+   * Gets the number of samples dropped because they weren't drained in time.
+   *
+   * @return The number of dropped samples.
+   */
+  public int getDroppedSamples() {
+    return droppedSamples;
+  }
+
+  /** Everything read from the Pinpoint in one transaction. */
+  public static final class Sample {
+    /** The midpoint of the read. Seconds. */
+    public double timestampSeconds;
+
+    /** The X position. Meters. */
+    public double x;
+
+    /** The Y position. Meters. */
+    public double y;
+
+    /** The heading. Radians. */
+    public double heading;
+
+    /** The field relative X velocity. Meters per second. */
+    public double xVelocity;
+
+    /** The field relative Y velocity. Meters per second. */
+    public double yVelocity;
+
+    /** The heading velocity. Radians per second. */
+    public double headingVelocity;
+
+    private Sample() {}
+  }
+
+  /** Consumes a sample. */
+  @FunctionalInterface
+  public interface SampleConsumer {
+    /**
+     * Consumes a sample.
+     *
+     * @param sample The sample. Only valid during the call.
+     */
+    void accept(Sample sample);
+  }
+}
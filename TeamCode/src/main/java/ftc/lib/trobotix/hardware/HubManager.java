@@ -0,0 +1,227 @@
+// Copyright (c) 2024-2025 FTC 8696
+// All rights reserved.
+
+package ftc.lib.trobotix.hardware;
+
+import com.qualcomm.hardware.lynx.LynxModule;
+import com.qualcomm.robotcore.eventloop.opmode.OpMode;
+import ftc.lib.trobotix.BaseOpMode;
+import ftc.lib.trobotix.Telemetry;
+import ftc.lib.wpilib.commands.CommandScheduler;
+import java.util.IdentityHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Manages bulk caching for every hub on the robot.
+ *
+ * <p>By default, every encoder position or velocity read is its own hub transaction, which takes a
+ * few milliseconds each. With bulk caching in manual mode, the first read from a hub fetches all of
+ * its encoder data in one transaction, and later reads are served from that cache until it's
+ * cleared. The cache is cleared at the start of every {@link CommandScheduler#run()}, so every loop
+ * sees fresh data while only paying for one bulk read per hub. Before the scheduler runs, it's also
+ * cleared when the hubs are set up, and every 50 ms while {@link BaseOpMode} waits for start.
+ *
+ * <p>Reads and writes made through the wrappers in this package are counted per loop, and
+ * published to {@link Telemetry}.
+ */
+public final class HubManager {
+  private HubManager() {}
+
+  /**
+   * The parts of a hub that the manager uses. Backed by a {@link LynxModule} on the robot, and by a
+   * {@link ftc.sim.FakeHub} to run without hardware.
+   */
+  public interface Hub {
+    void setBulkCachingMode(LynxModule.BulkCachingMode mode);
+
+    void clearBulkCache();
+  }
+
+  private static Hub[] hubs = new Hub[0];
+  private static boolean registered = false;
+
+  private static final AtomicInteger cachedReads = new AtomicInteger();
+  private static final AtomicInteger transactions = new AtomicInteger();
+  private static final AtomicInteger skippedWrites = new AtomicInteger();
+  private static int lastLoopCachedReads = 0;
+  private static int lastLoopTransactions = 0;
+  private static int lastLoopSkippedWrites = 0;
+  private static long loopCount = 0;
+  // When each hub's bulk data was read during the loop it was read in, keyed by the hub.
+  private static final IdentityHashMap<Object, BulkRead> bulkReads = new IdentityHashMap<>();
+
+  /**
+   * Puts every hub in the op mode's hardware map into manual bulk caching mode.
+   *
+   * @param opMode The op mode.
+   */
+  public static void init(OpMode opMode) {
+    HubWriter.clearWriters();
+    CurrentSampler.clear();
+    var modules = opMode.hardwareMap.getAll(LynxModule.class);
+    var newHubs = new Hub[modules.size()];
+    for (int i = 0; i < newHubs.length; i++) {
+      var module = modules.get(i);
+      newHubs[i] =
+          new Hub() {
+            @Override
+            public void setBulkCachingMode(LynxModule.BulkCachingMode mode) {
+              module.setBulkCachingMode(mode);
+            }
+
+            @Override
+            public void clearBulkCache() {
+              module.clearBulkCache();
+            }
+          };
+    }
+    init(newHubs);
+  }
+
+  /**
+   * Puts the given hubs into manual bulk caching mode, replacing any previously managed hubs.
+   *
+   * @param newHubs The hubs to manage.
+   */
+  public static void init(Hub... newHubs) {
+    hubs = newHubs;
+    for (var hub : hubs) {
+      hub.setBulkCachingMode(LynxModule.BulkCachingMode.MANUAL);
+      // Anything cached before now is from before manual mode, and would never be refreshed until
+      // the first loop.
+      hub.clearBulkCache();
+    }
+    cachedReads.set(0);
+    transactions.set(0);
+    skippedWrites.set(0);
+    synchronized (HubManager.class) {
+      bulkReads.clear();
+    }
+    // The scheduler outlives op modes, so only hook into it once.
+    if (!registered) {
+      CommandScheduler.getInstance().onRunStart(HubManager::clearBulkCache);
+      registered = true;
+    }
+  }
+
+  /**
+   * Clears the bulk cache of every managed hub, so the next read from each hub fetches fresh data.
+   * Called automatically at the start of every {@link CommandScheduler#run()}, and during init by
+   * {@link BaseOpMode}.
+   */
+  public static void clearBulkCache() {
+    for (var hub : hubs) {
+      hub.clearBulkCache();
+    }
+    loopCount++;
+    lastLoopCachedReads = cachedReads.getAndSet(0);
+    lastLoopTransactions = transactions.getAndSet(0);
+    lastLoopSkippedWrites = skippedWrites.getAndSet(0);
+    if (hubs.length > 0) {
+      Telemetry.put("HubManager/Cached Reads", lastLoopCachedReads);
+      Telemetry.put("HubManager/Transactions", lastLoopTransactions);
+      Telemetry.put("HubManager/Skipped Writes", lastLoopSkippedWrites);
+    }
+  }
+
+  /**
+   * Whether hub reads are currently being served from the bulk cache.
+   *
+   * @return If bulk caching is enabled.
+   */
+  public static boolean isCaching() {
+    return hubs.length > 0;
+  }
+
+  /**
+   * Records a read of data that's included in the hub's bulk data, like encoder position, and gets
+   * when the hub sampled the data it was served from.
+   *
+   * <p>Every bulk data read made by the wrappers in this package is recorded here, so the first one
+   * from a hub after the cache is cleared is the one that fetched the bulk data, whichever wrapper
+   * and method made it. Its data was sampled halfway through it. Later reads from the same hub are
+   * served from the cache, so their data was sampled back then, not when they were made. Without
+   * bulk caching, every read is its own transaction.
+   *
+   * @param hub Something that identifies the hub, like a motor's controller.
+   * @param readStart When the read started. Seconds.
+   * @param readEnd When the read finished. Seconds.
+   * @return When the data was sampled. Seconds.
+   */
+  static synchronized double recordBulkRead(Object hub, double readStart, double readEnd) {
+    var midpoint = (readStart + readEnd) / 2;
+    if (!isCaching()) {
+      transactions.incrementAndGet();
+      return midpoint;
+    }
+    cachedReads.incrementAndGet();
+    var read = bulkReads.get(hub);
+    if (read == null) {
+      read = new BulkRead();
+      bulkReads.put(hub, read);
+    }
+    if (read.loop != loopCount) {
+      read.loop = loopCount;
+      read.timestamp = midpoint;
+    }
+    return read.timestamp;
+  }
+
+  /** Records a hub transaction that can't be cached, like a write or a current read. */
+  static void recordTransaction() {
+    transactions.incrementAndGet();
+  }
+
+  /** Records a write that was skipped because it wouldn't have meaningfully changed the output. */
+  static void recordSkippedWrite() {
+    skippedWrites.incrementAndGet();
+  }
+
+  /**
+   * Gets the number of reads served from the bulk cache during the last loop.
+   *
+   * <p>Each hub that was read from also did one bulk read transaction, which isn't included here.
+   *
+   * @return The number of cached reads.
+   */
+  public static int getLoopCachedReads() {
+    return lastLoopCachedReads;
+  }
+
+  /**
+   * Gets the number of individual hub transactions made during the last loop. These are reads that
+   * couldn't be served from the bulk cache, and writes.
+   *
+   * @return The number of transactions.
+   */
+  public static int getLoopTransactions() {
+    return lastLoopTransactions;
+  }
+
+  /**
+   * Gets the number of writes skipped during the last loop for being within tolerance of the last
+   * value sent.
+   *
+   * @return The number of skipped writes.
+   */
+  public static int getLoopSkippedWrites() {
+    return lastLoopSkippedWrites;
+  }
+
+  /**
+   * Gets the number of times the bulk cache has been cleared, which is once per scheduler loop, and
+   * every 50 ms while waiting for start before that. Values read from the bulk cache can be
+   * memoized against this, so they're only read once per loop.
+   *
+   * @return The loop count. 0 if the cache has never been cleared.
+   */
+  public static long getLoopCount() {
+    return loopCount;
+  }
+
+  /** When a hub's bulk data was read. */
+  private static final class BulkRead {
+    private long loop = -1;
+    private double timestamp;
+  }
+}
@@ -0,0 +1,254 @@
+// Copyright (c) 2024-2025 FTC 8696
+// All rights reserved.
+
+package ftc.lib.trobotix.hardware;
+
+import ftc.lib.trobotix.EndableThread;
+import ftc.lib.trobotix.Telemetry;
+import ftc.lib.trobotix.Utils;
+import ftc.lib.wpilib.commands.CommandScheduler;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes outputs to a hub on its own thread, so the control loop doesn't block on hub round trips.
+ *
+ * <p>Every output (a motor's power, a servo's position, etc.) gets a {@link Mailbox}. The control
+ * loop posts the desired value to the mailbox and continues immediately, and the writer's thread
+ * writes every mailbox with a new value back-to-back. If a value is posted before the previous one
+ * was written, the previous one is dropped, as only the latest value matters.
+ *
+ * <p>The writer doesn't know anything about hubs itself, it just runs the writes it's given. So a
+ * simulated hub is a writer whose mailboxes write to a simulation instead of hardware, like a
+ * {@link ftc.sim.FakeHub}.
+ *
+ * <p>Like other {@link EndableThread}s, the writer starts when the op mode starts and stops when
+ * it ends. Values still waiting when the op mode ends are written before the thread stops, so a
+ * final stop command isn't lost.
+ */
+public class HubWriter extends EndableThread {
+  // How long the thread waits for new values before checking if the op mode has ended.
+  private static final long kIdleParkNanos = 20_000_000;
+
+  private static final HashMap<Object, HubWriter> writers = new HashMap<>();
+  private static final ArrayList<HubWriter> activeWriters = new ArrayList<>();
+  private static boolean registered = false;
+
+  /**
+   * Gets the writer for a hub, creating it if it doesn't exist yet.
+   *
+   * @param hub Something that identifies the hub, like a motor's controller.
+   * @param name The name of the hub, used for telemetry.
+   * @return The hub's writer.
+   */
+  public static synchronized HubWriter forHub(Object hub, String name) {
+    var writer = writers.get(hub);
+    if (writer == null) {
+      writer = new HubWriter(name);
+      writers.put(hub, writer);
+    }
+    return writer;
+  }
+
+  /**
+   * Forgets every writer made by {@link HubWriter#forHub(Object, String)}, as their threads can't
+   * be restarted for a new op mode. Called automatically by {@link HubManager}.
+   */
+  static synchronized void clearWriters() {
+    writers.clear();
+    synchronized (activeWriters) {
+      activeWriters.clear();
+    }
+  }
+
+  private final String name;
+  // Replaced rather than modified, so the writer's thread doesn't need to lock anything.
+  private volatile Mailbox[] mailboxes = new Mailbox[0];
+
+  /**
+   * Creates a new writer. Its thread is started along with every other {@link EndableThread}.
+   *
+   * @param name The name of the writer, used for telemetry.
+   */
+  public HubWriter(String name) {
+    super(name + " Writer");
+    this.name = name;
+    synchronized (activeWriters) {
+      activeWriters.add(this);
+    }
+    // The scheduler outlives op modes, so only hook into it once.
+    synchronized (HubWriter.class) {
+      if (!registered) {
+        CommandScheduler.getInstance().onRunStart(HubWriter::reportAll);
+        registered = true;
+      }
+    }
+  }
+
+  /**
+   * Creates a mailbox for an output on this hub.
+   *
+   * @param name The name of the output, used for telemetry.
+   * @param output The blocking write to run on the writer's thread.
+   * @return The new mailbox.
+   */
+  public synchronized Mailbox addOutput(String name, Output output) {
+    var mailbox = new Mailbox(this, name, output);
+    var newMailboxes = Arrays.copyOf(mailboxes, mailboxes.length + 1);
+    newMailboxes[mailboxes.length] = mailbox;
+    mailboxes = newMailboxes;
+    return mailbox;
+  }
+
+  @Override
+  public void loop() {
+    if (flush() == 0) {
+      // Posting a value unparks the thread, so this only waits while there's nothing to write.
+      LockSupport.parkNanos(this, kIdleParkNanos);
+    }
+  }
+
+  @Override
+  public void end() {
+    flush();
+  }
+
+  /**
+   * Writes every mailbox that has a new value.
+   *
+   * <p>Called by the writer's thread, but can be called manually to step a simulation without
+   * starting the thread. Shouldn't be called while the thread is running.
+   *
+   * @return The number of values written.
+   */
+  public int flush() {
+    int written = 0;
+    for (var mailbox : mailboxes) {
+      if (mailbox.flush()) {
+        written++;
+      }
+    }
+    return written;
+  }
+
+  /** Publishes the write latency and staleness of every output. */
+  private void report() {
+    for (var mailbox : mailboxes) {
+      Telemetry.put(mailbox.latencyKey, mailbox.getLatency() * 1000);
+      Telemetry.put(mailbox.stalenessKey, mailbox.getStaleness() * 1000);
+      Telemetry.put(mailbox.supersededKey, mailbox.getSupersededCount());
+    }
+  }
+
+  private static void reportAll() {
+    synchronized (activeWriters) {
+      for (var writer : activeWriters) {
+        writer.report();
+      }
+    }
+  }
+
+  /** A blocking write to an output, like setting a motor's power. */
+  @FunctionalInterface
+  public interface Output {
+    void write(double value);
+  }
+
+  /** Holds the latest value to write to an output, until the writer's thread writes it. */
+  public static final class Mailbox {
+    private final HubWriter writer;
+    private final Output output;
+
+    private final AtomicBoolean dirty = new AtomicBoolean(false);
+    private volatile double value;
+    private volatile double postTime;
+
+    private volatile double latency = 0;
+    private volatile double staleness = 0;
+    private final AtomicInteger superseded = new AtomicInteger();
+
+    private final String latencyKey;
+    private final String stalenessKey;
+    private final String supersededKey;
+
+    private Mailbox(HubWriter writer, String name, Output output) {
+      this.writer = writer;
+      this.output = output;
+      var prefix = "HubWriter/" + writer.name + "/" + name + "/";
+      latencyKey = prefix + "Latency ms";
+      stalenessKey = prefix + "Staleness ms";
+      supersededKey = prefix + "Superseded";
+    }
+
+    /**
+     * Posts a value to be written. Returns immediately.
+     *
+     * @param value The value.
+     */
+    public void post(double value) {
+      this.value = value;
+      postTime = Utils.getTimeSeconds();
+      if (dirty.getAndSet(true)) {
+        superseded.incrementAndGet();
+      }
+      LockSupport.unpark(writer);
+    }
+
+    private boolean flush() {
+      if (!dirty.getAndSet(false)) {
+        return false;
+      }
+      // If a new value is posted while this one is being written, the mailbox is marked dirty
+      // again, so the new value is written on the next pass.
+      var value = this.value;
+      var postTime = this.postTime;
+      var startTime = Utils.getTimeSeconds();
+      output.write(value);
+      var endTime = Utils.getTimeSeconds();
+      latency = endTime - startTime;
+      staleness = endTime - postTime;
+      return true;
+    }
+
+    /**
+     * Whether a value has been posted, but its write hasn't started yet.
+     *
+     * @return If there's a value waiting to be written.
+     */
+    public boolean isPending() {
+      return dirty.get();
+    }
+
+    /**
+     * Gets how long the last write took.
+     *
+     * @return The write latency. Seconds.
+     */
+    public double getLatency() {
+      return latency;
+    }
+
+    /**
+     * Gets how old the last written value was by the time it was written, from being posted to the
+     * write finishing.
+     *
+     * @return The staleness. Seconds.
+     */
+    public double getStaleness() {
+      return staleness;
+    }
+
+    /**
+     * Gets the number of values that were replaced by a newer value before they could be written.
+     *
+     * @return The number of superseded values.
+     */
+    public int getSupersededCount() {
+      return superseded.get();
+    }
+  }
+}
@@ -3,27 +3,23 @@
 
 package ftc.lib.trobotix.hardware;
 
-import com.qualcomm.hardware.lynx.LynxVoltageSensor;
 import com.qualcomm.robotcore.eventloop.opmode.OpMode;
 import com.qualcomm.robotcore.hardware.DcMotor;
 import com.qualcomm.robotcore.hardware.DcMotorEx;
 import com.qualcomm.robotcore.hardware.DcMotorSimple;
 import ftc.lib.trobotix.Utils;
 import ftc.lib.wpilib.math.MathUtil;
-import ftc.lib.wpilib.math.filter.LinearFilter;
 import java.util.ArrayList;
 import org.firstinspires.ftc.robotcore.external.navigation.CurrentUnit;
 
 /** Wrapper for {@link DcMotorEx} for extra functionality and cleaner code. */
 public class Motor {
   private final DcMotorEx motorInternal;
-  private final LynxVoltageSensor voltageSensor;
 
   private final ArrayList<Motor> followers = new ArrayList<>(1);
 
   public Motor(OpMode opMode, String name) {
     motorInternal = (DcMotorEx) opMode.hardwareMap.dcMotor.get(name);
-    voltageSensor = opMode.hardwareMap.getAll(LynxVoltageSensor.class).iterator().next();
 
     motorInternal.setMode(DcMotor.RunMode.STOP_AND_RESET_ENCODER);
     motorInternal.setMode(DcMotor.RunMode.RUN_WITHOUT_ENCODER);
@@ -60,76 +56,349 @@ public class Motor {
     }
   }
 
-  //  /**
-  //   * Sets the tolerance for which setting new power values is ignored.
-  //   *
-  //   * <p>It's a waste of processor time to tell the motor to move at .9 power and immediately
-  // tell it
-  //   * to move at .901 power, so we use the cache tolerance to ignore the latter command. Default
-  //   * value is 0.001. (.1% duty cycle)
-  //   *
-  //   * @param tolerance The new power tolerance.
-  //   */
-  //  public void setTolerance(double tolerance) {
-  //    motorInternal.setCacheTolerance(tolerance);
-  //  }
+  private double tolerance = 0.001;
+  private volatile double lastDutyCycle = Double.NaN;
+  private int skippedWrites = 0;
+
+  /**
+   * Sets the tolerance for which setting new power values is ignored.
+   *
+   * <p>It's a waste of hub bandwidth to tell the motor to move at .9 power and immediately tell it
+   * to move at .901 power, as every write is a blocking hub transaction. So, we use the tolerance
+   * to ignore the latter command. Changes in direction, and starting or stopping the motor, are
+   * always sent. Default value is 0.001. (.1% duty cycle)
+   *
+   * <p>Followers added using {@link Motor#addFollower(Motor)} will also get this setting applied.
+   *
+   * @param tolerance The new power tolerance.
+   */
+  public void setTolerance(double tolerance) {
+    this.tolerance = tolerance;
+    for (var follower : followers) {
+      follower.setTolerance(tolerance);
+    }
+  }
+
+  /**
+   * Gets the number of writes that were skipped for being within tolerance of the last value sent.
+   *
+   * @return The number of skipped writes. Doesn't include followers.
+   */
+  public int getSkippedWrites() {
+    return skippedWrites;
+  }
+
+  private HubWriter.Mailbox output;
+
+  /**
+   * Sends power writes through the {@link HubWriter} of the motor's hub, instead of blocking the
+   * control loop on every write. Writes are still skipped if they're within tolerance.
+   *
+   * <p>Followers added using {@link Motor#addFollower(Motor)} will also get this setting applied.
+   *
+   * @param name The name of the motor, used for telemetry.
+   */
+  public void enableAsyncWrites(String name) {
+    var controller = motorInternal.getController();
+    output =
+        HubWriter.forHub(controller, controller.getDeviceName())
+            .addOutput(name, motorInternal::setPower);
+    for (int i = 0; i < followers.size(); i++) {
+      followers.get(i).enableAsyncWrites(name + " Follower " + i);
+    }
+  }
 
   private double currentLimitAmps = -1;
+  private double statorCurrentLimitAmps = -1;
 
   /**
    * Sets the current limit of the motor.
    *
    * <p>Motors can draw hell of a lot of current when pushed hard, and if too many motors draw too
    * much current, the voltage sag can cause things to brown out. To prevent this, the duty cycle of
-   * the motor is reduced when the limit is hit.\
+   * the motor is reduced when the limit is hit.
    *
    * <p>Followers added using {@link Motor#addFollower(Motor)} will also get this setting applied.
    *
-   * <p>This applies a supply current limit. The better way to do current limiting is stator
-   * limiting where the current is measured from the motor stators, but FTC hardware doesn't have
-   * that. You can approximate it by taking the supply current draw and dividing it by duty cycle,
-   * but it's less accurate and it's more costly on performance.
+   * <p>This applies a supply current limit. For a stator current limit, see {@link
+   * Motor#setStatorCurrentLimit(double)}.
+   *
+   * <p>Current reads are hub transactions that can't be bulk read, so the current is sampled by the
+   * {@link CurrentSampler} at a lower rate, and estimated in between samples. See {@link
+   * Motor#setMotorModel(double, double)}.
    */
   public void setCurrentLimit(double currentLimitAmps) {
     this.currentLimitAmps = currentLimitAmps;
+    if (currentLimitAmps > 0) {
+      enableCurrentSampling();
+    }
     for (var follower : followers) {
       follower.setCurrentLimit(currentLimitAmps);
     }
   }
 
-  private final LinearFilter currentFilter = LinearFilter.movingAverage(3);
+  /**
+   * Sets the stator current limit of the motor.
+   *
+   * <p>The better way to do current limiting is stator limiting where the current is measured from
+   * the motor stators, as stator current is what actually makes torque. FTC hardware doesn't have
+   * that, so it's approximated by dividing the supply current draw by the duty cycle. This gets
+   * noisy at low duty cycles, so a motor model makes this a lot more accurate. See {@link
+   * Motor#setMotorModel(double, double)}.
+   *
+   * <p>Followers added using {@link Motor#addFollower(Motor)} will also get this setting applied.
+   */
+  public void setStatorCurrentLimit(double statorCurrentLimitAmps) {
+    this.statorCurrentLimitAmps = statorCurrentLimitAmps;
+    if (statorCurrentLimitAmps > 0) {
+      enableCurrentSampling();
+    }
+    for (var follower : followers) {
+      follower.setStatorCurrentLimit(statorCurrentLimitAmps);
+    }
+  }
+
+  private double resistanceOhms = -1;
+  private double kV = 0;
+
+  /**
+   * Sets the model used to estimate current draw between current samples.
+   *
+   * <p>A DC motor's stator current is (applied voltage - back EMF) / resistance, where back EMF is
+   * proportional to velocity. Both constants can be taken from the motor's datasheet: resistance is
+   * 12 / stall current, and kV is 12 / free speed. The free speed has to be in the same units as
+   * {@link Motor#getVelocity()}.
+   *
+   * <p>Without a model, the last sampled stator current is assumed to hold until the next sample.
+   * A sample taken while the motor was stopped can't be used, so when the motor starts from rest,
+   * the {@link CurrentSampler} is asked to sample it right away.
+   *
+   * <p>Followers added using {@link Motor#addFollower(Motor)} will also get this setting applied.
+   *
+   * @param resistanceOhms The motor's winding resistance. Ohms.
+   * @param kV The back EMF constant. Volts per unit of velocity.
+   */
+  public void setMotorModel(double resistanceOhms, double kV) {
+    this.resistanceOhms = resistanceOhms;
+    this.kV = kV;
+    for (var follower : followers) {
+      follower.setMotorModel(resistanceOhms, kV);
+    }
+  }
+
+  private boolean currentSampling = false;
+
+  private void enableCurrentSampling() {
+    if (!currentSampling) {
+      CurrentSampler.register(this);
+      currentSampling = true;
+    }
+  }
+
+  /**
+   * A current sample.
+   *
+   * @param supplyAmps The measured supply current. Amps.
+   * @param dutyCycle The duty cycle applied when the current was measured.
+   * @param velocity The velocity of the motor when the current was measured.
+   */
+  private record CurrentSample(double supplyAmps, double dutyCycle, double velocity) {}
+
+  // Written by the CurrentSampler thread
+  private volatile CurrentSample currentSample;
+
+  /**
+   * Samples the motor's current draw. Called by the {@link CurrentSampler} thread.
+   *
+   * @return False if the latest duty cycle hasn't been written to the hub yet, in which case the
+   *     current wouldn't match it, so no sample is taken.
+   */
+  boolean sampleCurrent() {
+    if (output != null && output.isPending()) {
+      return false;
+    }
+    var dutyCycle = lastDutyCycle;
+    currentSample =
+        new CurrentSample(
+            motorInternal.getCurrent(CurrentUnit.AMPS),
+            Double.isNaN(dutyCycle) ? 0 : dutyCycle,
+            modelVelocity);
+    return true;
+  }
+
+  // Below this duty cycle, dividing supply current by duty cycle is mostly noise
+  private static final double kMinStatorDutyCycle = 0.05;
+
+  // Read by the CurrentSampler thread
+  private volatile double modelVelocity = 0;
+  private double estimatedStatorCurrent = 0;
+
+  /**
+   * Estimates the stator current that would be drawn at a duty cycle, from the last current sample
+   * and the motor model.
+   */
+  private double estimateStatorCurrent(double dutyCycle) {
+    var sample = currentSample;
+    var hasModel = resistanceOhms > 0;
+    if (hasModel) {
+      modelVelocity = getVelocity();
+    }
+    if (sample == null) {
+      return hasModel ? modelStatorCurrent(dutyCycle, modelVelocity) : 0;
+    }
+    if (Math.abs(sample.dutyCycle) < kMinStatorDutyCycle) {
+      // Can't approximate stator current from this sample, so only the model can be used
+      return hasModel ? modelStatorCurrent(dutyCycle, modelVelocity) : 0;
+    }
+    // Supply current is always positive, so the sign of the stator current follows the duty cycle
+    var sampledStatorCurrent = sample.supplyAmps / sample.dutyCycle;
+    if (!hasModel) {
+      return sampledStatorCurrent;
+    }
+    // Correct the model by how far off it was when the sample was taken
+    var modelError =
+        sampledStatorCurrent - modelStatorCurrent(sample.dutyCycle, sample.velocity);
+    return modelStatorCurrent(dutyCycle, modelVelocity) + modelError;
+  }
+
+  private double modelStatorCurrent(double dutyCycle, double velocity) {
+    return (dutyCycle * BatteryMonitor.getVoltage() - kV * velocity) / resistanceOhms;
+  }
+
+  /**
+   * Gets the estimated stator current of the motor, as of the last {@link Motor#set(double)} call.
+   * Only estimated if a current limit is set.
+   *
+   * @return The estimated stator current. Amps.
+   */
+  public double getEstimatedStatorCurrent() {
+    return estimatedStatorCurrent;
+  }
+
+  /**
+   * Gets the estimated supply current draw of the motor, as of the last {@link Motor#set(double)}
+   * call. Only estimated if a current limit is set.
+   *
+   * @return The estimated supply current. Amps.
+   */
+  public double getEstimatedCurrentDraw() {
+    var dutyCycle = lastDutyCycle;
+    return Double.isNaN(dutyCycle) ? 0 : Math.abs(estimatedStatorCurrent * dutyCycle);
+  }
 
   /**
    * Sets the duty cycle of the motor.
    *
    * <p>Followers added using {@link Motor#addFollower(Motor)} will also have their duty cycle set.
+   * If the write to this motor is skipped for being within tolerance, the writes to the followers
+   * are skipped as well.
    *
    * @param dutyCycle The duty cycle to set. Clamped between -1 and 1.
    */
   public void set(double dutyCycle) {
-    dutyCycle = MathUtil.clamp(dutyCycle, -1, 1);
-    if (currentLimitAmps > 0 && currentFilter.calculate(getCurrentDraw()) > currentLimitAmps) {
-      dutyCycle *= currentLimitAmps / currentFilter.lastValue();
+    dutyCycle = limitDutyCycle(dutyCycle);
+    if (!write(dutyCycle)) {
+      return;
     }
-    motorInternal.setPower(dutyCycle);
     for (var follower : followers) {
       follower.set(dutyCycle);
     }
   }
 
+  /** Clamps the duty cycle and applies current limits, without writing it. */
+  double limitDutyCycle(double dutyCycle) {
+    dutyCycle = MathUtil.clamp(dutyCycle, -1, 1);
+    if (currentLimitAmps > 0 || statorCurrentLimitAmps > 0) {
+      dutyCycle = applyCurrentLimits(dutyCycle);
+    }
+    return dutyCycle;
+  }
+
+  /**
+   * Writes a duty cycle to the motor as is, unless it's within tolerance of the last value sent.
+   *
+   * @return Whether the duty cycle was written.
+   */
+  boolean write(double dutyCycle) {
+    if (!shouldWrite(dutyCycle)) {
+      skippedWrites++;
+      HubManager.recordSkippedWrite();
+      return false;
+    }
+    if (output != null) {
+      output.post(dutyCycle);
+    } else {
+      motorInternal.setPower(dutyCycle);
+      HubManager.recordTransaction();
+    }
+    lastDutyCycle = dutyCycle;
+    if (currentSampling && Math.abs(dutyCycle) >= kMinStatorDutyCycle) {
+      var sample = currentSample;
+      if (sample == null || Math.abs(sample.dutyCycle) < kMinStatorDutyCycle) {
+        // Starting from rest, where the last sample can't estimate the stall current
+        CurrentSampler.requestSample();
+      }
+    }
+    return true;
+  }
+
+  private double applyCurrentLimits(double dutyCycle) {
+    var statorCurrent = estimateStatorCurrent(dutyCycle);
+    if (statorCurrentLimitAmps > 0 && Math.abs(statorCurrent) > statorCurrentLimitAmps) {
+      var limit = Math.copySign(statorCurrentLimitAmps, statorCurrent);
+      if (resistanceOhms > 0) {
+        // The model's current is linear in duty cycle, so solve it for the duty cycle that draws
+        // exactly the limit
+        var ampsPerDutyCycle = Math.max(BatteryMonitor.getVoltage(), 1e-3) / resistanceOhms;
+        var limitedDutyCycle = dutyCycle + (limit - statorCurrent) / ampsPerDutyCycle;
+        // Limiting can only back off the commanded duty cycle, never reverse it
+        limitedDutyCycle =
+            dutyCycle > 0
+                ? MathUtil.clamp(limitedDutyCycle, 0, dutyCycle)
+                : MathUtil.clamp(limitedDutyCycle, dutyCycle, 0);
+        statorCurrent += (limitedDutyCycle - dutyCycle) * ampsPerDutyCycle;
+        dutyCycle = limitedDutyCycle;
+      } else {
+        dutyCycle *= limit / statorCurrent;
+        statorCurrent = limit;
+      }
+    }
+    var supplyCurrent = Math.abs(statorCurrent * dutyCycle);
+    if (currentLimitAmps > 0 && supplyCurrent > currentLimitAmps) {
+      dutyCycle *= currentLimitAmps / supplyCurrent;
+    }
+    estimatedStatorCurrent = statorCurrent;
+    return dutyCycle;
+  }
+
+  private boolean shouldWrite(double dutyCycle) {
+    // Always send the first write, changes in direction, and starting or stopping.
+    // Math.signum(0) is 0, so moving to or from zero counts as a change in direction.
+    if (Double.isNaN(lastDutyCycle) || Math.signum(dutyCycle) != Math.signum(lastDutyCycle)) {
+      return true;
+    }
+    return Math.abs(dutyCycle - lastDutyCycle) > tolerance;
+  }
+
   /**
    * Set the voltage of the motor.
    *
    * <p>This compensates for voltage sag by raising the duty cycle when voltage drops, allowing for
-   * a more consistent experience with commanding motor power.
+   * a more consistent experience with commanding motor power. The voltage is read from {@link
+   * BatteryMonitor}, so it doesn't cost a hub read.
    *
    * <p>Followers added using {@link Motor#addFollower(Motor)} will also have their voltage set.
    *
    * @param volts The motor voltage to set. From -12 to 12.
    */
   public void setVoltage(double volts) {
-    var currentVoltage = MathUtil.clamp(-12, 12, voltageSensor.getVoltage());
-    set(volts / currentVoltage);
+    set(toDutyCycle(volts));
+  }
+
+  /** Converts a voltage to the duty cycle that applies it at the current battery voltage. */
+  static double toDutyCycle(double volts) {
+    // A dead or unplugged battery can read 0
+    return MathUtil.clamp(volts, -12, 12) / Math.max(BatteryMonitor.getVoltage(), 1e-3);
   }
 
   /**
@@ -138,6 +407,7 @@ public class Motor {
    * @return Current draw. Amps.
    */
   public double getCurrentDraw() {
+    HubManager.recordTransaction();
     return motorInternal.getCurrent(CurrentUnit.AMPS);
   }
 
@@ -165,37 +435,82 @@ public class Motor {
    *     Motor#setConversionFactor(double conversionFactor)}.
    */
   public double getPosition() {
-    return motorInternal.getCurrentPosition() / conversionFactor - offset;
+    var startTime = Utils.getTimeSeconds();
+    var ticks = motorInternal.getCurrentPosition();
+    // This may be the read that fetched the hub's bulk data, which later velocity reads from the
+    // same hub are stamped with
+    HubManager.recordBulkRead(motorInternal.getController(), startTime, Utils.getTimeSeconds());
+    return ticks / conversionFactor - offset;
   }
 
   public void setPosition(double position) {
     offset += getPosition() - position;
-    lastPos = position;
   }
 
-  private double lastPos = 0;
-  private double lastTime = -1;
+  private VelocityEstimator velocityEstimator = VelocityEstimator.leastSquares(3);
+  private double nativeVelocityWeight = 0;
+  private long velocityLoop = -1;
+  private double velocity = 0;
+
+  /**
+   * Sets how velocity is estimated from position samples. Defaults to a least squares fit of the
+   * last 3 samples.
+   *
+   * @param velocityEstimator The new estimator.
+   */
+  public void setVelocityEstimator(VelocityEstimator velocityEstimator) {
+    this.velocityEstimator = velocityEstimator;
+    velocityLoop = -1;
+  }
+
+  /**
+   * Blends the hub's own velocity measurement into the estimated velocity.
+   *
+   * <p>The hub only measures velocity at 20 hz, so it lags behind, but it's less noisy than
+   * differentiating position at high loop rates. It's part of the bulk data, so it doesn't cost an
+   * extra hub transaction. Defaults to 0, which doesn't use it.
+   *
+   * @param weight How much of the hub's velocity to use, from 0 to 1.
+   */
+  public void setNativeVelocityWeight(double weight) {
+    nativeVelocityWeight = MathUtil.clamp(weight, 0, 1);
+  }
 
   /**
    * Gets the motor's current velocity.
    *
    * <p>We calculate motor velocity ourselves because REV sucks and only calculates velocity at 20
-   * hz.
+   * hz. The position is sampled once per {@link ftc.lib.wpilib.commands.CommandScheduler} loop, so
+   * calling this multiple times in one loop returns the same value.
    *
    * @return The velocity. Numerator units follow {@link Motor#getPosition()}. Denominator unit is
    *     seconds.
    */
   public double getVelocity() {
-    if (lastTime == -1) {
-      lastPos = getPosition();
-      lastTime = Utils.getTimeSeconds();
-      return 0;
-    }
-    var currentPos = getPosition();
-    var currentTime = Utils.getTimeSeconds();
-    var velocity = (currentPos - lastPos) / (currentTime - lastTime);
-    lastPos = currentPos;
-    lastTime = currentTime;
+    var loop = HubManager.getLoopCount();
+    // Outside of the scheduler there are no loops to go by, so sample on every call
+    if (loop == velocityLoop && loop != 0) {
+      return velocity;
+    }
+    velocityLoop = loop;
+
+    // Stamp the sample with when the hub read the encoder, which for a cached read is when an
+    // earlier read fetched the bulk data
+    var startTime = Utils.getTimeSeconds();
+    var ticks = motorInternal.getCurrentPosition();
+    var timestamp =
+        HubManager.recordBulkRead(
+            motorInternal.getController(), startTime, Utils.getTimeSeconds());
+    // Use raw ticks, so changing the offset doesn't look like the motor moving
+    velocityEstimator.addSample(timestamp, ticks);
+    var ticksPerSecond = velocityEstimator.getVelocity();
+    if (nativeVelocityWeight > 0) {
+      var readStart = Utils.getTimeSeconds();
+      var nativeVelocity = motorInternal.getVelocity();
+      HubManager.recordBulkRead(motorInternal.getController(), readStart, Utils.getTimeSeconds());
+      ticksPerSecond = MathUtil.interpolate(ticksPerSecond, nativeVelocity, nativeVelocityWeight);
+    }
+    velocity = ticksPerSecond / conversionFactor;
     return velocity;
   }
 
@@ -204,6 +519,9 @@ public class Motor {
    * settings.
    *
    * <p>The follower will ignore the invert direction, however.
+   *
+   * <p>Every follower repeats the duty cycle clamping and current limiting. To only do that once
+   * for all of them, or to invert followers, use a {@link MotorGroup} instead.
    */
   public void addFollower(Motor motor) {
     followers.add(motor);
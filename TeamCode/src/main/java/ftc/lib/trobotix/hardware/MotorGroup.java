@@ -0,0 +1,135 @@
+// Copyright (c) 2024-2025 FTC 8696
+// All rights reserved.
+
+package ftc.lib.trobotix.hardware;
+
+import java.util.Arrays;
+
+/**
+ * A group of motors driving the same mechanism, with one leader and any number of followers.
+ *
+ * <p>The duty cycle is clamped and current limited once, using the leader, and the result is
+ * written to every motor back-to-back. If the leader's write is skipped for being within
+ * tolerance, every follower's write is skipped too. Position and velocity are read from the leader.
+ *
+ * <p>If async writes are enabled, every motor's write is posted to its hub's {@link HubWriter},
+ * which writes them all in one pass.
+ */
+public class MotorGroup {
+  private final Motor leader;
+  private Motor[] followers = new Motor[0];
+  // 1 for followers spinning with the leader, -1 for inverted followers
+  private double[] followerSigns = new double[0];
+
+  /**
+   * Creates a new motor group.
+   *
+   * @param leader The motor that current limits, position and velocity are taken from.
+   */
+  public MotorGroup(Motor leader) {
+    this.leader = leader;
+  }
+
+  /**
+   * Adds a follower to the group.
+   *
+   * @param follower The follower.
+   * @param inverted If the follower should spin opposite to the leader.
+   */
+  public void addFollower(Motor follower, boolean inverted) {
+    followers = Arrays.copyOf(followers, followers.length + 1);
+    followers[followers.length - 1] = follower;
+    followerSigns = Arrays.copyOf(followerSigns, followerSigns.length + 1);
+    followerSigns[followerSigns.length - 1] = inverted ? -1 : 1;
+  }
+
+  /**
+   * Gets the leader of the group. Current limits, the motor model, the conversion factor and the
+   * velocity estimator should be set on the leader.
+   *
+   * @return The leader.
+   */
+  public Motor getLeader() {
+    return leader;
+  }
+
+  /**
+   * Sets the duty cycle of every motor in the group.
+   *
+   * @param dutyCycle The duty cycle to set. Clamped between -1 and 1. Inverted for inverted
+   *     followers.
+   */
+  public void set(double dutyCycle) {
+    dutyCycle = leader.limitDutyCycle(dutyCycle);
+    if (!leader.write(dutyCycle)) {
+      return;
+    }
+    for (int i = 0; i < followers.length; i++) {
+      followers[i].write(dutyCycle * followerSigns[i]);
+    }
+  }
+
+  /**
+   * Sets the voltage of every motor in the group. See {@link Motor#setVoltage(double)}.
+   *
+   * @param volts The motor voltage to set. From -12 to 12.
+   */
+  public void setVoltage(double volts) {
+    set(Motor.toDutyCycle(volts));
+  }
+
+  /**
+   * Sets whether every motor in the group brakes when no power is applied.
+   *
+   * @param brake Whether or not the motors brake when no power is applied.
+   */
+  public void setIdleBrake(boolean brake) {
+    leader.setIdleBrake(brake);
+    for (var follower : followers) {
+      follower.setIdleBrake(brake);
+    }
+  }
+
+  /**
+   * Sets the write tolerance of every motor in the group. See {@link Motor#setTolerance(double)}.
+   *
+   * @param tolerance The new power tolerance.
+   */
+  public void setTolerance(double tolerance) {
+    leader.setTolerance(tolerance);
+    for (var follower : followers) {
+      follower.setTolerance(tolerance);
+    }
+  }
+
+  /**
+   * Sends every motor's writes through its hub's {@link HubWriter}. See {@link
+   * Motor#enableAsyncWrites(String)}.
+   *
+   * @param name The name of the group, used for telemetry.
+   */
+  public void enableAsyncWrites(String name) {
+    leader.enableAsyncWrites(name + " Leader");
+    for (int i = 0; i < followers.length; i++) {
+      followers[i].enableAsyncWrites(name + " Follower " + i);
+    }
+  }
+
+  /**
+   * Gets the position of the leader.
+   *
+   * @return The position. See {@link Motor#getPosition()}.
+   */
+  public double getPosition() {
+    return leader.getPosition();
+  }
+
+  /**
+   * Gets the velocity of the leader.
+   *
+   * @return The velocity. See {@link Motor#getVelocity()}.
+   */
+  public double getVelocity() {
+    return leader.getVelocity();
+  }
+}
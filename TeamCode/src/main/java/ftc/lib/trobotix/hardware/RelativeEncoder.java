@@ -6,6 +6,7 @@ package ftc.lib.trobotix.hardware;
 import com.qualcomm.robotcore.eventloop.opmode.OpMode;
 import com.qualcomm.robotcore.hardware.DcMotor;
 import com.qualcomm.robotcore.hardware.DcMotorEx;
+import ftc.lib.trobotix.Utils;
 
 public class RelativeEncoder {
   private final DcMotorEx motor;
@@ -20,6 +21,11 @@ public class RelativeEncoder {
   }
 
   public double getPosition() {
-    return motor.getCurrentPosition() / conversionFactor;
+    var startTime = Utils.getTimeSeconds();
+    var ticks = motor.getCurrentPosition();
+    // This may be the read that fetched the hub's bulk data, which later velocity reads from the
+    // same hub are stamped with
+    HubManager.recordBulkRead(motor.getController(), startTime, Utils.getTimeSeconds());
+    return ticks / conversionFactor;
   }
 }
@@ -0,0 +1,128 @@
+// Copyright (c) 2024-2025 FTC 8696
+// All rights reserved.
+
+package ftc.lib.trobotix.hardware;
+
+import ftc.lib.wpilib.math.filter.LinearFilter;
+import java.util.Arrays;
+
+/**
+ * Estimates velocity from timestamped position samples.
+ *
+ * <p>Samples are stored in a fixed size ring buffer, so adding a sample doesn't allocate.
+ */
+public class VelocityEstimator {
+  private final double[] times;
+  private final double[] positions;
+  private int head = 0;
+  private int size = 0;
+
+  private final LinearFilter finiteDifference;
+
+  private double velocity = 0;
+
+  /**
+   * Creates an estimator that fits a line through the last few samples, and uses its slope as the
+   * velocity. Uses the actual sample timestamps, so it handles uneven loop times.
+   *
+   * <p>Larger windows are less noisy, but lag behind more. A window of 2 is a plain difference
+   * between the last 2 samples.
+   *
+   * @param window The number of samples to fit. At least 2.
+   * @return The estimator.
+   */
+  public static VelocityEstimator leastSquares(int window) {
+    if (window < 2) {
+      throw new IllegalArgumentException("Window must be at least 2 samples, got " + window);
+    }
+    return new VelocityEstimator(window, null);
+  }
+
+  /**
+   * Creates an estimator that uses {@link LinearFilter#backwardFiniteDifference(int, int,
+   * double)}. This assumes samples are taken exactly every period, so it's only accurate when the
+   * loop time is consistent.
+   *
+   * @param samples The number of samples to use. At least 2.
+   * @param period The time between samples. Seconds.
+   * @return The estimator.
+   */
+  public static VelocityEstimator finiteDifference(int samples, double period) {
+    return new VelocityEstimator(
+        samples, LinearFilter.backwardFiniteDifference(1, samples, period));
+  }
+
+  private VelocityEstimator(int window, LinearFilter finiteDifference) {
+    times = new double[window];
+    positions = new double[window];
+    this.finiteDifference = finiteDifference;
+  }
+
+  /**
+   * Adds a position sample. Samples that aren't newer than the last sample are ignored.
+   *
+   * @param timeSeconds When the position was measured. Seconds.
+   * @param position The position.
+   */
+  public void addSample(double timeSeconds, double position) {
+    if (size > 0 && timeSeconds <= times[Math.floorMod(head - 1, times.length)]) {
+      return;
+    }
+    times[head] = timeSeconds;
+    positions[head] = position;
+    head = (head + 1) % times.length;
+    size = Math.min(size + 1, times.length);
+
+    if (finiteDifference != null) {
+      if (size == 1) {
+        // Start from rest instead of a jump from 0 to the first position
+        var inputs = new double[times.length];
+        Arrays.fill(inputs, position);
+        finiteDifference.reset(inputs, new double[0]);
+      }
+      velocity = finiteDifference.calculate(position);
+    } else {
+      velocity = fitSlope();
+    }
+  }
+
+  private double fitSlope() {
+    if (size < 2) {
+      return 0;
+    }
+    // Center on the mean, so timestamps in the thousands of seconds don't lose precision
+    double meanTime = 0;
+    double meanPosition = 0;
+    for (int i = 0; i < size; i++) {
+      meanTime += times[i];
+      meanPosition += positions[i];
+    }
+    meanTime /= size;
+    meanPosition /= size;
+
+    double covariance = 0;
+    double variance = 0;
+    for (int i = 0; i < size; i++) {
+      var dt = times[i] - meanTime;
+      covariance += dt * (positions[i] - meanPosition);
+      variance += dt * dt;
+    }
+    return variance > 0 ? covariance / variance : 0;
+  }
+
+  /**
+   * Gets the velocity as of the last sample.
+   *
+   * @return The velocity. Position units per second.
+   */
+  public double getVelocity() {
+    return velocity;
+  }
+
+  /** Clears all samples. */
+  public void reset() {
+    head = 0;
+    size = 0;
+    velocity = 0;
+  }
+}
@@ -3,7 +3,6 @@
 
 package ftc.lib.trobotix.kinematics;
 
-import ftc.lib.wpilib.math.geometry.Rotation2d;
 import ftc.lib.wpilib.math.geometry.Transform2d;
 import ftc.lib.wpilib.math.geometry.Translation2d;
 import ftc.lib.wpilib.math.geometry.Twist2d;
@@ -29,7 +28,9 @@ import org.ejml.simple.SimpleMatrix;
  * chassis speeds.
  *
  * <p>Forward kinematics is also used for odometry -- determining the position of the robot on the
- * field using encoders and a gyro.
+ * field using encoders and a gyro. The pseudoinverse is only computed once, and forward kinematics
+ * multiplies by it directly on the wheel arrays, unrolled for 3 and 4 wheels, so odometry doesn't
+ * allocate a matrix every loop.
  *
  * <p>Note that in the special case of 4 wheels, angled 45 degrees, and positioned in a rectangle,
  * also known as X-drive, it is identical to mecanum kinematics.
@@ -40,8 +41,15 @@ import org.ejml.simple.SimpleMatrix;
 public class OmniWheelKinematics implements Kinematics<OmniWheelSpeeds, OmniWheelPositions> {
   private final Transform2d[] wheelPositions;
 
-  private final SimpleMatrix inverseKinematics;
-  private final SimpleMatrix forwardKinematics;
+  // Each wheel's row of the inverse kinematics: how fast it spins per unit of x, y, and angular
+  // velocity. The angular column depends on the center of rotation.
+  private final double[] cos;
+  private final double[] sin;
+  private final double[] angular;
+  // The pseudoinverse of the inverse kinematics at the physical center, 3 rows by n columns, stored
+  // row major
+  private final double[] forwardKinematics;
+  private final double[] zeros;
 
   public OmniWheelKinematics(Transform2d... wheelPositions) {
     if (wheelPositions.length == 0) {
@@ -49,20 +57,31 @@ public class OmniWheelKinematics implements Kinematics<OmniWheelSpeeds, OmniWhee
     }
     this.wheelPositions = wheelPositions;
 
-    inverseKinematics = new SimpleMatrix(3, wheelPositions.length, true);
-    setInverseKinematics(wheelPositions);
-    forwardKinematics = inverseKinematics.pseudoInverse();
+    int wheels = wheelPositions.length;
+    cos = new double[wheels];
+    sin = new double[wheels];
+    angular = new double[wheels];
+    zeros = new double[wheels];
+    setInverseKinematics(new Translation2d());
+
+    var inverseKinematics = new SimpleMatrix(wheels, 3);
+    for (int i = 0; i < wheels; i++) {
+      inverseKinematics.setRow(i, 0, cos[i], sin[i], angular[i]);
+    }
+    var pseudoInverse = inverseKinematics.pseudoInverse();
+    forwardKinematics = new double[3 * wheels];
+    for (int row = 0; row < 3; row++) {
+      for (int column = 0; column < wheels; column++) {
+        forwardKinematics[row * wheels + column] = pseudoInverse.get(row, column);
+      }
+    }
   }
 
   @Override
   public ChassisSpeeds toChassisSpeeds(OmniWheelSpeeds wheelSpeeds) {
-    var wheelSpeedsVector =
-        new SimpleMatrix(wheelSpeeds.speeds.length, 1, true, wheelSpeeds.speeds);
-    var chassisSpeedsVector = forwardKinematics.mult(wheelSpeedsVector);
-    return new ChassisSpeeds(
-        chassisSpeedsVector.get(0, 0),
-        chassisSpeedsVector.get(0, 1),
-        chassisSpeedsVector.get(0, 2));
+    var chassisSpeeds = new Twist2d();
+    forwardKinematics(zeros, wheelSpeeds.speeds, chassisSpeeds);
+    return new ChassisSpeeds(chassisSpeeds.dx, chassisSpeeds.dy, chassisSpeeds.dtheta);
   }
 
   @Override
@@ -94,65 +113,93 @@ public class OmniWheelKinematics implements Kinematics<OmniWheelSpeeds, OmniWhee
       ChassisSpeeds chassisSpeeds, Translation2d centerOfRotationMeters) {
     // We have a new center of rotation. We need to compute the matrix again.
     if (!centerOfRotationMeters.equals(m_prevCoR)) {
-      Transform2d[] newPositions = new Transform2d[wheelPositions.length];
-      for (int i = 0; i < newPositions.length; i++) {
-        newPositions[i] =
-            wheelPositions[i].plus(
-                new Transform2d(centerOfRotationMeters.unaryMinus(), new Rotation2d()));
-      }
-      setInverseKinematics(newPositions);
-
+      setInverseKinematics(centerOfRotationMeters);
       m_prevCoR = centerOfRotationMeters;
     }
 
-    var chassisSpeedsVector =
-        new SimpleMatrix(
-            1,
-            3,
-            false,
-            chassisSpeeds.vxMetersPerSecond,
-            chassisSpeeds.vyMetersPerSecond,
-            chassisSpeeds.omegaRadiansPerSecond);
-    var wheelsVector = inverseKinematics.mult(chassisSpeedsVector);
-
     double[] retSpeeds = new double[wheelPositions.length];
     for (int i = 0; i < retSpeeds.length; i++) {
-      retSpeeds[i] = wheelsVector.get(i, 0);
+      retSpeeds[i] =
+          cos[i] * chassisSpeeds.vxMetersPerSecond
+              + sin[i] * chassisSpeeds.vyMetersPerSecond
+              + angular[i] * chassisSpeeds.omegaRadiansPerSecond;
     }
     return new OmniWheelSpeeds(retSpeeds);
   }
 
   @Override
   public Twist2d toTwist2d(OmniWheelPositions start, OmniWheelPositions end) {
-    return toTwist2d(end.minus(start));
+    var twist = new Twist2d();
+    forwardKinematics(start.positions, end.positions, twist);
+    return twist;
   }
 
   public Twist2d toTwist2d(OmniWheelPositions positionDeltas) {
-    var moduleDeltaMatrix =
-        new SimpleMatrix(positionDeltas.positions.length, 1, true, positionDeltas.positions);
+    var twist = new Twist2d();
+    forwardKinematics(zeros, positionDeltas.positions, twist);
+    return twist;
+  }
 
-    var chassisDeltaVector = forwardKinematics.mult(moduleDeltaMatrix);
+  /**
+   * Performs forward kinematics on the change in wheel positions, writing the result into an
+   * existing twist instead of allocating one.
+   *
+   * @param start The starting wheel positions.
+   * @param end The ending wheel positions.
+   * @param output The twist to write the resulting motion into.
+   */
+  public void toTwist2d(OmniWheelPositions start, OmniWheelPositions end, Twist2d output) {
+    forwardKinematics(start.positions, end.positions, output);
+  }
 
-    return new Twist2d(
-        chassisDeltaVector.get(0, 0), chassisDeltaVector.get(0, 1), chassisDeltaVector.get(0, 1));
+  /** Multiplies the forward kinematics by end - start, and writes it into the output. */
+  private void forwardKinematics(double[] start, double[] end, Twist2d output) {
+    if (start.length != zeros.length || end.length != zeros.length) {
+      throw new IllegalArgumentException(
+          "Expected " + zeros.length + " wheels, got " + start.length + " and " + end.length);
+    }
+    var f = forwardKinematics;
+    if (zeros.length == 3) {
+      double d0 = end[0] - start[0];
+      double d1 = end[1] - start[1];
+      double d2 = end[2] - start[2];
+      output.dx = f[0] * d0 + f[1] * d1 + f[2] * d2;
+      output.dy = f[3] * d0 + f[4] * d1 + f[5] * d2;
+      output.dtheta = f[6] * d0 + f[7] * d1 + f[8] * d2;
+    } else if (zeros.length == 4) {
+      double d0 = end[0] - start[0];
+      double d1 = end[1] - start[1];
+      double d2 = end[2] - start[2];
+      double d3 = end[3] - start[3];
+      output.dx = f[0] * d0 + f[1] * d1 + f[2] * d2 + f[3] * d3;
+      output.dy = f[4] * d0 + f[5] * d1 + f[6] * d2 + f[7] * d3;
+      output.dtheta = f[8] * d0 + f[9] * d1 + f[10] * d2 + f[11] * d3;
+    } else {
+      int wheels = zeros.length;
+      double dx = 0;
+      double dy = 0;
+      double dtheta = 0;
+      for (int i = 0; i < wheels; i++) {
+        double delta = end[i] - start[i];
+        dx += f[i] * delta;
+        dy += f[wheels + i] * delta;
+        dtheta += f[2 * wheels + i] * delta;
+      }
+      output.dx = dx;
+      output.dy = dy;
+      output.dtheta = dtheta;
+    }
   }
 
-  private void setInverseKinematics(Transform2d[] newWheelPositions) {
-    for (int i = 0; i < newWheelPositions.length; i++) {
-      // Rows:
-      // 0: x
-      // 1: y
-      // 2: angle
-      inverseKinematics.setColumn(
-          i,
-          0,
-          newWheelPositions[i].getRotation().getCos(),
-          newWheelPositions[i].getRotation().getSin(),
-          newWheelPositions[i]
-                  .getRotation()
-                  .minus(newWheelPositions[i].getTranslation().getAngle())
-                  .getSin()
-              / newWheelPositions[i].getTranslation().getNorm());
+  private void setInverseKinematics(Translation2d centerOfRotationMeters) {
+    for (int i = 0; i < wheelPositions.length; i++) {
+      // A wheel measures the velocity of its contact point along the direction it rolls, and
+      // rotation moves the contact point perpendicular to its offset from the center of rotation
+      var direction = wheelPositions[i].getRotation();
+      var offset = wheelPositions[i].getTranslation().minus(centerOfRotationMeters);
+      cos[i] = direction.getCos();
+      sin[i] = direction.getSin();
+      angular[i] = offset.getX() * direction.getSin() - offset.getY() * direction.getCos();
     }
   }
 }
@@ -44,7 +44,11 @@ public class OmniWheelPositions implements WheelPositions<OmniWheelPositions> {
   }
 
   public OmniWheelPositions minus(OmniWheelPositions wheelPositions) {
-    return plus(wheelPositions.unaryMinus());
+    var newPositions = new double[this.positions.length];
+    for (int i = 0; i < this.positions.length; i++) {
+      newPositions[i] = this.positions[i] - wheelPositions.positions[i];
+    }
+    return new OmniWheelPositions(newPositions);
   }
 
   public OmniWheelPositions unaryMinus() {
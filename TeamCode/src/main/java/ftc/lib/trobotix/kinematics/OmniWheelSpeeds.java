@@ -26,7 +26,11 @@ public class OmniWheelSpeeds {
   }
 
   public OmniWheelSpeeds minus(OmniWheelSpeeds wheelPositions) {
-    return plus(wheelPositions.unaryMinus());
+    var newPositions = new double[this.speeds.length];
+    for (int i = 0; i < this.speeds.length; i++) {
+      newPositions[i] = this.speeds[i] - wheelPositions.speeds[i];
+    }
+    return new OmniWheelSpeeds(newPositions);
   }
 
   public OmniWheelSpeeds unaryMinus() {
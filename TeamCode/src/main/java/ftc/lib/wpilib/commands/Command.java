@@ -24,6 +24,10 @@ public abstract class Command {
   /** Requirements set. */
   protected Set<Subsystem> m_requirements = new HashSet<>();
 
+  // Scheduler bookkeeping for execution periods and budget deferrals.
+  int m_loopsSinceExecution;
+  boolean m_deferred;
+
   /** Default constructor. */
   @SuppressWarnings("this-escape")
   protected Command() {
@@ -474,6 +478,62 @@ public abstract class Command {
     return false;
   }
 
+  /**
+   * The priority of this command when the scheduler is overloaded. Critical commands are executed
+   * every loop no matter what; other commands are executed in priority order while there is time
+   * left in the {@link CommandScheduler#setExecutionBudget(double) execution budget}.
+   *
+   * @return the priority of the command, defaulting to {@link Priority#kNormal kNormal}.
+   */
+  public Priority getPriority() {
+    return Priority.kNormal;
+  }
+
+  /**
+   * How often the command is executed, in scheduler loops. A period of 5 means the command's {@link
+   * #execute()} and {@link #isFinished()} methods are only called every 5th loop.
+   *
+   * @return the execution period of the command, defaulting to 1 (every loop).
+   */
+  public int getExecutionPeriod() {
+    return 1;
+  }
+
+  /**
+   * Decorates this command to have a different {@link Priority priority}.
+   *
+   * @param priority the desired priority
+   * @return the decorated command
+   */
+  public WrapperCommand withPriority(Priority priority) {
+    requireNonNullParam(priority, "priority", "Command.withPriority()");
+    return new WrapperCommand(this) {
+      @Override
+      public Priority getPriority() {
+        return priority;
+      }
+    };
+  }
+
+  /**
+   * Decorates this command to only be executed every few scheduler loops. Useful for low-value work
+   * like LED animations that doesn't need to run at the full loop rate.
+   *
+   * @param loops how many scheduler loops between each execution. Must be at least 1.
+   * @return the decorated command
+   */
+  public WrapperCommand withExecutionPeriod(int loops) {
+    if (loops < 1) {
+      throw new IllegalArgumentException("Execution period must be at least 1 loop!");
+    }
+    return new WrapperCommand(this) {
+      @Override
+      public int getExecutionPeriod() {
+        return loops;
+      }
+    };
+  }
+
   /**
    * Decorates this Command with a name.
    *
@@ -501,4 +561,19 @@ public abstract class Command {
     /** This command continues, and the incoming command is not scheduled. */
     kCancelIncoming
   }
+
+  /** An enum describing how important it is that a command gets executed every loop. */
+  public enum Priority {
+    /** This command is always executed, even when the execution budget has been used up. */
+    kCritical,
+    /**
+     * This command is executed after critical commands, while there is time left in the execution
+     * budget.
+     *
+     * <p>This is the default priority.
+     */
+    kNormal,
+    /** This command is executed last, only if there is time left in the execution budget. */
+    kLow
+  }
 }
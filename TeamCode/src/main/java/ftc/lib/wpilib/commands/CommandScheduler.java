@@ -6,11 +6,15 @@ package ftc.lib.wpilib.commands;
 import static edu.wpi.first.util.ErrorMessages.requireNonNullParam;
 import static ftc.lib.wpilib.commands.Command.InterruptionBehavior;
 
+import ftc.lib.trobotix.Telemetry;
+import ftc.lib.trobotix.Utils;
 import ftc.lib.wpilib.event.EventLoop;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -22,6 +26,8 @@ import java.util.Set;
 import java.util.WeakHashMap;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 /**
  * The scheduler responsible for running {@link Command}s. A Command-based robot should call {@link
@@ -50,7 +56,14 @@ public final class CommandScheduler {
 
   private static final Optional<Command> kNoInterruptor = Optional.empty();
 
+  // Cached to avoid allocating a new array from Priority.values() every loop.
+  private static final Command.Priority[] kPriorities = Command.Priority.values();
+
   private final Map<Command, Exception> m_composedCommands = new WeakHashMap<>();
+  // Whether composing commands captures a full stack trace. Stack walking is expensive on the
+  // Control Hub, so by default only a composition id and the composing class are recorded.
+  private boolean m_traceCompositions;
+  private int m_compositionCount;
 
   // A set of the currently-running commands.
   private final Set<Command> m_scheduledCommands = new LinkedHashSet<>();
@@ -63,12 +76,28 @@ public final class CommandScheduler {
   // as a list of currently-registered subsystems.
   private final Map<Subsystem, Command> m_subsystems = new LinkedHashMap<>();
 
+  // A map from registered subsystems to when their periodic methods should run.
+  private final Map<Subsystem, SubsystemTiming> m_subsystemTimings = new HashMap<>();
+  // How many subsystems have been given a period, used to stagger their phases.
+  private int m_periodicSubsystemCount;
+  private static final double kRateReportPeriod = 1;
+  private double m_lastRateReportTime = -1;
+
   private final EventLoop m_defaultButtonLoop = new EventLoop();
   // The set of currently-registered buttons that will be polled every iteration.
   private EventLoop m_activeButtonLoop = m_defaultButtonLoop;
 
   private boolean m_disabled;
 
+  // How long commands may spend executing each loop. Non-positive means unlimited.
+  private double m_executionBudgetSeconds;
+  private long m_skippedExecutions;
+  private long m_deferredExecutions;
+  private boolean m_reportExecutionStats;
+
+  // Actions to be executed at the start of every run, before anything else.
+  private final List<Runnable> m_runStartActions = new ArrayList<>();
+
   // Lists of user-supplied actions to be executed on scheduling events for every command.
   private final List<Consumer<Command>> m_initActions = new ArrayList<>();
   private final List<Consumer<Command>> m_executeActions = new ArrayList<>();
@@ -119,6 +148,9 @@ public final class CommandScheduler {
    */
   private void initCommand(Command command, Set<Subsystem> requirements) {
     m_scheduledCommands.add(command);
+    // Make sure the command is executed on the first loop after it's scheduled.
+    command.m_loopsSinceExecution = command.getExecutionPeriod() - 1;
+    command.m_deferred = false;
     for (Subsystem requirement : requirements) {
       m_requirements.put(requirement, command);
     }
@@ -194,11 +226,16 @@ public final class CommandScheduler {
   /**
    * Runs a single iteration of the scheduler. The execution occurs in the following order:
    *
+   * <p>Actions added with {@link #onRunStart(Runnable)} are run.
+   *
    * <p>Subsystem periodic methods are called.
    *
    * <p>Button bindings are polled, and new commands are scheduled from them.
    *
-   * <p>Currently-scheduled commands are executed.
+   * <p>Currently-scheduled commands are executed, in order of {@link Command.Priority priority}.
+   * Commands are skipped on loops outside their {@link Command#getExecutionPeriod() execution
+   * period}, and non-critical commands are deferred once the {@link #setExecutionBudget(double)
+   * execution budget} is used up.
    *
    * <p>End conditions are checked on currently-scheduled commands, and commands that are finished
    * have their end methods called and are removed.
@@ -210,9 +247,24 @@ public final class CommandScheduler {
       return;
     }
 
-    // Run the periodic method of all registered subsystems.
+    for (int i = 0; i < m_runStartActions.size(); i++) {
+      m_runStartActions.get(i).run();
+    }
+
+    // Run the periodic method of all registered subsystems that are due.
+    double currentTime = Utils.getTimeSeconds();
     for (Subsystem subsystem : m_subsystems.keySet()) {
-      subsystem.periodic();
+      SubsystemTiming timing = m_subsystemTimings.get(subsystem);
+      if (timing == null) {
+        timing = new SubsystemTiming(0, currentTime);
+        m_subsystemTimings.put(subsystem, timing);
+      }
+      if (timing.isDue(currentTime)) {
+        subsystem.periodic();
+      }
+    }
+    if (currentTime - m_lastRateReportTime >= kRateReportPeriod) {
+      reportSubsystemRates(currentTime);
     }
 
     // Cache the active instance to avoid concurrency problems if setActiveLoop() is called from
@@ -222,28 +274,64 @@ public final class CommandScheduler {
     loopCache.poll();
 
     m_inRunLoop = true;
-    // Run scheduled commands, remove finished commands.
-    for (Iterator<Command> iterator = m_scheduledCommands.iterator(); iterator.hasNext(); ) {
-      Command command = iterator.next();
+    // Run scheduled commands, remove finished commands. Commands are run in priority order;
+    // critical commands always run, the rest only while there's time left in the budget.
+    boolean budgeted = m_executionBudgetSeconds > 0;
+    double budgetEndTime = budgeted ? Utils.getTimeSeconds() + m_executionBudgetSeconds : 0;
+    int skipped = 0;
+    int deferred = 0;
+    for (Command.Priority priority : kPriorities) {
+      for (Iterator<Command> iterator = m_scheduledCommands.iterator(); iterator.hasNext(); ) {
+        Command command = iterator.next();
+        if (command.getPriority() != priority) {
+          continue;
+        }
 
-      command.execute();
-      for (Consumer<Command> action : m_executeActions) {
-        action.accept(command);
-      }
-      if (command.isFinished()) {
-        m_endingCommands.add(command);
-        command.end(false);
-        for (Consumer<Command> action : m_finishActions) {
-          action.accept(command);
+        if (++command.m_loopsSinceExecution < command.getExecutionPeriod()) {
+          skipped++;
+          continue;
+        }
+        // A command deferred last loop is exempt from the budget, so it can't be starved forever.
+        if (budgeted
+            && priority != Command.Priority.kCritical
+            && !command.m_deferred
+            && Utils.getTimeSeconds() > budgetEndTime) {
+          command.m_deferred = true;
+          deferred++;
+          continue;
         }
-        m_endingCommands.remove(command);
-        iterator.remove();
+        command.m_loopsSinceExecution = 0;
+        command.m_deferred = false;
 
-        m_requirements.keySet().removeAll(command.getRequirements());
+        command.execute();
+        for (Consumer<Command> action : m_executeActions) {
+          action.accept(command);
+        }
+        if (command.isFinished()) {
+          m_endingCommands.add(command);
+          command.end(false);
+          for (Consumer<Command> action : m_finishActions) {
+            action.accept(command);
+          }
+          m_endingCommands.remove(command);
+          iterator.remove();
+
+          m_requirements.keySet().removeAll(command.getRequirements());
+        }
       }
     }
     m_inRunLoop = false;
 
+    m_skippedExecutions += skipped;
+    m_deferredExecutions += deferred;
+    if (skipped > 0 || deferred > 0) {
+      m_reportExecutionStats = true;
+    }
+    if (m_reportExecutionStats) {
+      Telemetry.put("CommandScheduler/Skipped Executions", skipped);
+      Telemetry.put("CommandScheduler/Deferred Executions", deferred);
+    }
+
     // Schedule/cancel commands from queues populated during loop
     for (Command command : m_toSchedule) {
       schedule(command);
@@ -286,6 +374,45 @@ public final class CommandScheduler {
     }
   }
 
+  /**
+   * Registers a subsystem with the scheduler, with its periodic block being run at a target period
+   * instead of every time the scheduler is run. If the subsystem is already registered, its period
+   * is updated.
+   *
+   * <p>Subsystems with a period have their phases staggered, so that slower subsystems don't all
+   * run their periodic blocks in the same loop.
+   *
+   * @param subsystem the subsystem to register
+   * @param periodSeconds how often the subsystem's periodic block should run. Non-positive values
+   *     run it every time the scheduler is run.
+   */
+  public void registerSubsystem(Subsystem subsystem, double periodSeconds) {
+    if (subsystem == null) {
+      return;
+    }
+    registerSubsystem(subsystem);
+
+    double phase = 0;
+    if (periodSeconds > 0) {
+      // Golden ratio sequence, so phases stay spread out no matter how many subsystems there are.
+      phase = (m_periodicSubsystemCount++ * 0.6180339887498949) % 1 * periodSeconds;
+    }
+    m_subsystemTimings.put(
+        subsystem, new SubsystemTiming(periodSeconds, Utils.getTimeSeconds() + phase));
+  }
+
+  /**
+   * Gets the measured rate a subsystem's periodic block is being run at, averaged over the last
+   * second.
+   *
+   * @param subsystem the subsystem to inquire about
+   * @return the rate in Hz, or 0 if the subsystem isn't registered or hasn't been measured yet
+   */
+  public double getSubsystemRate(Subsystem subsystem) {
+    SubsystemTiming timing = m_subsystemTimings.get(subsystem);
+    return timing != null ? timing.m_measuredRate : 0;
+  }
+
   /**
    * Un-registers subsystems with the scheduler. The subsystem will no longer have its periodic
    * block called, and will not have its default command scheduled.
@@ -294,6 +421,7 @@ public final class CommandScheduler {
    */
   public void unregisterSubsystem(Subsystem... subsystems) {
     m_subsystems.keySet().removeAll(new HashSet<Subsystem>(Arrays.asList(subsystems)));
+    m_subsystemTimings.keySet().removeAll(new HashSet<Subsystem>(Arrays.asList(subsystems)));
   }
 
   /**
@@ -303,6 +431,25 @@ public final class CommandScheduler {
    */
   public void unregisterAllSubsystems() {
     m_subsystems.clear();
+    m_subsystemTimings.clear();
+  }
+
+  /** Publishes the measured periodic rate of every registered subsystem. */
+  private void reportSubsystemRates(double currentTime) {
+    // The first call only starts the measurement window.
+    boolean measured = m_lastRateReportTime >= 0;
+    double elapsed = currentTime - m_lastRateReportTime;
+    for (Map.Entry<Subsystem, SubsystemTiming> entry : m_subsystemTimings.entrySet()) {
+      SubsystemTiming timing = entry.getValue();
+      if (measured) {
+        timing.m_measuredRate = timing.m_runsSinceReport / elapsed;
+        Telemetry.put(
+            "CommandScheduler/Subsystem Rates/" + entry.getKey().getName(),
+            timing.m_measuredRate);
+      }
+      timing.m_runsSinceReport = 0;
+    }
+    m_lastRateReportTime = currentTime;
   }
 
   /**
@@ -449,6 +596,44 @@ public final class CommandScheduler {
     return m_requirements.get(subsystem);
   }
 
+  /**
+   * Sets how long commands may spend executing each loop. Once the budget is used up, the remaining
+   * non-critical commands are deferred to the next loop. {@link Command.Priority#kCritical
+   * Critical} commands count towards the budget, but are always executed.
+   *
+   * <p>A command that was deferred is guaranteed to be executed on the next loop, so the budget may
+   * be exceeded when the loop is heavily overloaded.
+   *
+   * @param seconds the execution budget. Non-positive values disable the budget, which is the
+   *     default.
+   */
+  public void setExecutionBudget(double seconds) {
+    m_executionBudgetSeconds = seconds;
+    if (seconds > 0) {
+      m_reportExecutionStats = true;
+    }
+  }
+
+  /**
+   * Gets the total number of command executions skipped because of a command's {@link
+   * Command#getExecutionPeriod() execution period}.
+   *
+   * @return the number of skipped executions
+   */
+  public long getSkippedExecutions() {
+    return m_skippedExecutions;
+  }
+
+  /**
+   * Gets the total number of command executions deferred to a later loop because the {@link
+   * #setExecutionBudget(double) execution budget} was used up.
+   *
+   * @return the number of deferred executions
+   */
+  public long getDeferredExecutions() {
+    return m_deferredExecutions;
+  }
+
   /** Disables the command scheduler. */
   public void disable() {
     m_disabled = true;
@@ -459,6 +644,17 @@ public final class CommandScheduler {
     m_disabled = false;
   }
 
+  /**
+   * Adds an action to perform at the start of every scheduler run, before subsystem periodic
+   * methods are called. Useful for work that has to happen exactly once per loop, like clearing
+   * hardware caches.
+   *
+   * @param action the action to perform
+   */
+  public void onRunStart(Runnable action) {
+    m_runStartActions.add(requireNonNullParam(action, "action", "onRunStart"));
+  }
+
   /**
    * Adds an action to perform on the initialization of any command by the scheduler.
    *
@@ -508,6 +704,20 @@ public final class CommandScheduler {
     m_finishActions.add(requireNonNullParam(action, "action", "onCommandFinish"));
   }
 
+  /**
+   * Sets whether command compositions capture a full stack trace of where they were composed.
+   *
+   * <p>Capturing the stack trace makes errors about reusing a composed command point straight at
+   * the offending line, but walking the stack on every composition adds up quickly when building
+   * large autos. When disabled (the default), only a composition id and the class that did the
+   * composing are recorded.
+   *
+   * @param enabled whether to capture full stack traces for compositions
+   */
+  public void setCompositionTracing(boolean enabled) {
+    m_traceCompositions = enabled;
+  }
+
   /**
    * Register commands as composed. An exception will be thrown if these commands are scheduled
    * directly or added to a composition.
@@ -527,8 +737,9 @@ public final class CommandScheduler {
               + ")");
     }
     requireNotComposedOrScheduled(commandSet);
-    Exception exception = new Exception("Originally composed at:");
-    exception.fillInStackTrace();
+    Exception exception =
+        new CompositionRecord(
+            ++m_compositionCount, CompositionRecord.findComposer(), m_traceCompositions);
     for (Command command : commands) {
       m_composedCommands.put(command, exception);
     }
@@ -626,4 +837,141 @@ public final class CommandScheduler {
   Set<Command> getComposedCommands() {
     return m_composedCommands.keySet();
   }
+
+  /**
+   * Records where a command was composed. Used as the cause of the exception thrown when a composed
+   * command is reused, so the message is only built if that actually happens.
+   */
+  private static final class CompositionRecord extends Exception {
+    private static final String kLibraryPackage = CommandScheduler.class.getPackage().getName();
+
+    // java.lang.StackWalker, which Android doesn't have, so it's found by reflection. Null if the
+    // runtime doesn't have it.
+    private static final Object kStackWalker;
+    private static final Method kWalk;
+    private static final Method kGetDeclaringClass;
+
+    // Walks the stack only as far as the first frame outside the command library
+    private static final Function<Stream<?>, Class<?>> kFindComposer =
+        frames ->
+            frames
+                .<Class<?>>map(CompositionRecord::getDeclaringClass)
+                .filter(frameClass -> !frameClass.getName().startsWith(kLibraryPackage))
+                .findFirst()
+                .orElse(null);
+
+    static {
+      Object walker = null;
+      Method walk = null;
+      Method getDeclaringClass = null;
+      try {
+        var walkerClass = Class.forName("java.lang.StackWalker");
+        var optionClass = Class.forName("java.lang.StackWalker$Option");
+        var retainClassReference = optionClass.getField("RETAIN_CLASS_REFERENCE").get(null);
+        walker =
+            walkerClass.getMethod("getInstance", optionClass).invoke(null, retainClassReference);
+        walk = walkerClass.getMethod("walk", Function.class);
+        getDeclaringClass =
+            Class.forName("java.lang.StackWalker$StackFrame").getMethod("getDeclaringClass");
+      } catch (ReflectiveOperationException e) {
+        walker = null;
+        walk = null;
+        getDeclaringClass = null;
+      }
+      kStackWalker = walker;
+      kWalk = walk;
+      kGetDeclaringClass = getDeclaringClass;
+    }
+
+    private final int m_id;
+    private final Class<?> m_composer;
+
+    /**
+     * Creates a record.
+     *
+     * @param id the composition id
+     * @param composer the class that did the composing, or null if it wasn't found
+     * @param captureStackTrace whether to capture a full stack trace. Always captured if the
+     *     composer couldn't be found without one, so the composer can be found from it if the
+     *     message is built.
+     */
+    CompositionRecord(int id, Class<?> composer, boolean captureStackTrace) {
+      super(null, null, false, captureStackTrace || (composer == null && kStackWalker == null));
+      m_id = id;
+      m_composer = composer;
+    }
+
+    /**
+     * Finds the first class outside the command library on the calling thread's stack, which is the
+     * code that did the composing. Only walks as many frames as it takes to find it, without
+     * capturing a stack trace.
+     *
+     * @return the class, or null if the runtime can't walk the stack without a stack trace, like on
+     *     the Control Hub
+     */
+    static Class<?> findComposer() {
+      if (kStackWalker == null) {
+        return null;
+      }
+      try {
+        return (Class<?>) kWalk.invoke(kStackWalker, kFindComposer);
+      } catch (ReflectiveOperationException e) {
+        return null;
+      }
+    }
+
+    private static Class<?> getDeclaringClass(Object frame) {
+      try {
+        return (Class<?>) kGetDeclaringClass.invoke(frame);
+      } catch (ReflectiveOperationException e) {
+        throw new IllegalStateException("Couldn't walk the stack", e);
+      }
+    }
+
+    @Override
+    public String getMessage() {
+      // The first frame outside the command library is the code that did the composing, and its
+      // line is more useful than just its class
+      for (StackTraceElement element : getStackTrace()) {
+        if (!element.getClassName().startsWith(kLibraryPackage)) {
+          return "Originally composed at: composition #" + m_id + " (" + element + ")";
+        }
+      }
+      if (m_composer != null) {
+        return "Originally composed at: composition #" + m_id + " (" + m_composer.getName() + ")";
+      }
+      return "Originally composed at: composition #" + m_id;
+    }
+  }
+
+  /** Tracks when a subsystem's periodic block should next run, and how often it's been run. */
+  private static final class SubsystemTiming {
+    private final double m_period;
+    private double m_nextRunTime;
+    private int m_runsSinceReport;
+    private double m_measuredRate;
+
+    SubsystemTiming(double period, double firstRunTime) {
+      m_period = period;
+      m_nextRunTime = firstRunTime;
+    }
+
+    /**
+     * Checks whether the periodic block is due to run, and if so schedules the next run.
+     *
+     * @param currentTime the current time in seconds
+     * @return whether the periodic block should be run now
+     */
+    boolean isDue(double currentTime) {
+      if (m_period > 0) {
+        if (currentTime < m_nextRunTime) {
+          return false;
+        }
+        // Skip any runs we've fallen behind on, while keeping the same phase.
+        m_nextRunTime += (Math.floor((currentTime - m_nextRunTime) / m_period) + 1) * m_period;
+      }
+      m_runsSinceReport++;
+      return true;
+    }
+  }
 }
@@ -90,6 +90,17 @@ public interface Subsystem {
     CommandScheduler.getInstance().registerSubsystem(this);
   }
 
+  /**
+   * Registers this subsystem with the {@link CommandScheduler}, allowing its {@link
+   * Subsystem#periodic()} method to be called at the given period when the scheduler runs.
+   *
+   * @param periodSeconds how often the periodic method should be called
+   * @see CommandScheduler#registerSubsystem(Subsystem, double)
+   */
+  default void register(double periodSeconds) {
+    CommandScheduler.getInstance().registerSubsystem(this, periodSeconds);
+  }
+
   /**
    * Constructs a command that runs an action once and finishes. Requires this subsystem.
    *
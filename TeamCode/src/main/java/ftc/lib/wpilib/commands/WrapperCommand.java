@@ -99,4 +99,14 @@ public abstract class WrapperCommand extends Command {
   public InterruptionBehavior getInterruptionBehavior() {
     return m_command.getInterruptionBehavior();
   }
+
+  @Override
+  public Priority getPriority() {
+    return m_command.getPriority();
+  }
+
+  @Override
+  public int getExecutionPeriod() {
+    return m_command.getExecutionPeriod();
+  }
 }
@@ -20,12 +20,20 @@ import java.util.function.BooleanSupplier;
  * <p>Triggers can easily be composed for advanced functionality using the {@link
  * #and(BooleanSupplier)}, {@link #or(BooleanSupplier)}, {@link #negate()} operators.
  *
+ * <p>While its loop is being polled, a trigger only evaluates its condition once per poll and
+ * reuses the result. Composing the same trigger into many others therefore doesn't re-evaluate it,
+ * which matters when the condition wraps an expensive sensor read.
+ *
  * <p>This class is provided by the NewCommands VendorDep
  */
 public class Trigger implements BooleanSupplier {
   private final BooleanSupplier m_condition;
   private final EventLoop m_loop;
 
+  // The condition's value during the poll of m_loop with the count m_cachedPollCount.
+  private long m_cachedPollCount = -1;
+  private boolean m_cachedValue;
+
   /**
    * Creates a new trigger based on the given condition.
    *
@@ -56,13 +64,28 @@ public class Trigger implements BooleanSupplier {
    */
   public Trigger onTrue(Command command) {
     requireNonNullParam(command, "command", "onTrue");
-    m_loop.bind(
+    bindOnTrue(command);
+    return this;
+  }
+
+  /**
+   * Starts the given command whenever the condition changes from `false` to `true`.
+   *
+   * <p>Like {@link #onTrue(Command)}, but returns the binding instead of this trigger, so it
+   * can be removed later.
+   *
+   * @param command the command to start
+   * @return the binding, which can be used to remove it
+   */
+  public EventLoop.Binding bindOnTrue(Command command) {
+    requireNonNullParam(command, "command", "bindOnTrue");
+    return m_loop.bind(
         new Runnable() {
-          private boolean m_pressedLast = m_condition.getAsBoolean();
+          private boolean m_pressedLast = getAsBoolean();
 
           @Override
           public void run() {
-            boolean pressed = m_condition.getAsBoolean();
+            boolean pressed = getAsBoolean();
 
             if (!m_pressedLast && pressed) {
               command.schedule();
@@ -71,7 +94,6 @@ public class Trigger implements BooleanSupplier {
             m_pressedLast = pressed;
           }
         });
-    return this;
   }
 
   /**
@@ -82,13 +104,28 @@ public class Trigger implements BooleanSupplier {
    */
   public Trigger onFalse(Command command) {
     requireNonNullParam(command, "command", "onFalse");
-    m_loop.bind(
+    bindOnFalse(command);
+    return this;
+  }
+
+  /**
+   * Starts the given command whenever the condition changes from `true` to `false`.
+   *
+   * <p>Like {@link #onFalse(Command)}, but returns the binding instead of this trigger, so it
+   * can be removed later.
+   *
+   * @param command the command to start
+   * @return the binding, which can be used to remove it
+   */
+  public EventLoop.Binding bindOnFalse(Command command) {
+    requireNonNullParam(command, "command", "bindOnFalse");
+    return m_loop.bind(
         new Runnable() {
-          private boolean m_pressedLast = m_condition.getAsBoolean();
+          private boolean m_pressedLast = getAsBoolean();
 
           @Override
           public void run() {
-            boolean pressed = m_condition.getAsBoolean();
+            boolean pressed = getAsBoolean();
 
             if (m_pressedLast && !pressed) {
               command.schedule();
@@ -97,7 +134,6 @@ public class Trigger implements BooleanSupplier {
             m_pressedLast = pressed;
           }
         });
-    return this;
   }
 
   /**
@@ -112,13 +148,29 @@ public class Trigger implements BooleanSupplier {
    */
   public Trigger whileTrue(Command command) {
     requireNonNullParam(command, "command", "whileTrue");
-    m_loop.bind(
+    bindWhileTrue(command);
+    return this;
+  }
+
+  /**
+   * Starts the given command when the condition changes to `true` and cancels it when the condition
+   * changes to `false`.
+   *
+   * <p>Like {@link #whileTrue(Command)}, but returns the binding instead of this trigger, so it
+   * can be removed later.
+   *
+   * @param command the command to start
+   * @return the binding, which can be used to remove it
+   */
+  public EventLoop.Binding bindWhileTrue(Command command) {
+    requireNonNullParam(command, "command", "bindWhileTrue");
+    return m_loop.bind(
         new Runnable() {
-          private boolean m_pressedLast = m_condition.getAsBoolean();
+          private boolean m_pressedLast = getAsBoolean();
 
           @Override
           public void run() {
-            boolean pressed = m_condition.getAsBoolean();
+            boolean pressed = getAsBoolean();
 
             if (!m_pressedLast && pressed) {
               command.schedule();
@@ -129,7 +181,6 @@ public class Trigger implements BooleanSupplier {
             m_pressedLast = pressed;
           }
         });
-    return this;
   }
 
   /**
@@ -144,13 +195,29 @@ public class Trigger implements BooleanSupplier {
    */
   public Trigger whileFalse(Command command) {
     requireNonNullParam(command, "command", "whileFalse");
-    m_loop.bind(
+    bindWhileFalse(command);
+    return this;
+  }
+
+  /**
+   * Starts the given command when the condition changes to `false` and cancels it when the
+   * condition changes to `true`.
+   *
+   * <p>Like {@link #whileFalse(Command)}, but returns the binding instead of this trigger, so it
+   * can be removed later.
+   *
+   * @param command the command to start
+   * @return the binding, which can be used to remove it
+   */
+  public EventLoop.Binding bindWhileFalse(Command command) {
+    requireNonNullParam(command, "command", "bindWhileFalse");
+    return m_loop.bind(
         new Runnable() {
-          private boolean m_pressedLast = m_condition.getAsBoolean();
+          private boolean m_pressedLast = getAsBoolean();
 
           @Override
           public void run() {
-            boolean pressed = m_condition.getAsBoolean();
+            boolean pressed = getAsBoolean();
 
             if (m_pressedLast && !pressed) {
               command.schedule();
@@ -161,7 +228,6 @@ public class Trigger implements BooleanSupplier {
             m_pressedLast = pressed;
           }
         });
-    return this;
   }
 
   /**
@@ -172,13 +238,28 @@ public class Trigger implements BooleanSupplier {
    */
   public Trigger toggleOnTrue(Command command) {
     requireNonNullParam(command, "command", "toggleOnTrue");
-    m_loop.bind(
+    bindToggleOnTrue(command);
+    return this;
+  }
+
+  /**
+   * Toggles a command when the condition changes from `false` to `true`.
+   *
+   * <p>Like {@link #toggleOnTrue(Command)}, but returns the binding instead of this trigger, so it
+   * can be removed later.
+   *
+   * @param command the command to toggle
+   * @return the binding, which can be used to remove it
+   */
+  public EventLoop.Binding bindToggleOnTrue(Command command) {
+    requireNonNullParam(command, "command", "bindToggleOnTrue");
+    return m_loop.bind(
         new Runnable() {
-          private boolean m_pressedLast = m_condition.getAsBoolean();
+          private boolean m_pressedLast = getAsBoolean();
 
           @Override
           public void run() {
-            boolean pressed = m_condition.getAsBoolean();
+            boolean pressed = getAsBoolean();
 
             if (!m_pressedLast && pressed) {
               if (command.isScheduled()) {
@@ -191,7 +272,6 @@ public class Trigger implements BooleanSupplier {
             m_pressedLast = pressed;
           }
         });
-    return this;
   }
 
   /**
@@ -202,13 +282,28 @@ public class Trigger implements BooleanSupplier {
    */
   public Trigger toggleOnFalse(Command command) {
     requireNonNullParam(command, "command", "toggleOnFalse");
-    m_loop.bind(
+    bindToggleOnFalse(command);
+    return this;
+  }
+
+  /**
+   * Toggles a command when the condition changes from `true` to `false`.
+   *
+   * <p>Like {@link #toggleOnFalse(Command)}, but returns the binding instead of this trigger, so it
+   * can be removed later.
+   *
+   * @param command the command to toggle
+   * @return the binding, which can be used to remove it
+   */
+  public EventLoop.Binding bindToggleOnFalse(Command command) {
+    requireNonNullParam(command, "command", "bindToggleOnFalse");
+    return m_loop.bind(
         new Runnable() {
-          private boolean m_pressedLast = m_condition.getAsBoolean();
+          private boolean m_pressedLast = getAsBoolean();
 
           @Override
           public void run() {
-            boolean pressed = m_condition.getAsBoolean();
+            boolean pressed = getAsBoolean();
 
             if (m_pressedLast && !pressed) {
               if (command.isScheduled()) {
@@ -221,12 +316,19 @@ public class Trigger implements BooleanSupplier {
             m_pressedLast = pressed;
           }
         });
-    return this;
   }
 
   @Override
   public boolean getAsBoolean() {
-    return m_condition.getAsBoolean();
+    if (!m_loop.isPolling()) {
+      return m_condition.getAsBoolean();
+    }
+    long pollCount = m_loop.getPollCount();
+    if (pollCount != m_cachedPollCount) {
+      m_cachedValue = m_condition.getAsBoolean();
+      m_cachedPollCount = pollCount;
+    }
+    return m_cachedValue;
   }
 
   /**
@@ -236,7 +338,7 @@ public class Trigger implements BooleanSupplier {
    * @return A trigger which is active when both component triggers are active.
    */
   public Trigger and(BooleanSupplier trigger) {
-    return new Trigger(() -> m_condition.getAsBoolean() && trigger.getAsBoolean());
+    return new Trigger(m_loop, () -> getAsBoolean() && trigger.getAsBoolean());
   }
 
   /**
@@ -246,7 +348,7 @@ public class Trigger implements BooleanSupplier {
    * @return A trigger which is active when either component trigger is active.
    */
   public Trigger or(BooleanSupplier trigger) {
-    return new Trigger(() -> m_condition.getAsBoolean() || trigger.getAsBoolean());
+    return new Trigger(m_loop, () -> getAsBoolean() || trigger.getAsBoolean());
   }
 
   /**
@@ -256,7 +358,7 @@ public class Trigger implements BooleanSupplier {
    * @return the negated trigger
    */
   public Trigger negate() {
-    return new Trigger(() -> !m_condition.getAsBoolean());
+    return new Trigger(m_loop, () -> !getAsBoolean());
   }
 
   /**
@@ -280,12 +382,16 @@ public class Trigger implements BooleanSupplier {
    */
   public Trigger debounce(double seconds, Debouncer.DebounceType type) {
     return new Trigger(
+        m_loop,
         new BooleanSupplier() {
           final Debouncer m_debouncer = new Debouncer(seconds, type);
 
           @Override
           public boolean getAsBoolean() {
-            return m_debouncer.calculate(m_condition.getAsBoolean());
+            // Use the poll's timestamp so every debounce in the poll sees the same time.
+            return m_loop.isPolling()
+                ? m_debouncer.calculate(Trigger.this.getAsBoolean(), m_loop.getPollTimestamp())
+                : m_debouncer.calculate(Trigger.this.getAsBoolean());
           }
         });
   }
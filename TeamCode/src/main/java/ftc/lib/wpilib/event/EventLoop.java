@@ -3,47 +3,165 @@
 
 package ftc.lib.wpilib.event;
 
-import java.util.Collection;
-import java.util.ConcurrentModificationException;
+import ftc.lib.trobotix.Utils;
+import java.util.Arrays;
 import java.util.LinkedHashSet;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * A declarative way to bind a set of actions to a loop and execute them when the loop is polled.
+ *
+ * <p>Bindings can be added and removed from any thread, including from inside a binding while the
+ * loop is being polled. Changes are queued and applied at the start of the next poll, so a poll
+ * always runs a consistent set of bindings.
  */
 public final class EventLoop {
-  private final Collection<Runnable> m_bindings = new LinkedHashSet<>();
-  private boolean m_running;
+  private static final Runnable[] kNoBindings = new Runnable[0];
+
+  // The bindings run by poll(). This array is replaced rather than modified, so polling doesn't
+  // need to lock anything.
+  private volatile Runnable[] m_bindings = kNoBindings;
+  // Binding changes waiting to be applied at the start of the next poll, in the order they were
+  // requested.
+  private final Queue<PendingChange> m_pendingChanges = new ConcurrentLinkedQueue<>();
+
+  private volatile boolean m_running;
+  private long m_pollCount;
+  private double m_pollTimestamp;
 
   /** Default constructor. */
   public EventLoop() {}
 
   /**
-   * Bind a new action to run when the loop is polled.
+   * Bind a new action to run when the loop is polled. Binding an action that's already bound does
+   * nothing.
+   *
+   * <p>The action will start running on the next poll.
    *
    * @param action the action to run.
+   * @return the binding, which can be used to unbind the action later.
    */
-  public void bind(Runnable action) {
-    if (m_running) {
-      throw new ConcurrentModificationException("Cannot bind EventLoop while it is running");
-    }
-    m_bindings.add(action);
+  public Binding bind(Runnable action) {
+    m_pendingChanges.add(new PendingChange(action, true));
+    return new Binding(this, action);
+  }
+
+  /**
+   * Unbind an action so it no longer runs when the loop is polled. Unbinding an action that isn't
+   * bound does nothing.
+   *
+   * <p>The action will stop running from the next poll on.
+   *
+   * @param action the action to remove.
+   */
+  public void unbind(Runnable action) {
+    m_pendingChanges.add(new PendingChange(action, false));
   }
 
   /** Poll all bindings. */
   public void poll() {
+    applyPendingChanges();
     try {
       m_running = true;
-      m_bindings.forEach(Runnable::run);
+      m_pollCount++;
+      m_pollTimestamp = Utils.getTimeSeconds();
+      for (Runnable binding : m_bindings) {
+        binding.run();
+      }
     } finally {
       m_running = false;
     }
   }
 
-  /** Clear all bindings. */
+  /**
+   * Clear all bindings.
+   *
+   * <p>Bindings will stop running from the next poll on.
+   */
   public void clear() {
-    if (m_running) {
-      throw new ConcurrentModificationException("Cannot clear EventLoop while it is running");
+    m_pendingChanges.add(PendingChange.kClear);
+  }
+
+  /** Applies queued binding changes by building a new bindings array. */
+  private synchronized void applyPendingChanges() {
+    if (m_pendingChanges.isEmpty()) {
+      return;
+    }
+    var bindings = new LinkedHashSet<>(Arrays.asList(m_bindings));
+    PendingChange change;
+    while ((change = m_pendingChanges.poll()) != null) {
+      if (change == PendingChange.kClear) {
+        bindings.clear();
+      } else if (change.add) {
+        bindings.add(change.action);
+      } else {
+        bindings.remove(change.action);
+      }
+    }
+    m_bindings = bindings.toArray(kNoBindings);
+  }
+
+  /**
+   * Whether the loop is currently polling its bindings.
+   *
+   * @return true if called from inside a binding while the loop is polled
+   */
+  public boolean isPolling() {
+    return m_running;
+  }
+
+  /**
+   * Gets the number of times this loop has been polled. Values computed during a poll can be
+   * memoized against this, so they're only computed once per poll.
+   *
+   * @return the poll count
+   */
+  public long getPollCount() {
+    return m_pollCount;
+  }
+
+  /**
+   * Gets the time the current (or most recent) poll started. Shared by all bindings, so that time
+   * dependent conditions see a consistent timestamp for the whole poll.
+   *
+   * @return the timestamp, in seconds
+   */
+  public double getPollTimestamp() {
+    return m_pollTimestamp;
+  }
+
+  /**
+   * An action bound to a loop. Lets bindings be removed without holding on to the action, like for
+   * the bindings a {@link ftc.lib.wpilib.commands.button.Trigger} creates.
+   */
+  public static final class Binding {
+    private final EventLoop m_loop;
+    private final Runnable m_action;
+
+    private Binding(EventLoop loop, Runnable action) {
+      m_loop = loop;
+      m_action = action;
+    }
+
+    /**
+     * Unbinds the action, so it no longer runs when the loop is polled. Safe to call from any
+     * thread, and more than once.
+     *
+     * <p>The action will stop running from the next poll on.
+     */
+    public void unbind() {
+      m_loop.unbind(m_action);
     }
-    m_bindings.clear();
+  }
+
+  /**
+   * A queued change to the bindings.
+   *
+   * @param action The action to add or remove.
+   * @param add Whether the action is being added or removed.
+   */
+  private record PendingChange(Runnable action, boolean add) {
+    static final PendingChange kClear = new PendingChange(null, false);
   }
 }
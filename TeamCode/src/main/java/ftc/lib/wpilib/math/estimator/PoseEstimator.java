@@ -3,24 +3,21 @@
 
 package ftc.lib.wpilib.math.estimator;
 
+import ftc.lib.trobotix.Telemetry;
 import ftc.lib.trobotix.Utils;
 import ftc.lib.wpilib.math.Matrix;
 import ftc.lib.wpilib.math.Nat;
-import ftc.lib.wpilib.math.VecBuilder;
 import ftc.lib.wpilib.math.geometry.Pose2d;
 import ftc.lib.wpilib.math.geometry.Rotation2d;
 import ftc.lib.wpilib.math.geometry.Twist2d;
-import ftc.lib.wpilib.math.interpolation.Interpolatable;
-import ftc.lib.wpilib.math.interpolation.TimeInterpolatableBuffer;
 import ftc.lib.wpilib.math.kinematics.Kinematics;
 import ftc.lib.wpilib.math.kinematics.Odometry;
 import ftc.lib.wpilib.math.kinematics.WheelPositions;
 import ftc.lib.wpilib.math.numbers.N1;
 import ftc.lib.wpilib.math.numbers.N3;
-import java.util.Map;
-import java.util.NoSuchElementException;
-import java.util.Objects;
-import java.util.Optional;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
 
 /**
  * This class wraps {@link Odometry} to fuse latency-compensated vision measurements with encoder
@@ -37,14 +34,30 @@ import java.util.Optional;
  * @param <T> Wheel positions type.
  */
 public class PoseEstimator<T extends WheelPositions<T>> {
-  private final Kinematics<?, T> m_kinematics;
   private final Odometry<T> m_odometry;
   private final Matrix<N3, N1> m_q = new Matrix<>(Nat.N3(), Nat.N1());
   private final Matrix<N3, N3> m_visionK = new Matrix<>(Nat.N3(), Nat.N3());
+  private final Matrix<N3, N3> m_measurementK = new Matrix<>(Nat.N3(), Nat.N3());
+  private final double[] m_visionVariances = new double[3];
+  private final double[] m_measurementVariances = new double[3];
+
+  private double m_gateThreshold = Double.POSITIVE_INFINITY;
+  private int m_acceptedMeasurements;
+  private int m_rejectedMeasurements;
+  private boolean m_publishTelemetry = true;
+  private final String m_acceptedKey;
+  private final String m_rejectedKey;
 
   private static final double kBufferDuration = 1.5;
-  private final TimeInterpolatableBuffer<InterpolationRecord> m_poseBuffer =
-      TimeInterpolatableBuffer.createBuffer(kBufferDuration);
+  private static final double kVelocityWindow = 0.05;
+  private final PoseHistory<T> m_poseBuffer;
+  // Whether odometry's previous wheel positions are the newest sample's, so odometry's twist is the
+  // same twist a replay would use.
+  private boolean m_odometryMatchesNewest = true;
+  // Where the replay after the last vision correction starts from
+  private int m_replayStartIndex;
+  private Pose2d m_replayStartPose;
+  private final Twist2d m_scaledTwist = new Twist2d();
 
   /**
    * Constructs a PoseEstimator.
@@ -63,13 +76,17 @@ public class PoseEstimator<T extends WheelPositions<T>> {
       Odometry<T> odometry,
       Matrix<N3, N1> stateStdDevs,
       Matrix<N3, N1> visionMeasurementStdDevs) {
-    m_kinematics = kinematics;
     m_odometry = odometry;
+    m_poseBuffer = new PoseHistory<>(kinematics, kBufferDuration);
 
     for (int i = 0; i < 3; ++i) {
       m_q.set(i, 0, stateStdDevs.get(i, 0) * stateStdDevs.get(i, 0));
     }
     setVisionMeasurementStdDevs(visionMeasurementStdDevs);
+
+    String name = getClass().getSimpleName();
+    m_acceptedKey = name + "/Accepted Vision Measurements";
+    m_rejectedKey = name + "/Rejected Vision Measurements";
   }
 
   /**
@@ -82,7 +99,64 @@ public class PoseEstimator<T extends WheelPositions<T>> {
    *     theta]ᵀ, with units in meters and radians.
    */
   public final void setVisionMeasurementStdDevs(Matrix<N3, N1> visionMeasurementStdDevs) {
-    double[] r = new double[3];
+    calculateVisionK(visionMeasurementStdDevs, m_visionK, m_visionVariances);
+  }
+
+  /**
+   * Sets how unlikely a vision measurement can be before it's rejected. A measurement is rejected
+   * if its squared Mahalanobis distance from the estimated pose at its timestamp is above the
+   * threshold, using both the state and the vision measurement standard deviations. Rejected
+   * measurements are dropped before odometry is replayed, so they're cheap.
+   *
+   * <p>If the standard deviations are accurate, the squared distance has a chi-square distribution
+   * with 3 degrees of freedom. For example, a threshold of 11.34 only rejects 1% of good
+   * measurements. Defaults to infinity, which accepts every measurement.
+   *
+   * @param chiSquaredThreshold The largest squared Mahalanobis distance that's accepted.
+   */
+  public void setVisionGateThreshold(double chiSquaredThreshold) {
+    m_gateThreshold = chiSquaredThreshold;
+  }
+
+  /**
+   * Gets how many vision measurements have passed the gate. See {@link
+   * PoseEstimator#setVisionGateThreshold(double)}.
+   *
+   * @return The number of accepted vision measurements.
+   */
+  public int getAcceptedVisionMeasurements() {
+    return m_acceptedMeasurements;
+  }
+
+  /**
+   * Gets how many vision measurements have been rejected by the gate. See {@link
+   * PoseEstimator#setVisionGateThreshold(double)}.
+   *
+   * @return The number of rejected vision measurements.
+   */
+  public int getRejectedVisionMeasurements() {
+    return m_rejectedMeasurements;
+  }
+
+  /**
+   * Sets whether the gate's counters are published to {@link Telemetry}. Estimators that aren't
+   * the robot's, like ones being replayed, can turn it off so they don't publish over its keys.
+   *
+   * @param publishTelemetry Whether to publish the counters. Defaults to true.
+   */
+  public void setPublishTelemetry(boolean publishTelemetry) {
+    m_publishTelemetry = publishTelemetry;
+  }
+
+  /**
+   * Calculates the Kalman gain for vision measurements with the given standard deviations.
+   *
+   * @param visionMeasurementStdDevs Standard deviations of the vision measurements.
+   * @param visionK The matrix to write the gain to.
+   * @param r The array to write the variances of the vision measurements to.
+   */
+  private void calculateVisionK(
+      Matrix<N3, N1> visionMeasurementStdDevs, Matrix<N3, N3> visionK, double[] r) {
     for (int i = 0; i < 3; ++i) {
       r[i] = visionMeasurementStdDevs.get(i, 0) * visionMeasurementStdDevs.get(i, 0);
     }
@@ -91,9 +165,9 @@ public class PoseEstimator<T extends WheelPositions<T>> {
     // and C = I. See wpimath/algorithms.md.
     for (int row = 0; row < 3; ++row) {
       if (m_q.get(row, 0) == 0.0) {
-        m_visionK.set(row, row, 0.0);
+        visionK.set(row, row, 0.0);
       } else {
-        m_visionK.set(
+        visionK.set(
             row, row, m_q.get(row, 0) / (m_q.get(row, 0) + Math.sqrt(m_q.get(row, 0) * r[row])));
       }
     }
@@ -113,6 +187,7 @@ public class PoseEstimator<T extends WheelPositions<T>> {
     // Reset state estimate and error covariance
     m_odometry.resetPosition(gyroAngle, wheelPositions, poseMeters);
     m_poseBuffer.clear();
+    m_odometryMatchesNewest = true;
   }
 
   /**
@@ -124,6 +199,28 @@ public class PoseEstimator<T extends WheelPositions<T>> {
     return m_odometry.getPoseMeters();
   }
 
+  /**
+   * Predicts the robot's pose at a time after the last update, by continuing along the arc it's
+   * been driving. Control commands can use this to act on where the robot will be when their
+   * output takes effect, instead of where it was.
+   *
+   * <p>The velocity is measured from the odometry of the last 50 ms of updates, so vision
+   * measurements don't affect it.
+   *
+   * @param futureTimeSeconds The time to predict the pose at, in the same timebase as {@link
+   *     PoseEstimator#updateWithTime}. Seconds.
+   * @return The predicted pose in meters.
+   */
+  public Pose2d getPredictedPose(double futureTimeSeconds) {
+    if (m_poseBuffer.isEmpty()) {
+      return getEstimatedPosition();
+    }
+    double dt = futureTimeSeconds - m_poseBuffer.getNewestTimestamp();
+    Twist2d velocity = m_poseBuffer.getVelocity(kVelocityWindow);
+    return getEstimatedPosition()
+        .exp(new Twist2d(velocity.dx * dt, velocity.dy * dt, velocity.dtheta * dt));
+  }
+
   /**
    * Adds a vision measurement to the Kalman Filter. This will correct the odometry pose estimate
    * while still accounting for measurement noise.
@@ -140,53 +237,183 @@ public class PoseEstimator<T extends WheelPositions<T>> {
    */
   public void addVisionMeasurement(Pose2d visionRobotPoseMeters, double timestampSeconds) {
     // Step 0: If this measurement is old enough to be outside the pose buffer's timespan, skip.
-    try {
-      if (m_poseBuffer.getInternalBuffer().lastKey() - kBufferDuration > timestampSeconds) {
-        return;
-      }
-    } catch (NoSuchElementException ex) {
+    if (isTooOld(timestampSeconds)) {
       return;
     }
 
-    // Step 1: Get the pose odometry measured at the moment the vision measurement was made.
-    Optional<InterpolationRecord> sample = m_poseBuffer.getSample(timestampSeconds);
-
-    if (!sample.isPresent()) {
+    // Steps 1-6: Reset odometry to the corrected pose at the measurement's timestamp.
+    int index =
+        correctOdometry(visionRobotPoseMeters, timestampSeconds, m_visionK, m_visionVariances);
+    if (index < 0) {
       return;
     }
 
-    // Step 2: Measure the twist between the odometry pose and the vision pose.
-    Twist2d twist = sample.get().poseMeters.log(visionRobotPoseMeters);
+    // Step 7: Replay odometry inputs between sample time and latest recorded sample to update the
+    // pose buffer and correct odometry.
+    replayOdometry(index, m_poseBuffer.size());
+    restoreOdometry();
+  }
+
+  /**
+   * Adds multiple vision measurements to the Kalman Filter, such as every camera's measurement
+   * from the same frame. This gives the same result as adding them one at a time, oldest first,
+   * but odometry is only replayed once.
+   *
+   * <p>See {@link PoseEstimator#addVisionMeasurement(Pose2d, double)}.
+   *
+   * @param measurements The vision measurements, in any order.
+   */
+  public void addVisionMeasurements(List<Measurement> measurements) {
+    Measurement[] sorted = measurements.toArray(new Measurement[0]);
+    Arrays.sort(sorted, Comparator.comparingDouble(Measurement::timestampSeconds));
+
+    // The index the pose buffer has been replayed up to since the last correction, or -1 if
+    // nothing has been corrected
+    int replayedIndex = -1;
+    for (Measurement measurement : sorted) {
+      double timestampSeconds = measurement.timestampSeconds();
+      // Only a prefix of the measurements can be skipped, since the rest are newer.
+      if (isTooOld(timestampSeconds)) {
+        continue;
+      }
+
+      // Only replay the last correction up to this measurement, since this measurement samples
+      // the pose from there, and replays the rest if it's accepted.
+      if (replayedIndex >= 0) {
+        int endIndex = m_poseBuffer.ceilingIndex(timestampSeconds);
+        // This measurement samples the pose directly if its timestamp matches
+        if (endIndex < m_poseBuffer.size()
+            && m_poseBuffer.getTimestamp(endIndex) == timestampSeconds) {
+          endIndex++;
+        }
+        replayOdometry(replayedIndex, endIndex);
+        replayedIndex = endIndex;
+      }
+
+      Matrix<N3, N3> visionK = m_visionK;
+      double[] visionVariances = m_visionVariances;
+      if (measurement.stdDevs() != null) {
+        calculateVisionK(measurement.stdDevs(), m_measurementK, m_measurementVariances);
+        visionK = m_measurementK;
+        visionVariances = m_measurementVariances;
+      }
+      int index =
+          correctOdometry(measurement.poseMeters(), timestampSeconds, visionK, visionVariances);
+      if (index >= 0) {
+        replayedIndex = index;
+      }
+    }
+    if (replayedIndex >= 0) {
+      replayOdometry(replayedIndex, m_poseBuffer.size());
+      restoreOdometry();
+    }
+  }
+
+  private boolean isTooOld(double timestampSeconds) {
+    return m_poseBuffer.isEmpty()
+        || m_poseBuffer.getNewestTimestamp() - kBufferDuration > timestampSeconds;
+  }
+
+  /**
+   * Resets odometry to the vision corrected pose at a vision measurement's timestamp, and records
+   * it in the pose buffer. Steps 1-6 of adding a vision measurement.
+   *
+   * @return The index of the recorded sample, or -1 if the measurement was rejected.
+   */
+  private int correctOdometry(
+      Pose2d visionRobotPoseMeters,
+      double timestampSeconds,
+      Matrix<N3, N3> visionK,
+      double[] visionVariances) {
+    // Step 1: Get the pose odometry measured at the moment the vision measurement was made.
+    PoseHistory.Sample<T> sample = m_poseBuffer.sample(timestampSeconds);
+
+    // Step 2: Measure the twist between the odometry pose and the vision pose, and reject the
+    // measurement if it's too far off. Nothing has been changed yet.
+    Twist2d twist = sample.poseMeters().log(visionRobotPoseMeters);
+    if (!passesGate(twist, visionVariances)) {
+      return -1;
+    }
 
     // Step 3: We should not trust the twist entirely, so instead we scale this twist by a Kalman
     // gain matrix representing how much we trust vision measurements compared to our current pose.
-    Matrix<N3, N1> k_times_twist =
-        m_visionK.times(VecBuilder.fill(twist.dx, twist.dy, twist.dtheta));
-
-    // Step 4: Convert back to Twist2d.
-    Twist2d scaledTwist =
-        new Twist2d(k_times_twist.get(0, 0), k_times_twist.get(1, 0), k_times_twist.get(2, 0));
+    // The gain is diagonal, so it's applied per axis, straight into a reused Twist2d (step 4).
+    m_scaledTwist.dx = visionK.get(0, 0) * twist.dx;
+    m_scaledTwist.dy = visionK.get(1, 1) * twist.dy;
+    m_scaledTwist.dtheta = visionK.get(2, 2) * twist.dtheta;
 
     // Step 5: Reset Odometry to state at sample with vision adjustment.
-    m_odometry.resetPosition(
-        sample.get().gyroAngle,
-        sample.get().wheelPositions,
-        sample.get().poseMeters.exp(scaledTwist));
+    m_replayStartPose = sample.poseMeters().exp(m_scaledTwist);
+    m_odometry.resetPosition(sample.gyroAngle(), sample.wheelPositions(), m_replayStartPose);
 
     // Step 6: Record the current pose to allow multiple measurements from the same timestamp
-    m_poseBuffer.addSample(
-        timestampSeconds,
-        new InterpolationRecord(
-            getEstimatedPosition(), sample.get().gyroAngle, sample.get().wheelPositions));
+    m_replayStartIndex =
+        m_poseBuffer.record(
+            timestampSeconds,
+            m_replayStartPose,
+            sample.gyroAngle(),
+            m_odometry.getGyroOffset(),
+            sample.wheelPositions(),
+            null);
+    return m_replayStartIndex;
+  }
 
-    // Step 7: Replay odometry inputs between sample time and latest recorded sample to update the
-    // pose buffer and correct odometry.
-    for (Map.Entry<Double, InterpolationRecord> entry :
-        m_poseBuffer.getInternalBuffer().tailMap(timestampSeconds).entrySet()) {
-      updateWithTime(entry.getKey(), entry.getValue().gyroAngle, entry.getValue().wheelPositions);
+  /**
+   * Checks a vision measurement against the estimated pose at its timestamp, and counts whether
+   * it was accepted.
+   *
+   * @param twist The twist from the estimated pose to the vision pose.
+   * @param visionVariances The variances of the vision measurement.
+   * @return Whether the measurement should be fused.
+   */
+  private boolean passesGate(Twist2d twist, double[] visionVariances) {
+    // The innovation covariance is diagonal, so the squared Mahalanobis distance is a sum.
+    double distanceSquared =
+        normalizedSquare(twist.dx, m_q.get(0, 0) + visionVariances[0])
+            + normalizedSquare(twist.dy, m_q.get(1, 0) + visionVariances[1])
+            + normalizedSquare(twist.dtheta, m_q.get(2, 0) + visionVariances[2]);
+
+    boolean accepted = !(distanceSquared > m_gateThreshold);
+    if (accepted) {
+      m_acceptedMeasurements++;
+      if (m_publishTelemetry) {
+        Telemetry.put(m_acceptedKey, m_acceptedMeasurements);
+      }
+    } else {
+      m_rejectedMeasurements++;
+      if (m_publishTelemetry) {
+        Telemetry.put(m_rejectedKey, m_rejectedMeasurements);
+      }
+    }
+    return accepted;
+  }
+
+  // Axes with no variance can't be judged, and aren't corrected either
+  private static double normalizedSquare(double error, double variance) {
+    return variance > 0 ? error * error / variance : 0;
+  }
+
+  /**
+   * Replays odometry inputs over a range of the pose buffer. This is done in place, without going
+   * through odometry. If the range starts at the sample odometry was last corrected at, it starts
+   * from the corrected pose, otherwise it continues an earlier replay.
+   */
+  private void replayOdometry(int startIndex, int endIndex) {
+    if (startIndex == m_replayStartIndex) {
+      m_poseBuffer.replay(startIndex, endIndex, m_replayStartPose, m_odometry.getGyroOffset());
+    } else {
+      m_poseBuffer.continueReplay(startIndex, endIndex, m_odometry.getGyroOffset());
     }
   }
 
+  /** Restores odometry to the newest sample of the pose buffer, after a replay. */
+  private void restoreOdometry() {
+    int newest = m_poseBuffer.size() - 1;
+    m_odometry.restorePosition(
+        m_poseBuffer.getWheelPositions(newest), m_poseBuffer.getPose(newest));
+    m_odometryMatchesNewest = true;
+  }
+
   /**
    * Adds a vision measurement to the Kalman Filter. This will correct the odometry pose estimate
    * while still accounting for measurement noise.
@@ -239,86 +466,39 @@ public class PoseEstimator<T extends WheelPositions<T>> {
    */
   public Pose2d updateWithTime(double currentTimeSeconds, Rotation2d gyroAngle, T wheelPositions) {
     m_odometry.update(gyroAngle, wheelPositions);
-    m_poseBuffer.addSample(
+    boolean append =
+        m_poseBuffer.isEmpty() || currentTimeSeconds > m_poseBuffer.getNewestTimestamp();
+    m_poseBuffer.record(
         currentTimeSeconds,
-        new InterpolationRecord(getEstimatedPosition(), gyroAngle, wheelPositions.copy()));
+        getEstimatedPosition(),
+        gyroAngle,
+        m_odometry.getGyroOffset(),
+        wheelPositions.copy(),
+        m_odometryMatchesNewest ? m_odometry.getLastTwist() : null);
+    m_odometryMatchesNewest = append;
 
     return getEstimatedPosition();
   }
 
   /**
-   * Represents an odometry record. The record contains the inputs provided as well as the pose that
-   * was observed based on these inputs, as well as the previous record and its inputs.
+   * A vision measurement, for {@link PoseEstimator#addVisionMeasurements(List)}.
+   *
+   * @param poseMeters The pose of the robot as measured by the vision camera.
+   * @param timestampSeconds The timestamp of the vision measurement in seconds.
+   * @param stdDevs Standard deviations of the vision pose measurement (x position in meters, y
+   *     position in meters, and heading in radians), or null to use the estimator's. Unlike {@link
+   *     PoseEstimator#addVisionMeasurement(Pose2d, double, Matrix)}, these only apply to this
+   *     measurement.
    */
-  private class InterpolationRecord implements Interpolatable<InterpolationRecord> {
-    // The pose observed given the current sensor inputs and the previous pose.
-    private final Pose2d poseMeters;
-
-    // The current gyro angle.
-    private final Rotation2d gyroAngle;
-
-    // The current encoder readings.
-    private final T wheelPositions;
-
-    /**
-     * Constructs an Interpolation Record with the specified parameters.
-     *
-     * @param poseMeters The pose observed given the current sensor inputs and the previous pose.
-     * @param gyro The current gyro angle.
-     * @param wheelPositions The current encoder readings.
-     */
-    private InterpolationRecord(Pose2d poseMeters, Rotation2d gyro, T wheelPositions) {
-      this.poseMeters = poseMeters;
-      this.gyroAngle = gyro;
-      this.wheelPositions = wheelPositions;
-    }
-
+  public record Measurement(Pose2d poseMeters, double timestampSeconds, Matrix<N3, N1> stdDevs) {
     /**
-     * Return the interpolated record. This object is assumed to be the starting position, or lower
-     * bound.
+     * Constructs a Measurement that uses the estimator's standard deviations.
      *
-     * @param endValue The upper bound, or end.
-     * @param t How far between the lower and upper bound we are. This should be bounded in [0, 1].
-     * @return The interpolated value.
+     * @param poseMeters The pose of the robot as measured by the vision camera.
+     * @param timestampSeconds The timestamp of the vision measurement in seconds.
      */
-    @Override
-    public InterpolationRecord interpolate(InterpolationRecord endValue, double t) {
-      if (t < 0) {
-        return this;
-      } else if (t >= 1) {
-        return endValue;
-      } else {
-        // Find the new wheel distances.
-        T wheelLerp = wheelPositions.interpolate(endValue.wheelPositions, t);
-
-        // Find the new gyro angle.
-        Rotation2d gyroLerp = gyroAngle.interpolate(endValue.gyroAngle, t);
-
-        // Create a twist to represent the change based on the interpolated sensor inputs.
-        Twist2d twist = m_kinematics.toTwist2d(wheelPositions, wheelLerp);
-        twist.dtheta = gyroLerp.minus(gyroAngle).getRadians();
-
-        return new InterpolationRecord(poseMeters.exp(twist), gyroLerp, wheelLerp);
-      }
-    }
-
-    @Override
-    public boolean equals(Object obj) {
-      if (this == obj) {
-        return true;
-      }
-      if (!(obj instanceof PoseEstimator.InterpolationRecord)) {
-        return false;
-      }
-      PoseEstimator<?>.InterpolationRecord record = (PoseEstimator<?>.InterpolationRecord) obj;
-      return Objects.equals(gyroAngle, record.gyroAngle)
-          && Objects.equals(wheelPositions, record.wheelPositions)
-          && Objects.equals(poseMeters, record.poseMeters);
-    }
-
-    @Override
-    public int hashCode() {
-      return Objects.hash(gyroAngle, wheelPositions, poseMeters);
+    public Measurement(Pose2d poseMeters, double timestampSeconds) {
+      this(poseMeters, timestampSeconds, null);
     }
   }
 }
@@ -0,0 +1,503 @@
+// Copyright (c) 2024-2025 FTC 8696
+// All rights reserved.
+
+package ftc.lib.wpilib.math.estimator;
+
+import ftc.lib.wpilib.math.geometry.Pose2d;
+import ftc.lib.wpilib.math.geometry.Rotation2d;
+import ftc.lib.wpilib.math.geometry.Twist2d;
+import ftc.lib.wpilib.math.kinematics.Kinematics;
+import ftc.lib.wpilib.math.kinematics.Odometry;
+import ftc.lib.wpilib.math.kinematics.WheelPositions;
+import java.util.Arrays;
+
+/**
+ * The odometry history of a {@link PoseEstimator}, stored as a struct of arrays so that odometry
+ * can be replayed in place after a vision measurement.
+ *
+ * <p>Each sample stores the position, the gyro angle, and the wheel positions that were passed to
+ * {@link Odometry}, along with the twist the kinematics computed from the previous sample's wheel
+ * positions. Replaying only needs the gyro angles and the twists, so it doesn't call the kinematics
+ * or allocate. The math is the same as {@link Odometry#update}, step for step, so the replayed
+ * poses are identical to what replaying through {@link Odometry} would give.
+ *
+ * <p>Odometry's heading is always the gyro angle plus the gyro offset, so the heading isn't stored.
+ * The gyro offset's cosine and sine are stored instead, and a sample's {@link Pose2d} is only built
+ * when it's asked for, with the same math as {@link Rotation2d#plus}, so it comes out identical.
+ *
+ * <p>Like {@link ftc.lib.wpilib.math.interpolation.TimeInterpolatableBuffer}, samples are sorted by
+ * timestamp in a ring buffer, and samples older than the history size are dropped.
+ *
+ * @param <T> Wheel positions type.
+ */
+final class PoseHistory<T extends WheelPositions<T>> {
+  private static final int kInitialCapacity = 16;
+
+  private final Kinematics<?, T> m_kinematics;
+  private final double m_historySize;
+
+  private double[] m_times = new double[kInitialCapacity];
+  private double[] m_x = new double[kInitialCapacity];
+  private double[] m_y = new double[kInitialCapacity];
+  private double[] m_gyroCos = new double[kInitialCapacity];
+  private double[] m_gyroSin = new double[kInitialCapacity];
+  // The twist from the previous sample's wheel positions to this sample's
+  private double[] m_dx = new double[kInitialCapacity];
+  private double[] m_dy = new double[kInitialCapacity];
+  private double[] m_offsetCos = new double[kInitialCapacity];
+  private double[] m_offsetSin = new double[kInitialCapacity];
+  private Rotation2d[] m_gyros = new Rotation2d[kInitialCapacity];
+  private Object[] m_wheelPositions = new Object[kInitialCapacity];
+  private int m_head;
+  private int m_size;
+
+  /**
+   * Constructs a PoseHistory.
+   *
+   * @param kinematics The kinematics used to compute twists between wheel positions.
+   * @param historySizeSeconds How long samples are kept for.
+   */
+  PoseHistory(Kinematics<?, T> kinematics, double historySizeSeconds) {
+    m_kinematics = kinematics;
+    m_historySize = historySizeSeconds;
+  }
+
+  /** Removes every sample. */
+  void clear() {
+    Arrays.fill(m_gyros, null);
+    Arrays.fill(m_wheelPositions, null);
+    m_head = 0;
+    m_size = 0;
+  }
+
+  boolean isEmpty() {
+    return m_size == 0;
+  }
+
+  int size() {
+    return m_size;
+  }
+
+  double getTimestamp(int index) {
+    return m_times[physicalIndex(index)];
+  }
+
+  double getNewestTimestamp() {
+    return getTimestamp(m_size - 1);
+  }
+
+  /**
+   * Finds the oldest sample at or after a timestamp.
+   *
+   * @param timeSeconds The timestamp.
+   * @return The index of the sample, or {@link #size()} if every sample is older.
+   */
+  int ceilingIndex(double timeSeconds) {
+    int low = 0;
+    int high = m_size;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (getTimestamp(mid) < timeSeconds) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Records a sample. If a sample already exists at the timestamp, it's replaced.
+   *
+   * @param timeSeconds The timestamp of the sample.
+   * @param poseMeters The pose odometry computed. Only the translation is stored.
+   * @param gyroAngle The gyro angle passed to odometry.
+   * @param gyroOffset The gyro offset odometry used.
+   * @param wheelPositions The wheel positions passed to odometry. Not copied.
+   * @param twist The twist odometry computed from the newest sample's wheel positions, or null if
+   *     odometry's previous wheel positions weren't the newest sample's.
+   * @return The index of the sample.
+   */
+  int record(
+      double timeSeconds,
+      Pose2d poseMeters,
+      Rotation2d gyroAngle,
+      Rotation2d gyroOffset,
+      T wheelPositions,
+      Twist2d twist) {
+    cleanUp(timeSeconds);
+
+    int index = ceilingIndex(timeSeconds);
+    boolean append = index == m_size;
+    if (!append && getTimestamp(index) != timeSeconds) {
+      // Shift everything after the insertion point back by one
+      ensureCapacity();
+      for (int i = m_size; i > index; i--) {
+        move(physicalIndex(i - 1), physicalIndex(i));
+      }
+      m_size++;
+    } else if (append) {
+      ensureCapacity();
+      m_size++;
+    }
+
+    int p = physicalIndex(index);
+    m_times[p] = timeSeconds;
+    m_x[p] = poseMeters.getX();
+    m_y[p] = poseMeters.getY();
+    m_gyroCos[p] = gyroAngle.getCos();
+    m_gyroSin[p] = gyroAngle.getSin();
+    m_offsetCos[p] = gyroOffset.getCos();
+    m_offsetSin[p] = gyroOffset.getSin();
+    m_gyros[p] = gyroAngle;
+    m_wheelPositions[p] = wheelPositions;
+
+    if (append && twist != null) {
+      m_dx[p] = twist.dx;
+      m_dy[p] = twist.dy;
+    } else {
+      // The wheel positions around this sample changed, so recompute the twists that use them
+      updateTwist(index);
+      if (index + 1 < m_size) {
+        updateTwist(index + 1);
+      }
+    }
+    return index;
+  }
+
+  private void updateTwist(int index) {
+    int p = physicalIndex(index);
+    if (index == 0) {
+      // Never replayed, since replays start at or after the sample a vision measurement adds
+      m_dx[p] = 0;
+      m_dy[p] = 0;
+      return;
+    }
+    var twist = m_kinematics.toTwist2d(getWheelPositions(index - 1), getWheelPositions(index));
+    m_dx[p] = twist.dx;
+    m_dy[p] = twist.dy;
+  }
+
+  /**
+   * Samples the history at the given time, interpolating between samples like {@link
+   * PoseEstimator} always has. Times outside the history use the nearest sample.
+   *
+   * @param timeSeconds The time at which to sample.
+   * @return The sample, or null if the history is empty.
+   */
+  Sample<T> sample(double timeSeconds) {
+    if (m_size == 0) {
+      return null;
+    }
+
+    int topIndex = ceilingIndex(timeSeconds);
+    if (topIndex == m_size) {
+      return getSample(m_size - 1);
+    }
+    if (topIndex == 0 || getTimestamp(topIndex) == timeSeconds) {
+      return getSample(topIndex);
+    }
+
+    int bottomIndex = topIndex - 1;
+    double bottomTime = getTimestamp(bottomIndex);
+    double t = (timeSeconds - bottomTime) / (getTimestamp(topIndex) - bottomTime);
+    if (t < 0) {
+      return getSample(bottomIndex);
+    } else if (t >= 1) {
+      return getSample(topIndex);
+    }
+
+    T bottomWheelPositions = getWheelPositions(bottomIndex);
+    Rotation2d bottomGyro = m_gyros[physicalIndex(bottomIndex)];
+
+    // Find the new wheel distances.
+    T wheelLerp = bottomWheelPositions.interpolate(getWheelPositions(topIndex), t);
+
+    // Find the new gyro angle.
+    Rotation2d gyroLerp = bottomGyro.interpolate(m_gyros[physicalIndex(topIndex)], t);
+
+    // Create a twist to represent the change based on the interpolated sensor inputs.
+    Twist2d twist = m_kinematics.toTwist2d(bottomWheelPositions, wheelLerp);
+    twist.dtheta = gyroLerp.minus(bottomGyro).getRadians();
+
+    return new Sample<>(getPose(bottomIndex).exp(twist), gyroLerp, wheelLerp);
+  }
+
+  private Sample<T> getSample(int index) {
+    return new Sample<>(getPose(index), m_gyros[physicalIndex(index)], getWheelPositions(index));
+  }
+
+  /**
+   * Gets the pose of a sample.
+   *
+   * @param index The index of the sample.
+   * @return The pose.
+   */
+  Pose2d getPose(int index) {
+    int p = physicalIndex(index);
+    // gyroAngle.plus(gyroOffset)
+    double gyroCos = m_gyroCos[p];
+    double gyroSin = m_gyroSin[p];
+    double offsetCos = m_offsetCos[p];
+    double offsetSin = m_offsetSin[p];
+    return new Pose2d(
+        m_x[p],
+        m_y[p],
+        new Rotation2d(
+            gyroCos * offsetCos - gyroSin * offsetSin, gyroCos * offsetSin + gyroSin * offsetCos));
+  }
+
+  @SuppressWarnings("unchecked")
+  T getWheelPositions(int index) {
+    return (T) m_wheelPositions[physicalIndex(index)];
+  }
+
+  /**
+   * Measures the robot's velocity over the newest samples from their odometry twists, which vision
+   * corrections don't change. Along a constant curvature arc, the twists of each step add up to the
+   * twist of the whole arc.
+   *
+   * @param windowSeconds How far back from the newest sample to measure over.
+   * @return The robot relative velocity, in meters and radians per second. Zero if there's only one
+   *     sample.
+   */
+  Twist2d getVelocity(double windowSeconds) {
+    int newest = m_size - 1;
+    if (newest < 1) {
+      return new Twist2d();
+    }
+    double newestTime = getTimestamp(newest);
+    int start = Math.min(ceilingIndex(newestTime - windowSeconds), newest - 1);
+    double dt = newestTime - getTimestamp(start);
+
+    double dx = 0;
+    double dy = 0;
+    for (int i = start + 1; i <= newest; i++) {
+      int p = physicalIndex(i);
+      dx += m_dx[p];
+      dy += m_dy[p];
+    }
+    Rotation2d dtheta = m_gyros[physicalIndex(newest)].minus(m_gyros[physicalIndex(start)]);
+    return new Twist2d(dx / dt, dy / dt, dtheta.getRadians() / dt);
+  }
+
+  /**
+   * Replays odometry over a range of samples, in place. Mirrors {@link Odometry#update} being
+   * called with every sample's gyro angle and wheel positions, starting from odometry that was
+   * reset to the given pose at the first sample.
+   *
+   * @param startIndex The index of the first sample to replay.
+   * @param endIndex The index after the last sample to replay.
+   * @param startPose The pose odometry was reset to, at the first sample's wheel positions, so the
+   *     first sample's twist is zero.
+   * @param gyroOffset The gyro offset odometry was reset to.
+   */
+  void replay(int startIndex, int endIndex, Pose2d startPose, Rotation2d gyroOffset) {
+    Rotation2d startRotation = startPose.getRotation();
+    replay(
+        startIndex,
+        endIndex,
+        startPose.getX(),
+        startPose.getY(),
+        startRotation.getRadians(),
+        startRotation.getCos(),
+        startRotation.getSin(),
+        gyroOffset.getCos(),
+        gyroOffset.getSin(),
+        0,
+        0);
+  }
+
+  private void replay(
+      int startIndex,
+      int endIndex,
+      double x,
+      double y,
+      double previousTheta,
+      double previousCos,
+      double previousSin,
+      double offsetCos,
+      double offsetSin,
+      double startDx,
+      double startDy) {
+    for (int i = startIndex; i < endIndex; i++) {
+      int p = physicalIndex(i);
+      double dx = i == startIndex ? startDx : m_dx[p];
+      double dy = i == startIndex ? startDy : m_dy[p];
+
+      // angle = gyroAngle.plus(gyroOffset)
+      double gyroCos = m_gyroCos[p];
+      double gyroSin = m_gyroSin[p];
+      double angleX = gyroCos * offsetCos - gyroSin * offsetSin;
+      double angleY = gyroCos * offsetSin + gyroSin * offsetCos;
+      double angleMagnitude = Math.hypot(angleX, angleY);
+      double angleCos;
+      double angleSin;
+      if (angleMagnitude > 1e-6) {
+        angleSin = angleY / angleMagnitude;
+        angleCos = angleX / angleMagnitude;
+      } else {
+        angleSin = 0.0;
+        angleCos = 1.0;
+      }
+      double angleTheta = Math.atan2(angleSin, angleCos);
+
+      // dtheta = angle.minus(previousAngle).getRadians()
+      double inverseCos = Math.cos(-previousTheta);
+      double inverseSin = Math.sin(-previousTheta);
+      double deltaX = angleCos * inverseCos - angleSin * inverseSin;
+      double deltaY = angleCos * inverseSin + angleSin * inverseCos;
+      double deltaMagnitude = Math.hypot(deltaX, deltaY);
+      double dtheta;
+      if (deltaMagnitude > 1e-6) {
+        dtheta = Math.atan2(deltaY / deltaMagnitude, deltaX / deltaMagnitude);
+      } else {
+        dtheta = 0.0;
+      }
+
+      // pose = pose.exp(twist), keeping only the translation
+      double sinTheta = Math.sin(dtheta);
+      double cosTheta = Math.cos(dtheta);
+      double s;
+      double c;
+      if (Math.abs(dtheta) < 1E-9) {
+        s = 1.0 - 1.0 / 6.0 * dtheta * dtheta;
+        c = 0.5 * dtheta;
+      } else {
+        s = sinTheta / dtheta;
+        c = (1 - cosTheta) / dtheta;
+      }
+      double translationX = dx * s - dy * c;
+      double translationY = dx * c + dy * s;
+      x += translationX * previousCos - translationY * previousSin;
+      y += translationX * previousSin + translationY * previousCos;
+
+      m_x[p] = x;
+      m_y[p] = y;
+      m_offsetCos[p] = offsetCos;
+      m_offsetSin[p] = offsetSin;
+
+      previousTheta = angleTheta;
+      previousCos = angleCos;
+      previousSin = angleSin;
+    }
+  }
+
+  /**
+   * Continues a replay that stopped before a sample, starting from the replayed pose of the sample
+   * before it.
+   *
+   * @param startIndex The index of the first sample to replay. Must be at least 1.
+   * @param endIndex The index after the last sample to replay.
+   * @param gyroOffset The gyro offset odometry was reset to.
+   */
+  void continueReplay(int startIndex, int endIndex, Rotation2d gyroOffset) {
+    if (startIndex >= endIndex) {
+      return;
+    }
+    // The previous sample's heading, like getPose(startIndex - 1) would build it
+    int previous = physicalIndex(startIndex - 1);
+    double gyroCos = m_gyroCos[previous];
+    double gyroSin = m_gyroSin[previous];
+    double offsetCos = m_offsetCos[previous];
+    double offsetSin = m_offsetSin[previous];
+    double headingX = gyroCos * offsetCos - gyroSin * offsetSin;
+    double headingY = gyroCos * offsetSin + gyroSin * offsetCos;
+    double headingMagnitude = Math.hypot(headingX, headingY);
+    double headingCos;
+    double headingSin;
+    if (headingMagnitude > 1e-6) {
+      headingSin = headingY / headingMagnitude;
+      headingCos = headingX / headingMagnitude;
+    } else {
+      headingSin = 0.0;
+      headingCos = 1.0;
+    }
+
+    int p = physicalIndex(startIndex);
+    replay(
+        startIndex,
+        endIndex,
+        m_x[previous],
+        m_y[previous],
+        Math.atan2(headingSin, headingCos),
+        headingCos,
+        headingSin,
+        gyroOffset.getCos(),
+        gyroOffset.getSin(),
+        m_dx[p],
+        m_dy[p]);
+  }
+
+  /** Removes samples older than the history size. */
+  private void cleanUp(double time) {
+    while (m_size > 0 && time - m_times[m_head] >= m_historySize) {
+      m_gyros[m_head] = null;
+      m_wheelPositions[m_head] = null;
+      m_head = (m_head + 1) % m_times.length;
+      m_size--;
+    }
+  }
+
+  private void move(int from, int to) {
+    m_times[to] = m_times[from];
+    m_x[to] = m_x[from];
+    m_y[to] = m_y[from];
+    m_gyroCos[to] = m_gyroCos[from];
+    m_gyroSin[to] = m_gyroSin[from];
+    m_dx[to] = m_dx[from];
+    m_dy[to] = m_dy[from];
+    m_offsetCos[to] = m_offsetCos[from];
+    m_offsetSin[to] = m_offsetSin[from];
+    m_gyros[to] = m_gyros[from];
+    m_wheelPositions[to] = m_wheelPositions[from];
+  }
+
+  private void ensureCapacity() {
+    if (m_size < m_times.length) {
+      return;
+    }
+    m_times = unwrap(m_times);
+    m_x = unwrap(m_x);
+    m_y = unwrap(m_y);
+    m_gyroCos = unwrap(m_gyroCos);
+    m_gyroSin = unwrap(m_gyroSin);
+    m_dx = unwrap(m_dx);
+    m_dy = unwrap(m_dy);
+    m_offsetCos = unwrap(m_offsetCos);
+    m_offsetSin = unwrap(m_offsetSin);
+    m_gyros = unwrap(m_gyros, new Rotation2d[m_gyros.length * 2]);
+    m_wheelPositions = unwrap(m_wheelPositions, new Object[m_wheelPositions.length * 2]);
+    m_head = 0;
+  }
+
+  /** Copies a full ring into the start of an array twice its size. */
+  private double[] unwrap(double[] array) {
+    var unwrapped = new double[array.length * 2];
+    int firstPart = array.length - m_head;
+    System.arraycopy(array, m_head, unwrapped, 0, firstPart);
+    System.arraycopy(array, 0, unwrapped, firstPart, m_head);
+    return unwrapped;
+  }
+
+  private <E> E[] unwrap(E[] array, E[] unwrapped) {
+    int firstPart = array.length - m_head;
+    System.arraycopy(array, m_head, unwrapped, 0, firstPart);
+    System.arraycopy(array, 0, unwrapped, firstPart, m_head);
+    return unwrapped;
+  }
+
+  private int physicalIndex(int index) {
+    return (m_head + index) % m_times.length;
+  }
+
+  /**
+   * A sample of the history.
+   *
+   * @param poseMeters The pose odometry computed.
+   * @param gyroAngle The gyro angle passed to odometry.
+   * @param wheelPositions The wheel positions passed to odometry.
+   * @param <T> Wheel positions type.
+   */
+  record Sample<T>(Pose2d poseMeters, Rotation2d gyroAngle, T wheelPositions) {}
+}
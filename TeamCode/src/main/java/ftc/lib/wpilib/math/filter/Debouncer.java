@@ -63,11 +63,15 @@ public class Debouncer {
   }
 
   private void resetTimer() {
-    m_prevTimeSeconds = Utils.getTimeSeconds();
+    resetTimer(Utils.getTimeSeconds());
   }
 
-  private boolean hasElapsed() {
-    return Utils.getTimeSeconds() - m_prevTimeSeconds >= m_debounceTimeSeconds;
+  private void resetTimer(double currentTimeSeconds) {
+    m_prevTimeSeconds = currentTimeSeconds;
+  }
+
+  private boolean hasElapsed(double currentTimeSeconds) {
+    return currentTimeSeconds - m_prevTimeSeconds >= m_debounceTimeSeconds;
   }
 
   /**
@@ -77,14 +81,26 @@ public class Debouncer {
    * @return The debounced value of the input stream.
    */
   public boolean calculate(boolean input) {
+    return calculate(input, Utils.getTimeSeconds());
+  }
+
+  /**
+   * Applies the debouncer to the input stream, using a timestamp provided by the caller instead of
+   * reading the clock.
+   *
+   * @param input The current value of the input stream.
+   * @param currentTimeSeconds The time at which the input was sampled, in seconds.
+   * @return The debounced value of the input stream.
+   */
+  public boolean calculate(boolean input, double currentTimeSeconds) {
     if (input == m_baseline) {
-      resetTimer();
+      resetTimer(currentTimeSeconds);
     }
 
-    if (hasElapsed()) {
+    if (hasElapsed(currentTimeSeconds)) {
       if (m_debounceType == DebounceType.kBoth) {
         m_baseline = input;
-        resetTimer();
+        resetTimer(currentTimeSeconds);
       }
       return input;
     } else {
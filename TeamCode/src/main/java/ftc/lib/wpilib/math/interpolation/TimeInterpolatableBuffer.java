@@ -4,10 +4,8 @@
 package ftc.lib.wpilib.math.interpolation;
 
 import ftc.lib.wpilib.math.MathUtil;
-import java.util.Map;
-import java.util.NavigableMap;
+import java.util.Arrays;
 import java.util.Optional;
-import java.util.TreeMap;
 
 /**
  * The TimeInterpolatableBuffer provides an easy way to estimate past measurements. One application
@@ -15,12 +13,23 @@ import java.util.TreeMap;
  * pose at the time when vision or other global measurement were recorded is necessary, or for
  * recording the past angles of mechanisms as measured by encoders.
  *
+ * <p>Samples are stored in a ring buffer sorted by timestamp, with the timestamps in a primitive
+ * array. Adding a sample newer than every other sample is amortized O(1), lookups are a binary
+ * search, and removing old samples just moves the head of the ring.
+ *
  * @param <T> The type stored in this buffer.
  */
 public final class TimeInterpolatableBuffer<T> {
+  private static final int kInitialCapacity = 16;
+
   private final double m_historySize;
   private final Interpolator<T> m_interpolatingFunc;
-  private final NavigableMap<Double, T> m_pastSnapshots = new TreeMap<>();
+
+  // Sorted by timestamp, starting at m_head and wrapping around the end of the arrays
+  private double[] m_times = new double[kInitialCapacity];
+  private Object[] m_values = new Object[kInitialCapacity];
+  private int m_head;
+  private int m_size;
 
   private TimeInterpolatableBuffer(Interpolator<T> interpolateFunction, double historySizeSeconds) {
     this.m_historySize = historySizeSeconds;
@@ -63,14 +72,41 @@ public final class TimeInterpolatableBuffer<T> {
   }
 
   /**
-   * Add a sample to the buffer.
+   * Add a sample to the buffer. If a sample already exists at the timestamp, it's replaced.
    *
    * @param timeSeconds The timestamp of the sample.
    * @param sample The sample object.
    */
   public void addSample(double timeSeconds, T sample) {
     cleanUp(timeSeconds);
-    m_pastSnapshots.put(timeSeconds, sample);
+
+    // Common case: the sample is newer than everything in the buffer
+    if (m_size == 0 || timeSeconds > getTimestamp(m_size - 1)) {
+      ensureCapacity();
+      int index = physicalIndex(m_size);
+      m_times[index] = timeSeconds;
+      m_values[index] = sample;
+      m_size++;
+      return;
+    }
+
+    int index = ceilingIndex(timeSeconds);
+    if (getTimestamp(index) == timeSeconds) {
+      m_values[physicalIndex(index)] = sample;
+      return;
+    }
+
+    // Shift everything after the insertion point back by one
+    ensureCapacity();
+    for (int i = m_size; i > index; i--) {
+      int to = physicalIndex(i);
+      int from = physicalIndex(i - 1);
+      m_times[to] = m_times[from];
+      m_values[to] = m_values[from];
+    }
+    m_times[physicalIndex(index)] = timeSeconds;
+    m_values[physicalIndex(index)] = sample;
+    m_size++;
   }
 
   /**
@@ -79,19 +115,39 @@ public final class TimeInterpolatableBuffer<T> {
    * @param time The current timestamp.
    */
   private void cleanUp(double time) {
-    while (!m_pastSnapshots.isEmpty()) {
-      Map.Entry<Double, T> entry = m_pastSnapshots.firstEntry();
-      if (time - entry.getKey() >= m_historySize) {
-        m_pastSnapshots.remove(entry.getKey());
-      } else {
-        return;
-      }
+    while (m_size > 0 && time - m_times[m_head] >= m_historySize) {
+      m_values[m_head] = null;
+      m_head = (m_head + 1) % m_times.length;
+      m_size--;
+    }
+  }
+
+  private void ensureCapacity() {
+    if (m_size < m_times.length) {
+      return;
     }
+    // Unwrap the ring into the start of the new arrays
+    var times = new double[m_times.length * 2];
+    var values = new Object[m_values.length * 2];
+    int firstPart = Math.min(m_size, m_times.length - m_head);
+    System.arraycopy(m_times, m_head, times, 0, firstPart);
+    System.arraycopy(m_values, m_head, values, 0, firstPart);
+    System.arraycopy(m_times, 0, times, firstPart, m_size - firstPart);
+    System.arraycopy(m_values, 0, values, firstPart, m_size - firstPart);
+    m_times = times;
+    m_values = values;
+    m_head = 0;
+  }
+
+  private int physicalIndex(int index) {
+    return (m_head + index) % m_times.length;
   }
 
   /** Clear all old samples. */
   public void clear() {
-    m_pastSnapshots.clear();
+    Arrays.fill(m_values, null);
+    m_head = 0;
+    m_size = 0;
   }
 
   /**
@@ -101,45 +157,143 @@ public final class TimeInterpolatableBuffer<T> {
    * @return The interpolated value at that timestamp or an empty Optional.
    */
   public Optional<T> getSample(double timeSeconds) {
-    if (m_pastSnapshots.isEmpty()) {
+    if (m_size == 0) {
       return Optional.empty();
     }
 
+    int topIndex = ceilingIndex(timeSeconds);
+    // Return the opposite bound if one of them doesn't exist
+    if (topIndex == m_size) {
+      return Optional.of(getValue(m_size - 1));
+    }
     // Special case for when the requested time is the same as a sample
-    T nowEntry = m_pastSnapshots.get(timeSeconds);
-    if (nowEntry != null) {
-      return Optional.of(nowEntry);
+    if (topIndex == 0 || getTimestamp(topIndex) == timeSeconds) {
+      return Optional.of(getValue(topIndex));
     }
 
-    Map.Entry<Double, T> topBound = m_pastSnapshots.ceilingEntry(timeSeconds);
-    Map.Entry<Double, T> bottomBound = m_pastSnapshots.floorEntry(timeSeconds);
+    // Otherwise, interpolate. Because T is between [0, 1], we want the ratio of (the difference
+    // between the current time and bottom bound) and (the difference between top and bottom
+    // bounds).
+    int bottomIndex = topIndex - 1;
+    double bottomTime = getTimestamp(bottomIndex);
+    return Optional.of(
+        m_interpolatingFunc.interpolate(
+            getValue(bottomIndex),
+            getValue(topIndex),
+            (timeSeconds - bottomTime) / (getTimestamp(topIndex) - bottomTime)));
+  }
 
-    // Return null if neither sample exists, and the opposite bound if the other is null
-    if (topBound == null && bottomBound == null) {
-      return Optional.empty();
-    } else if (topBound == null) {
-      return Optional.of(bottomBound.getValue());
-    } else if (bottomBound == null) {
-      return Optional.of(topBound.getValue());
+  /**
+   * Sample the buffer at the given time, writing the result into a destination instead of
+   * allocating a new value. Samples outside the buffer's timespan use the nearest sample.
+   *
+   * @param timeSeconds The time at which to sample.
+   * @param destination Where to write the sampled value.
+   * @param interpolator Writes the value between two samples into the destination.
+   * @param <D> The type of the destination.
+   * @return False if the buffer is empty, in which case the destination isn't written to.
+   */
+  public <D> boolean sampleInto(
+      double timeSeconds, D destination, IntoInterpolator<T, D> interpolator) {
+    if (m_size == 0) {
+      return false;
+    }
+
+    int topIndex = ceilingIndex(timeSeconds);
+    if (topIndex == m_size) {
+      var newest = getValue(m_size - 1);
+      interpolator.interpolate(newest, newest, 0, destination);
+    } else if (topIndex == 0 || getTimestamp(topIndex) == timeSeconds) {
+      var value = getValue(topIndex);
+      interpolator.interpolate(value, value, 0, destination);
     } else {
-      // Otherwise, interpolate. Because T is between [0, 1], we want the ratio of (the difference
-      // between the current time and bottom bound) and (the difference between top and bottom
-      // bounds).
-      return Optional.of(
-          m_interpolatingFunc.interpolate(
-              bottomBound.getValue(),
-              topBound.getValue(),
-              (timeSeconds - bottomBound.getKey()) / (topBound.getKey() - bottomBound.getKey())));
+      int bottomIndex = topIndex - 1;
+      double bottomTime = getTimestamp(bottomIndex);
+      interpolator.interpolate(
+          getValue(bottomIndex),
+          getValue(topIndex),
+          (timeSeconds - bottomTime) / (getTimestamp(topIndex) - bottomTime),
+          destination);
     }
+    return true;
   }
 
   /**
-   * Grant access to the internal sample buffer. Used in Pose Estimation to replay odometry inputs
+   * Whether the buffer has no samples.
+   *
+   * @return True if the buffer is empty.
+   */
+  public boolean isEmpty() {
+    return m_size == 0;
+  }
+
+  /**
+   * Gets the number of samples in the buffer.
+   *
+   * @return The number of samples.
+   */
+  public int size() {
+    return m_size;
+  }
+
+  /**
+   * Gets the timestamp of a sample. Index 0 is the oldest sample.
+   *
+   * @param index The index of the sample, from 0 to {@link #size()} - 1.
+   * @return The timestamp of the sample.
+   */
+  public double getTimestamp(int index) {
+    return m_times[physicalIndex(index)];
+  }
+
+  /**
+   * Gets a sample. Index 0 is the oldest sample. Used in Pose Estimation to replay odometry inputs
    * stored within this buffer.
    *
-   * @return The internal sample buffer.
+   * @param index The index of the sample, from 0 to {@link #size()} - 1.
+   * @return The sample.
+   */
+  @SuppressWarnings("unchecked")
+  public T getValue(int index) {
+    return (T) m_values[physicalIndex(index)];
+  }
+
+  /**
+   * Finds the oldest sample at or after a timestamp.
+   *
+   * @param timeSeconds The timestamp.
+   * @return The index of the sample, or {@link #size()} if every sample is older.
+   */
+  public int ceilingIndex(double timeSeconds) {
+    int low = 0;
+    int high = m_size;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (getTimestamp(mid) < timeSeconds) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Writes the value between two samples into a destination.
+   *
+   * @param <T> The type stored in the buffer.
+   * @param <D> The type of the destination.
    */
-  public NavigableMap<Double, T> getInternalBuffer() {
-    return m_pastSnapshots;
+  @FunctionalInterface
+  public interface IntoInterpolator<T, D> {
+    /**
+     * Writes the value between two samples into a destination.
+     *
+     * @param startValue The value to start at.
+     * @param endValue The value to end at.
+     * @param t How far between the two values to interpolate. Bounded to [0, 1].
+     * @param destination Where to write the interpolated value.
+     */
+    void interpolate(T startValue, T endValue, double t, D destination);
   }
 }
@@ -24,6 +24,7 @@ public class Odometry<T extends WheelPositions<T>> {
   private Rotation2d m_gyroOffset;
   private Rotation2d m_previousAngle;
   private T m_previousWheelPositions;
+  private Twist2d m_lastTwist = new Twist2d();
 
   /**
    * Constructs an Odometry object.
@@ -60,6 +61,41 @@ public class Odometry<T extends WheelPositions<T>> {
     m_previousAngle = m_poseMeters.getRotation();
     m_gyroOffset = m_poseMeters.getRotation().minus(gyroAngle);
     m_previousWheelPositions = wheelPositions.copy();
+    m_lastTwist = new Twist2d();
+  }
+
+  /**
+   * Sets the robot's position on the field, keeping the gyro offset. Used to restore odometry to
+   * the result of updates that were replayed outside of this class.
+   *
+   * @param wheelPositions The encoder readings at that position. Not copied, so they shouldn't be
+   *     changed afterwards.
+   * @param poseMeters The position on the field that your robot is at.
+   */
+  public void restorePosition(T wheelPositions, Pose2d poseMeters) {
+    m_poseMeters = poseMeters;
+    m_previousAngle = m_poseMeters.getRotation();
+    m_previousWheelPositions = wheelPositions;
+    m_lastTwist = new Twist2d();
+  }
+
+  /**
+   * Returns the offset added to the gyro angle to get the robot's heading on the field.
+   *
+   * @return The gyro offset.
+   */
+  public Rotation2d getGyroOffset() {
+    return m_gyroOffset;
+  }
+
+  /**
+   * Returns the twist applied by the last update. The dx and dy components are from the
+   * kinematics, and dtheta is from the gyro.
+   *
+   * @return The twist of the last update.
+   */
+  public Twist2d getLastTwist() {
+    return m_lastTwist;
   }
 
   /**
@@ -91,6 +127,7 @@ public class Odometry<T extends WheelPositions<T>> {
 
     m_previousWheelPositions = wheelPositions.copy();
     m_previousAngle = angle;
+    m_lastTwist = twist;
     m_poseMeters = new Pose2d(newPose.getTranslation(), angle);
 
     return m_poseMeters;
@@ -0,0 +1,184 @@
+// Copyright (c) 2024-2025 FTC 8696
+// All rights reserved.
+
+package ftc.nt;
+
+import com.qualcomm.robotcore.eventloop.opmode.TeleOp;
+import ftc.lib.trobotix.BaseOpMode;
+import ftc.lib.trobotix.Telemetry;
+import ftc.lib.trobotix.Utils;
+import ftc.lib.trobotix.hardware.GoBildaPinpointDriver;
+import ftc.lib.trobotix.hardware.GoBildaPinpointPoller;
+import ftc.lib.trobotix.hardware.Motor;
+import ftc.lib.wpilib.Timer;
+import ftc.lib.wpilib.commands.Command;
+import ftc.lib.wpilib.commands.Commands;
+
+/**
+ * Measures how long it takes from commanding the drive motors to the Pinpoint seeing the robot
+ * move. That's how far ahead a control loop should predict the pose with {@code getPredictedPose},
+ * so it acts on where the robot will be when its output takes effect.
+ *
+ * <p>The robot drives forwards and backwards in short bursts from a stop, so it needs about half a
+ * meter of space. Starting from rest with roughly constant acceleration, the square root of the
+ * distance travelled grows linearly with time, so a line fitted through the early samples crosses
+ * zero where the robot started moving. That's less biased than waiting for it to move a set
+ * distance.
+ */
+@TeleOp
+public class ActuationLatencyCharacterization extends BaseOpMode {
+  private static final String[] DRIVE_MOTORS = {"frontLeft", "frontRight", "backLeft", "backRight"};
+  private static final boolean[] DRIVE_INVERSIONS = {false, true, false, true};
+  private static final String PINPOINT = "pinpoint";
+  private static final GoBildaPinpointDriver.GoBildaOdometryPods PINPOINT_PODS =
+      GoBildaPinpointDriver.GoBildaOdometryPods.goBILDA_4_BAR_POD;
+
+  private static final double POWER = 0.5;
+  private static final int TRIALS = 10;
+  private static final double BURST_SECONDS = 0.3;
+  private static final double SETTLE_SECONDS = 0.7;
+  // Only samples in this range of distances are fitted. Below it is encoder noise, and above it
+  // the robot is speeding up slower.
+  private static final double MIN_FIT_DISTANCE = 0.002;
+  private static final double MAX_FIT_DISTANCE = 0.02;
+  private static final int MAX_SAMPLES = 1024;
+
+  private final Motor[] motors = new Motor[DRIVE_MOTORS.length];
+  private GoBildaPinpointPoller poller;
+
+  private double lastX;
+  private double lastY;
+
+  // The current burst
+  private boolean recording = false;
+  private double commandTime;
+  private double startX;
+  private double startY;
+  private final double[] sampleTimes = new double[MAX_SAMPLES];
+  private final double[] sampleDistances = new double[MAX_SAMPLES];
+  private int sampleCount;
+
+  private int trials = 0;
+  private int failedTrials = 0;
+  private double latencySum = 0;
+  private double minLatency = Double.POSITIVE_INFINITY;
+  private double maxLatency = Double.NEGATIVE_INFINITY;
+
+  @Override
+  protected void startup() {
+    for (int i = 0; i < motors.length; i++) {
+      motors[i] = new Motor(this, DRIVE_MOTORS[i]);
+      motors[i].setInverted(DRIVE_INVERSIONS[i]);
+      motors[i].setIdleBrake(true);
+    }
+
+    var pinpoint = hardwareMap.get(GoBildaPinpointDriver.class, PINPOINT);
+    pinpoint.setEncoderResolution(PINPOINT_PODS);
+    pinpoint.resetPosAndIMU();
+    Timer.delay(.25);
+    poller = new GoBildaPinpointPoller(pinpoint);
+
+    var steps = new Command[TRIALS * 4];
+    for (int i = 0; i < TRIALS; i++) {
+      // Alternate directions so the robot stays in place
+      var direction = i % 2 == 0 ? 1 : -1;
+      steps[i * 4] = Commands.runOnce(() -> startBurst(direction));
+      steps[i * 4 + 1] = Commands.waitSeconds(BURST_SECONDS);
+      steps[i * 4 + 2] = Commands.runOnce(this::endBurst);
+      steps[i * 4 + 3] = Commands.waitSeconds(SETTLE_SECONDS);
+    }
+    enableTrigger()
+        .onTrue(Commands.deadline(Commands.sequence(steps), Commands.run(this::drainSamples)));
+  }
+
+  private void startBurst(int direction) {
+    // Start measuring from wherever the robot settled
+    drainSamples();
+    startX = lastX;
+    startY = lastY;
+    sampleCount = 0;
+    recording = true;
+
+    commandTime = Utils.getTimeSeconds();
+    for (var motor : motors) {
+      motor.set(POWER * direction);
+    }
+  }
+
+  private void endBurst() {
+    for (var motor : motors) {
+      motor.set(0);
+    }
+    drainSamples();
+    recording = false;
+
+    var onset = motionOnset();
+    if (Double.isNaN(onset)) {
+      failedTrials++;
+      Telemetry.put("Actuation Latency/Failed Trials", failedTrials);
+      return;
+    }
+    var latency = onset - commandTime;
+    trials++;
+    latencySum += latency;
+    minLatency = Math.min(minLatency, latency);
+    maxLatency = Math.max(maxLatency, latency);
+
+    Telemetry.put("Actuation Latency/Latest ms", latency * 1000);
+    Telemetry.put("Actuation Latency/Mean ms", latencySum / trials * 1000);
+    Telemetry.put("Actuation Latency/Min ms", minLatency * 1000);
+    Telemetry.put("Actuation Latency/Max ms", maxLatency * 1000);
+    Telemetry.put("Actuation Latency/Trials", trials);
+  }
+
+  private void drainSamples() {
+    poller.drain(
+        sample -> {
+          lastX = sample.x;
+          lastY = sample.y;
+          if (recording && sampleCount < MAX_SAMPLES) {
+            sampleTimes[sampleCount] = sample.timestampSeconds;
+            sampleDistances[sampleCount] = Math.hypot(sample.x - startX, sample.y - startY);
+            sampleCount++;
+          }
+        });
+  }
+
+  /**
+   * Fits a line through the square root of the distance travelled against time, and returns where
+   * it crosses zero.
+   *
+   * @return When the robot started moving, or NaN if there weren't enough samples to tell.
+   */
+  private double motionOnset() {
+    int n = 0;
+    double sumT = 0;
+    double sumS = 0;
+    double sumTT = 0;
+    double sumTS = 0;
+    for (int i = 0; i < sampleCount; i++) {
+      var distance = sampleDistances[i];
+      if (distance < MIN_FIT_DISTANCE || distance > MAX_FIT_DISTANCE) {
+        continue;
+      }
+      // Relative to the command, so the sums don't lose precision
+      var t = sampleTimes[i] - commandTime;
+      var s = Math.sqrt(distance);
+      n++;
+      sumT += t;
+      sumS += s;
+      sumTT += t * t;
+      sumTS += t * s;
+    }
+    if (n < 3) {
+      return Double.NaN;
+    }
+    var denominator = n * sumTT - sumT * sumT;
+    var slope = (n * sumTS - sumT * sumS) / denominator;
+    if (denominator <= 0 || slope <= 0) {
+      return Double.NaN;
+    }
+    var intercept = (sumS - slope * sumT) / n;
+    return commandTime - intercept / slope;
+  }
+}
@@ -0,0 +1,68 @@
+// Copyright (c) 2024-2025 FTC 8696
+// All rights reserved.
+
+package ftc.nt;
+
+import com.qualcomm.robotcore.eventloop.opmode.TeleOp;
+import ftc.lib.trobotix.BaseOpMode;
+import ftc.lib.trobotix.Telemetry;
+import ftc.lib.trobotix.Utils;
+import ftc.lib.wpilib.commands.Command;
+import ftc.lib.wpilib.commands.CommandScheduler;
+import ftc.lib.wpilib.commands.Commands;
+
+/**
+ * Measures how long it takes to build a 200 command auto, with and without composition stack
+ * traces.
+ */
+@TeleOp
+public class CompositionBenchmark extends BaseOpMode {
+  private static final int COMMAND_COUNT = 200;
+  private static final int ITERATIONS = 20;
+
+  @Override
+  protected void startup() {
+    var scheduler = CommandScheduler.getInstance();
+
+    // Warm up both paths before timing anything
+    for (boolean tracing : new boolean[] {true, false}) {
+      scheduler.setCompositionTracing(tracing);
+      buildAuto();
+      scheduler.clearComposedCommands();
+    }
+
+    scheduler.setCompositionTracing(true);
+    var tracedMs = timeBuild();
+    scheduler.setCompositionTracing(false);
+    var untracedMs = timeBuild();
+
+    Telemetry.put("Composition Benchmark/Traced ms", tracedMs);
+    Telemetry.put("Composition Benchmark/Untraced ms", untracedMs);
+    Telemetry.put("Composition Benchmark/Saved ms", tracedMs - untracedMs);
+  }
+
+  /** Returns the average time taken to build the auto, in milliseconds. */
+  private double timeBuild() {
+    var total = 0.0;
+    for (int i = 0; i < ITERATIONS; i++) {
+      var startTime = Utils.getTimeSeconds();
+      buildAuto();
+      total += Utils.getTimeSeconds() - startTime;
+      CommandScheduler.getInstance().clearComposedCommands();
+    }
+    return total / ITERATIONS * 1000;
+  }
+
+  /** Builds an auto shaped like a typical one: steps of a drive and a mechanism action. */
+  private Command buildAuto() {
+    var steps = new Command[COMMAND_COUNT / 4];
+    for (int i = 0; i < steps.length; i++) {
+      steps[i] =
+          Commands.sequence(
+              Commands.parallel(Commands.none(), Commands.none()).withTimeout(1),
+              Commands.none(),
+              Commands.none());
+    }
+    return Commands.sequence(steps);
+  }
+}
@@ -0,0 +1,62 @@
+// Copyright (c) 2024-2025 FTC 8696
+// All rights reserved.
+
+package ftc.nt;
+
+import com.qualcomm.robotcore.eventloop.opmode.TeleOp;
+import ftc.lib.trobotix.BaseOpMode;
+import ftc.lib.trobotix.Telemetry;
+import ftc.lib.trobotix.Utils;
+import ftc.lib.trobotix.estimator.EstimatorReplay;
+import ftc.lib.trobotix.estimator.ReplayLog;
+import ftc.lib.wpilib.math.estimator.MecanumDrivePoseEstimator;
+import ftc.sim.TuneEstimator;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Tunes the standard deviations of a {@link MecanumDrivePoseEstimator} by replaying a recorded log
+ * with every combination in a grid, and publishes the best ones. See {@link ReplayLog} for what to
+ * record.
+ *
+ * <p>Searches the same grid as {@link TuneEstimator}, which can run the search on a computer
+ * instead, and prints every combination.
+ */
+@TeleOp
+public class EstimatorTuning extends BaseOpMode {
+  private static final String LOG_PATH = "/sdcard/FIRST/pose_replay.csv";
+
+  @Override
+  protected void startup() {
+    ReplayLog log;
+    try {
+      log = ReplayLog.fromCsv(LOG_PATH);
+    } catch (IOException e) {
+      Telemetry.put("Estimator Tuning/Error", e.getMessage());
+      return;
+    }
+
+    var candidates = TuneEstimator.candidates();
+    var startTime = Utils.getTimeSeconds();
+    List<EstimatorReplay.Result> results;
+    try {
+      results =
+          EstimatorReplay.gridSearch(log, TuneEstimator.mecanumFactory(), candidates, candidates);
+    } catch (InterruptedException e) {
+      return;
+    }
+    var elapsed = Utils.getTimeSeconds() - startTime;
+
+    var best = results.get(0);
+    Telemetry.put("Estimator Tuning/Combinations", results.size());
+    Telemetry.put("Estimator Tuning/Seconds", elapsed);
+    Telemetry.put("Estimator Tuning/Best State Std Devs", best.config().stateStdDevs().getData());
+    Telemetry.put(
+        "Estimator Tuning/Best Vision Std Devs",
+        best.config().visionMeasurementStdDevs().getData());
+    Telemetry.put("Estimator Tuning/Best Error m", best.translationErrorMeters());
+    Telemetry.put("Estimator Tuning/Best Heading Error rad", best.headingErrorRadians());
+    Telemetry.put(
+        "Estimator Tuning/Worst Error m", results.get(results.size() - 1).translationErrorMeters());
+  }
+}
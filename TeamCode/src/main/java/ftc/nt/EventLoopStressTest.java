@@ -0,0 +1,160 @@
+// Copyright (c) 2024-2025 FTC 8696
+// All rights reserved.
+
+package ftc.nt;
+
+import com.qualcomm.robotcore.eventloop.opmode.TeleOp;
+import ftc.lib.trobotix.BaseOpMode;
+import ftc.lib.trobotix.Telemetry;
+import ftc.lib.wpilib.commands.Command;
+import ftc.lib.wpilib.commands.Commands;
+import ftc.lib.wpilib.commands.button.Trigger;
+import ftc.lib.wpilib.event.EventLoop;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Binds and unbinds actions on an {@link EventLoop} from several threads at once while it's being
+ * polled, then checks that exactly the actions that were left bound still run.
+ *
+ * <p>Each producer thread binds plain actions and {@link Trigger} bindings, and unbinds half of
+ * each through the handles they return. A binding that replaces another binding with a new action
+ * every poll runs alongside them, to change the bindings from inside a poll too.
+ */
+@TeleOp
+public class EventLoopStressTest extends BaseOpMode {
+  private static final int PRODUCERS = 4;
+  private static final int OPERATIONS = 20000;
+  // Every this many operations, a trigger binding is added instead of a plain action
+  private static final int TRIGGER_PERIOD = 10;
+
+  private final EventLoop loop = new EventLoop();
+
+  private final LongAdder keptRuns = new LongAdder();
+  private final LongAdder removedRuns = new LongAdder();
+  private final LongAdder keptTriggerChecks = new LongAdder();
+  private final LongAdder removedTriggerChecks = new LongAdder();
+  private final LongAdder reboundRuns = new LongAdder();
+  private final LongAdder staleReboundRuns = new LongAdder();
+  private final AtomicInteger errors = new AtomicInteger();
+
+  @Override
+  protected void startup() {
+    var command = Commands.none();
+    var producers = new Thread[PRODUCERS];
+    for (int i = 0; i < producers.length; i++) {
+      producers[i] = new Thread(() -> produce(command));
+    }
+    loop.bind(new Rebinder());
+
+    for (var producer : producers) {
+      producer.start();
+    }
+    long polls = 0;
+    boolean producing = true;
+    while (producing) {
+      try {
+        loop.poll();
+      } catch (RuntimeException e) {
+        errors.incrementAndGet();
+      }
+      polls++;
+      producing = false;
+      for (var producer : producers) {
+        producing |= producer.isAlive();
+      }
+    }
+
+    // Apply the last changes, then count what a single poll runs
+    loop.poll();
+    keptRuns.reset();
+    removedRuns.reset();
+    keptTriggerChecks.reset();
+    removedTriggerChecks.reset();
+    reboundRuns.reset();
+    loop.poll();
+
+    var expectedRuns = (long) PRODUCERS * (OPERATIONS - OPERATIONS / TRIGGER_PERIOD) / 2;
+    var expectedTriggerChecks = (long) PRODUCERS * (OPERATIONS / TRIGGER_PERIOD) / 2;
+    var passed =
+        errors.get() == 0
+            && keptRuns.sum() == expectedRuns
+            && removedRuns.sum() == 0
+            && keptTriggerChecks.sum() == expectedTriggerChecks
+            && removedTriggerChecks.sum() == 0
+            && reboundRuns.sum() == 1
+            && staleReboundRuns.sum() == 0;
+
+    Telemetry.put("Event Loop Stress Test/Polls While Producing", polls);
+    Telemetry.put("Event Loop Stress Test/Expected Runs", expectedRuns);
+    Telemetry.put("Event Loop Stress Test/Kept Runs", keptRuns.sum());
+    Telemetry.put("Event Loop Stress Test/Removed Runs", removedRuns.sum());
+    Telemetry.put("Event Loop Stress Test/Expected Trigger Checks", expectedTriggerChecks);
+    Telemetry.put("Event Loop Stress Test/Kept Trigger Checks", keptTriggerChecks.sum());
+    Telemetry.put("Event Loop Stress Test/Removed Trigger Checks", removedTriggerChecks.sum());
+    Telemetry.put("Event Loop Stress Test/Rebound Runs", reboundRuns.sum());
+    Telemetry.put("Event Loop Stress Test/Stale Rebound Runs", staleReboundRuns.sum());
+    Telemetry.put("Event Loop Stress Test/Errors", errors.get());
+    Telemetry.put("Event Loop Stress Test/Passed", passed);
+  }
+
+  /** Binds actions and trigger bindings, and unbinds every other one of each. */
+  private void produce(Command command) {
+    try {
+      int triggers = 0;
+      int actions = 0;
+      for (int i = 0; i < OPERATIONS; i++) {
+        // Every other binding of each kind is kept
+        if (i % TRIGGER_PERIOD == 0) {
+          boolean keep = triggers++ % 2 == 0;
+          var checks = keep ? keptTriggerChecks : removedTriggerChecks;
+          var trigger =
+              new Trigger(
+                  loop,
+                  () -> {
+                    checks.increment();
+                    return false;
+                  });
+          var binding = trigger.bindWhileTrue(command);
+          if (!keep) {
+            binding.unbind();
+          }
+        } else {
+          boolean keep = actions++ % 2 == 0;
+          var runs = keep ? keptRuns : removedRuns;
+          var binding = loop.bind(runs::increment);
+          if (!keep) {
+            binding.unbind();
+          }
+        }
+      }
+    } catch (RuntimeException e) {
+      errors.incrementAndGet();
+    }
+  }
+
+  /**
+   * Replaces a binding of its own every poll, to change the bindings from inside a poll. Each
+   * action it binds should run in exactly one poll, the one after it was bound.
+   */
+  private final class Rebinder implements Runnable {
+    private EventLoop.Binding binding;
+
+    @Override
+    public void run() {
+      if (binding != null) {
+        binding.unbind();
+      }
+      // A new action every time, as a lambda that captures nothing is a single shared instance
+      var runs = new int[1];
+      binding =
+          loop.bind(
+              () -> {
+                if (++runs[0] > 1) {
+                  staleReboundRuns.increment();
+                }
+                reboundRuns.increment();
+              });
+    }
+  }
+}
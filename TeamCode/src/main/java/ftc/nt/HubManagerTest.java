@@ -0,0 +1,92 @@
+// Copyright (c) 2024-2025 FTC 8696
+// All rights reserved.
+
+package ftc.nt;
+
+import com.qualcomm.hardware.lynx.LynxModule;
+import com.qualcomm.robotcore.eventloop.opmode.TeleOp;
+import ftc.lib.trobotix.BaseOpMode;
+import ftc.lib.trobotix.Telemetry;
+import ftc.lib.trobotix.hardware.HubManager;
+import ftc.lib.wpilib.commands.CommandScheduler;
+import ftc.sim.FakeHub;
+
+/**
+ * Checks {@link HubManager}'s bulk caching against {@link FakeHub}s, so it runs without any hubs
+ * plugged in.
+ *
+ * <p>Checks that data cached before the hubs are set up isn't served afterwards, that clearing the
+ * cache during init shows new data, and that every scheduler loop sees fresh data for one bulk read
+ * per hub. The robot's real hubs are set up again afterwards.
+ */
+@TeleOp
+public class HubManagerTest extends BaseOpMode {
+  private static final int PORTS = 4;
+  private static final int LOOPS = 50;
+
+  private final FakeHub[] hubs = {new FakeHub(PORTS), new FakeHub(PORTS)};
+  private int failures = 0;
+
+  @Override
+  protected void startup() {
+    // A hub left in manual mode with old data cached, like from a previous op mode
+    hubs[0].setBulkCachingMode(LynxModule.BulkCachingMode.MANUAL);
+    hubs[0].getEncoderPosition(0);
+    setPositions(1);
+
+    HubManager.init(hubs);
+    for (var hub : hubs) {
+      check(hub.getBulkCachingMode() == LynxModule.BulkCachingMode.MANUAL);
+    }
+    checkPositions(1);
+    Telemetry.put("Hub Manager Test/Fresh After Setup", failures == 0);
+
+    // What the init loop does
+    setPositions(2);
+    HubManager.clearBulkCache();
+    checkPositions(2);
+    Telemetry.put("Hub Manager Test/Fresh During Init", failures == 0);
+
+    var bulkReads = new int[hubs.length];
+    for (int i = 0; i < hubs.length; i++) {
+      bulkReads[i] = hubs[i].getBulkReadCount();
+    }
+    for (int loop = 0; loop < LOOPS; loop++) {
+      setPositions(loop + 3);
+      CommandScheduler.getInstance().run();
+      checkPositions(loop + 3);
+      // Served from the cache, even though the hub has moved on
+      setPositions(-1);
+      checkPositions(loop + 3);
+    }
+    for (int i = 0; i < hubs.length; i++) {
+      check(hubs[i].getBulkReadCount() - bulkReads[i] == LOOPS);
+    }
+
+    Telemetry.put("Hub Manager Test/Failures", failures);
+    Telemetry.put("Hub Manager Test/Passed", failures == 0);
+    HubManager.init(this);
+  }
+
+  private void setPositions(int position) {
+    for (var hub : hubs) {
+      for (int port = 0; port < PORTS; port++) {
+        hub.setEncoderPosition(port, position * (port + 1));
+      }
+    }
+  }
+
+  private void checkPositions(int position) {
+    for (var hub : hubs) {
+      for (int port = 0; port < PORTS; port++) {
+        check(hub.getEncoderPosition(port) == position * (port + 1));
+      }
+    }
+  }
+
+  private void check(boolean condition) {
+    if (!condition) {
+      failures++;
+    }
+  }
+}
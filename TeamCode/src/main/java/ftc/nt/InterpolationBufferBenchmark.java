@@ -0,0 +1,110 @@
+// Copyright (c) 2024-2025 FTC 8696
+// All rights reserved.
+
+package ftc.nt;
+
+import com.qualcomm.robotcore.eventloop.opmode.TeleOp;
+import ftc.lib.trobotix.BaseOpMode;
+import ftc.lib.trobotix.Telemetry;
+import ftc.lib.trobotix.Utils;
+import ftc.lib.wpilib.math.MathUtil;
+import ftc.lib.wpilib.math.interpolation.TimeInterpolatableBuffer;
+import java.util.TreeMap;
+
+/**
+ * Measures how long it takes to record and sample pose history with {@link
+ * TimeInterpolatableBuffer}, compared to the TreeMap it used to be backed by.
+ */
+@TeleOp
+public class InterpolationBufferBenchmark extends BaseOpMode {
+  private static final double HISTORY_SECONDS = 1.5;
+  // The Pinpoint's max rate
+  private static final double SAMPLE_PERIOD = 0.002;
+  private static final int SAMPLE_COUNT = 20000;
+  // One vision lookup every this many odometry samples
+  private static final int LOOKUP_INTERVAL = 10;
+  private static final int ITERATIONS = 20;
+
+  private double sink;
+
+  @Override
+  protected void startup() {
+    // Warm up both paths before timing anything
+    for (int i = 0; i < 5; i++) {
+      runRingBuffer();
+      runTreeMap();
+    }
+
+    var ringMs = 0.0;
+    var treeMapMs = 0.0;
+    for (int i = 0; i < ITERATIONS; i++) {
+      ringMs += runRingBuffer();
+      treeMapMs += runTreeMap();
+    }
+    ringMs /= ITERATIONS;
+    treeMapMs /= ITERATIONS;
+
+    Telemetry.put("Interpolation Buffer Benchmark/Ring Buffer ms", ringMs);
+    Telemetry.put("Interpolation Buffer Benchmark/TreeMap ms", treeMapMs);
+    Telemetry.put("Interpolation Buffer Benchmark/Speedup", treeMapMs / ringMs);
+    // Keeps the JIT from removing the sampling
+    Telemetry.put("Interpolation Buffer Benchmark/Checksum", sink);
+  }
+
+  /** Returns the time taken to record and sample with the ring buffer, in milliseconds. */
+  private double runRingBuffer() {
+    var buffer = TimeInterpolatableBuffer.createDoubleBuffer(HISTORY_SECONDS);
+    var sample = new double[1];
+    var startTime = Utils.getTimeSeconds();
+    for (int i = 0; i < SAMPLE_COUNT; i++) {
+      var time = i * SAMPLE_PERIOD;
+      buffer.addSample(time, time * 2);
+      if (i % LOOKUP_INTERVAL == 0) {
+        buffer.sampleInto(
+            lookupTime(time),
+            sample,
+            (start, end, t, destination) -> destination[0] = MathUtil.interpolate(start, end, t));
+        sink += sample[0];
+      }
+    }
+    return (Utils.getTimeSeconds() - startTime) * 1000;
+  }
+
+  /** Returns the time taken to record and sample with a TreeMap, in milliseconds. */
+  private double runTreeMap() {
+    var buffer = new TreeMap<Double, Double>();
+    var startTime = Utils.getTimeSeconds();
+    for (int i = 0; i < SAMPLE_COUNT; i++) {
+      var time = i * SAMPLE_PERIOD;
+      // Same cleanup and lookup as the TreeMap backed TimeInterpolatableBuffer
+      while (!buffer.isEmpty() && time - buffer.firstKey() >= HISTORY_SECONDS) {
+        buffer.pollFirstEntry();
+      }
+      buffer.put(time, time * 2);
+      if (i % LOOKUP_INTERVAL == 0) {
+        var lookupTime = lookupTime(time);
+        var top = buffer.ceilingEntry(lookupTime);
+        var bottom = buffer.floorEntry(lookupTime);
+        if (top == null) {
+          sink += bottom.getValue();
+        } else if (bottom == null) {
+          sink += top.getValue();
+        } else if (top.getKey() == lookupTime) {
+          sink += top.getValue();
+        } else {
+          sink +=
+              MathUtil.interpolate(
+                  bottom.getValue(),
+                  top.getValue(),
+                  (lookupTime - bottom.getKey()) / (top.getKey() - bottom.getKey()));
+        }
+      }
+    }
+    return (Utils.getTimeSeconds() - startTime) * 1000;
+  }
+
+  /** A vision measurement's timestamp, somewhere in the last 100 ms. */
+  private static double lookupTime(double time) {
+    return time - 0.1 * ((time * 7919) % 1);
+  }
+}
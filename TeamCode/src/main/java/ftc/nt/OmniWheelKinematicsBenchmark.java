@@ -0,0 +1,160 @@
+// Copyright (c) 2024-2025 FTC 8696
+// All rights reserved.
+
+package ftc.nt;
+
+import com.qualcomm.robotcore.eventloop.opmode.TeleOp;
+import ftc.lib.trobotix.BaseOpMode;
+import ftc.lib.trobotix.Telemetry;
+import ftc.lib.trobotix.Utils;
+import ftc.lib.trobotix.kinematics.OmniWheelKinematics;
+import ftc.lib.trobotix.kinematics.OmniWheelPositions;
+import ftc.lib.wpilib.math.geometry.Rotation2d;
+import ftc.lib.wpilib.math.geometry.Transform2d;
+import ftc.lib.wpilib.math.geometry.Translation2d;
+import ftc.lib.wpilib.math.geometry.Twist2d;
+import ftc.lib.wpilib.math.kinematics.ChassisSpeeds;
+import java.util.Random;
+import org.ejml.simple.SimpleMatrix;
+
+/**
+ * Checks {@link OmniWheelKinematics} against a plain EJML implementation of the same kinematics,
+ * and compares how long forward kinematics takes with each.
+ *
+ * <p>Three deadwheels, an X-drive, and a five wheel layout are checked, so the unrolled 3 and 4
+ * wheel paths and the general path are all covered. The deadwheels are also checked against
+ * hand-computed answers, since both implementations share the same model.
+ */
+@TeleOp
+public class OmniWheelKinematicsBenchmark extends BaseOpMode {
+  private static final int CHECKS = 10000;
+  private static final int ITERATIONS = 1000000;
+
+  @Override
+  protected void startup() {
+    var deadwheels =
+        new Transform2d[] {
+          new Transform2d(new Translation2d(0, 0.15), Rotation2d.kZero),
+          new Transform2d(new Translation2d(0, -0.15), Rotation2d.kZero),
+          new Transform2d(new Translation2d(-0.1, 0), Rotation2d.kCCW_Pi_2)
+        };
+    var xDrive = new Transform2d[4];
+    for (int i = 0; i < xDrive.length; i++) {
+      var location = new Translation2d(0.2, Rotation2d.fromDegrees(45 + 90 * i));
+      xDrive[i] = new Transform2d(location, Rotation2d.fromDegrees(135 + 90 * i));
+    }
+    var fiveWheels = new Transform2d[5];
+    for (int i = 0; i < fiveWheels.length; i++) {
+      var location = new Translation2d(0.2 + 0.02 * i, Rotation2d.fromDegrees(72 * i));
+      fiveWheels[i] = new Transform2d(location, Rotation2d.fromDegrees(72 * i + 80));
+    }
+
+    // Rotating in place by 0.1 radians, and driving 0.1 meters forward then left
+    var deadwheelKinematics = new OmniWheelKinematics(deadwheels);
+    var spin = deadwheelKinematics.toTwist2d(new OmniWheelPositions(-0.015, 0.015, -0.01));
+    var forward = deadwheelKinematics.toTwist2d(new OmniWheelPositions(0.1, 0.1, 0));
+    var left = deadwheelKinematics.toTwist2d(new OmniWheelPositions(0, 0, 0.1));
+    var deadwheelError =
+        Math.max(
+            twistError(spin, new Twist2d(0, 0, 0.1)),
+            Math.max(
+                twistError(forward, new Twist2d(0.1, 0, 0)),
+                twistError(left, new Twist2d(0, 0.1, 0))));
+    Telemetry.put("Omni Wheel Kinematics Benchmark/Deadwheel Error", deadwheelError);
+
+    benchmark("3 Wheels", deadwheels);
+    benchmark("4 Wheels", xDrive);
+    benchmark("5 Wheels", fiveWheels);
+  }
+
+  private void benchmark(String name, Transform2d[] wheels) {
+    var key = "Omni Wheel Kinematics Benchmark/" + name;
+    var kinematics = new OmniWheelKinematics(wheels);
+    var reference = referenceForwardKinematics(wheels);
+
+    var random = new Random(8696);
+    var start = new double[wheels.length];
+    var end = new double[wheels.length];
+    var twist = new Twist2d();
+    double maxError = 0;
+    double maxRoundTripError = 0;
+    for (int i = 0; i < CHECKS; i++) {
+      for (int j = 0; j < wheels.length; j++) {
+        start[j] = random.nextGaussian();
+        end[j] = start[j] + 0.01 * random.nextGaussian();
+      }
+      kinematics.toTwist2d(new OmniWheelPositions(start), new OmniWheelPositions(end), twist);
+      maxError = Math.max(maxError, twistError(twist, referenceTwist(reference, start, end)));
+
+      var speeds =
+          new ChassisSpeeds(random.nextGaussian(), random.nextGaussian(), random.nextGaussian());
+      var roundTrip = kinematics.toChassisSpeeds(kinematics.toWheelSpeeds(speeds));
+      maxRoundTripError =
+          Math.max(
+              maxRoundTripError,
+              Math.max(
+                  Math.abs(roundTrip.vxMetersPerSecond - speeds.vxMetersPerSecond),
+                  Math.max(
+                      Math.abs(roundTrip.vyMetersPerSecond - speeds.vyMetersPerSecond),
+                      Math.abs(roundTrip.omegaRadiansPerSecond - speeds.omegaRadiansPerSecond))));
+    }
+    Telemetry.put(key + "/Max Error", maxError);
+    Telemetry.put(key + "/Max Round Trip Error", maxRoundTripError);
+
+    var startPositions = new OmniWheelPositions(start);
+    var endPositions = new OmniWheelPositions(end);
+    // Warm up both paths before timing anything
+    for (int i = 0; i < ITERATIONS / 10; i++) {
+      kinematics.toTwist2d(startPositions, endPositions, twist);
+      referenceTwist(reference, start, end);
+    }
+
+    var fastStart = Utils.getTimeSeconds();
+    for (int i = 0; i < ITERATIONS; i++) {
+      kinematics.toTwist2d(startPositions, endPositions, twist);
+    }
+    var fastNs = (Utils.getTimeSeconds() - fastStart) * 1e9 / ITERATIONS;
+    var referenceStart = Utils.getTimeSeconds();
+    for (int i = 0; i < ITERATIONS; i++) {
+      referenceTwist(reference, start, end);
+    }
+    var referenceNs = (Utils.getTimeSeconds() - referenceStart) * 1e9 / ITERATIONS;
+
+    Telemetry.put(key + "/Fast ns", fastNs);
+    Telemetry.put(key + "/EJML ns", referenceNs);
+    // Keeps the timed loop from being optimized away
+    Telemetry.put(key + "/Last dtheta", twist.dtheta);
+  }
+
+  /** The forward kinematics, computed and applied with EJML every call like before. */
+  private static SimpleMatrix referenceForwardKinematics(Transform2d[] wheels) {
+    var inverseKinematics = new SimpleMatrix(wheels.length, 3);
+    for (int i = 0; i < wheels.length; i++) {
+      var direction = wheels[i].getRotation();
+      var location = wheels[i].getTranslation();
+      inverseKinematics.setRow(
+          i,
+          0,
+          direction.getCos(),
+          direction.getSin(),
+          location.getX() * direction.getSin() - location.getY() * direction.getCos());
+    }
+    return inverseKinematics.pseudoInverse();
+  }
+
+  private static Twist2d referenceTwist(
+      SimpleMatrix forwardKinematics, double[] start, double[] end) {
+    var deltas = new SimpleMatrix(start.length, 1);
+    for (int i = 0; i < start.length; i++) {
+      deltas.set(i, 0, end[i] - start[i]);
+    }
+    var twist = forwardKinematics.mult(deltas);
+    return new Twist2d(twist.get(0, 0), twist.get(1, 0), twist.get(2, 0));
+  }
+
+  private static double twistError(Twist2d actual, Twist2d expected) {
+    return Math.max(
+        Math.abs(actual.dx - expected.dx),
+        Math.max(Math.abs(actual.dy - expected.dy), Math.abs(actual.dtheta - expected.dtheta)));
+  }
+}
@@ -0,0 +1,246 @@
+// Copyright (c) 2024-2025 FTC 8696
+// All rights reserved.
+
+package ftc.nt;
+
+import com.qualcomm.robotcore.eventloop.opmode.TeleOp;
+import ftc.lib.trobotix.BaseOpMode;
+import ftc.lib.trobotix.Telemetry;
+import ftc.lib.trobotix.Utils;
+import ftc.lib.trobotix.estimator.ExtendedKalmanPoseEstimator;
+import ftc.lib.wpilib.math.VecBuilder;
+import ftc.lib.wpilib.math.estimator.MecanumDrivePoseEstimator;
+import ftc.lib.wpilib.math.geometry.Pose2d;
+import ftc.lib.wpilib.math.geometry.Rotation2d;
+import ftc.lib.wpilib.math.geometry.Translation2d;
+import ftc.lib.wpilib.math.geometry.Twist2d;
+import ftc.lib.wpilib.math.kinematics.ChassisSpeeds;
+import ftc.lib.wpilib.math.kinematics.MecanumDriveKinematics;
+import ftc.lib.wpilib.math.kinematics.MecanumDriveWheelPositions;
+import ftc.sim.AllocationCounter;
+import java.util.Random;
+
+/**
+ * Replays a simulated match through {@link MecanumDrivePoseEstimator} and {@link
+ * ExtendedKalmanPoseEstimator}, and compares how far off they are from the true pose, and how long
+ * they take.
+ *
+ * <p>The simulated robot drives a wandering path. The wheels slip, the gyro drifts, and vision
+ * measurements are noisy and arrive late. A few vision measurements are outliers, like a tag
+ * detected with the wrong pose, so both estimators are also run with vision gating.
+ *
+ * <p>Also measures how much the WPILib estimator allocates per vision measurement, at the usual
+ * latency and at ten times it. Replaying odometry doesn't allocate, so late measurements shouldn't
+ * cost more. The robot can only count allocations for the whole app, so there the counts are an
+ * upper bound that includes other threads, see {@link AllocationCounter}.
+ */
+@TeleOp
+public class PoseEstimatorBenchmark extends BaseOpMode {
+  private static final double PERIOD = 0.002;
+  private static final int STEPS = 30000;
+  // One vision measurement every this many steps
+  private static final int VISION_INTERVAL = 25;
+  private static final int VISION_LATENCY_STEPS = 25;
+  private static final int LATE_VISION_LATENCY_STEPS = 250;
+  private static final double VISION_POSITION_NOISE = 0.05;
+  private static final double VISION_HEADING_NOISE = 0.03;
+  private static final double OUTLIER_CHANCE = 0.03;
+  private static final double OUTLIER_DISTANCE = 1;
+  // Rejects 1% of measurements that aren't outliers
+  private static final double GATE_THRESHOLD = 11.34;
+  private static final double WHEEL_SLIP = 0.03;
+  private static final double GYRO_DRIFT = 0.002;
+
+  private final MecanumDriveKinematics kinematics =
+      new MecanumDriveKinematics(
+          new Translation2d(0.15, 0.15),
+          new Translation2d(0.15, -0.15),
+          new Translation2d(-0.15, 0.15),
+          new Translation2d(-0.15, -0.15));
+
+  private final Pose2d[] truePoses = new Pose2d[STEPS];
+  private final Rotation2d[] gyroAngles = new Rotation2d[STEPS];
+  private final MecanumDriveWheelPositions[] wheelPositions =
+      new MecanumDriveWheelPositions[STEPS];
+  private final Pose2d[] visionPoses = new Pose2d[STEPS];
+  private int rejectedMeasurements;
+
+  @Override
+  protected void startup() {
+    simulate();
+
+    // Warm up both estimators before timing anything
+    for (int i = 0; i < 3; i++) {
+      runWpilib(Double.POSITIVE_INFINITY);
+      runExtendedKalman(Double.POSITIVE_INFINITY);
+    }
+
+    var wpilibStart = Utils.getTimeSeconds();
+    var wpilibError = runWpilib(Double.POSITIVE_INFINITY);
+    var wpilibMs = (Utils.getTimeSeconds() - wpilibStart) * 1000;
+    var ekfStart = Utils.getTimeSeconds();
+    var ekfError = runExtendedKalman(Double.POSITIVE_INFINITY);
+    var ekfMs = (Utils.getTimeSeconds() - ekfStart) * 1000;
+
+    Telemetry.put("Pose Estimator Benchmark/Odometry Error m", odometryError());
+    Telemetry.put("Pose Estimator Benchmark/WPILib Error m", wpilibError);
+    Telemetry.put("Pose Estimator Benchmark/WPILib ms", wpilibMs);
+    Telemetry.put("Pose Estimator Benchmark/EKF Error m", ekfError);
+    Telemetry.put("Pose Estimator Benchmark/EKF ms", ekfMs);
+
+    Telemetry.put("Pose Estimator Benchmark/WPILib Gated Error m", runWpilib(GATE_THRESHOLD));
+    Telemetry.put("Pose Estimator Benchmark/WPILib Rejected", rejectedMeasurements);
+    Telemetry.put("Pose Estimator Benchmark/EKF Gated Error m", runExtendedKalman(GATE_THRESHOLD));
+    Telemetry.put("Pose Estimator Benchmark/EKF Rejected", rejectedMeasurements);
+
+    Telemetry.put(
+        "Pose Estimator Benchmark/Per Thread Allocation Count", AllocationCounter.isPerThread());
+    Telemetry.put(
+        "Pose Estimator Benchmark/WPILib Bytes per Vision Update",
+        wpilibVisionBytes(VISION_LATENCY_STEPS));
+    Telemetry.put(
+        "Pose Estimator Benchmark/WPILib Bytes per Late Vision Update",
+        wpilibVisionBytes(LATE_VISION_LATENCY_STEPS));
+  }
+
+  /** Drives the simulated robot, and records what its sensors measured. */
+  private void simulate() {
+    var random = new Random(8696);
+    var pose = new Pose2d();
+    var gyro = 0.0;
+    var wheels = new double[4];
+    for (int i = 0; i < STEPS; i++) {
+      var time = i * PERIOD;
+      var speeds =
+          new ChassisSpeeds(
+              1.2 * Math.sin(0.3 * time), 0.8 * Math.cos(0.23 * time), 1.5 * Math.sin(0.5 * time));
+      pose =
+          pose.exp(
+              new Twist2d(
+                  speeds.vxMetersPerSecond * PERIOD,
+                  speeds.vyMetersPerSecond * PERIOD,
+                  speeds.omegaRadiansPerSecond * PERIOD));
+      truePoses[i] = pose;
+
+      var wheelSpeeds = kinematics.toWheelSpeeds(speeds);
+      var wheelDistances =
+          new double[] {
+            wheelSpeeds.frontLeftMetersPerSecond,
+            wheelSpeeds.frontRightMetersPerSecond,
+            wheelSpeeds.rearLeftMetersPerSecond,
+            wheelSpeeds.rearRightMetersPerSecond
+          };
+      for (int j = 0; j < 4; j++) {
+        wheels[j] += wheelDistances[j] * PERIOD * (1 + WHEEL_SLIP * random.nextGaussian());
+      }
+      wheelPositions[i] =
+          new MecanumDriveWheelPositions(wheels[0], wheels[1], wheels[2], wheels[3]);
+
+      gyro += speeds.omegaRadiansPerSecond * PERIOD + GYRO_DRIFT * PERIOD;
+      gyroAngles[i] = new Rotation2d(gyro);
+
+      var headingNoise = new Rotation2d(VISION_HEADING_NOISE * random.nextGaussian());
+      var outlierDistance = random.nextDouble() < OUTLIER_CHANCE ? OUTLIER_DISTANCE : 0;
+      visionPoses[i] =
+          new Pose2d(
+              pose.getX() + outlierDistance + VISION_POSITION_NOISE * random.nextGaussian(),
+              pose.getY() + VISION_POSITION_NOISE * random.nextGaussian(),
+              pose.getRotation().plus(headingNoise));
+    }
+  }
+
+  /** Returns the RMS position error of odometry alone. */
+  private double odometryError() {
+    var estimator =
+        new MecanumDrivePoseEstimator(
+            kinematics, new Rotation2d(), new MecanumDriveWheelPositions(), new Pose2d());
+    var squaredError = 0.0;
+    for (int i = 0; i < STEPS; i++) {
+      var pose = estimator.updateWithTime(i * PERIOD, gyroAngles[i], wheelPositions[i]);
+      squaredError += squaredError(pose, i);
+    }
+    return Math.sqrt(squaredError / STEPS);
+  }
+
+  /** Returns the RMS position error of the WPILib estimator. */
+  private double runWpilib(double gateThreshold) {
+    var estimator =
+        new MecanumDrivePoseEstimator(
+            kinematics,
+            new Rotation2d(),
+            new MecanumDriveWheelPositions(),
+            new Pose2d(),
+            VecBuilder.fill(0.02, 0.02, 0.01),
+            VecBuilder.fill(VISION_POSITION_NOISE, VISION_POSITION_NOISE, VISION_HEADING_NOISE));
+    estimator.setVisionGateThreshold(gateThreshold);
+    var squaredError = 0.0;
+    for (int i = 0; i < STEPS; i++) {
+      var pose = estimator.updateWithTime(i * PERIOD, gyroAngles[i], wheelPositions[i]);
+      if (i % VISION_INTERVAL == 0 && i >= VISION_LATENCY_STEPS) {
+        var visionStep = i - VISION_LATENCY_STEPS;
+        estimator.addVisionMeasurement(visionPoses[visionStep], visionStep * PERIOD);
+        pose = estimator.getEstimatedPosition();
+      }
+      squaredError += squaredError(pose, i);
+    }
+    rejectedMeasurements = estimator.getRejectedVisionMeasurements();
+    return Math.sqrt(squaredError / STEPS);
+  }
+
+  /** Returns the RMS position error of the EKF. */
+  private double runExtendedKalman(double gateThreshold) {
+    var estimator =
+        new ExtendedKalmanPoseEstimator<>(
+            kinematics,
+            new Rotation2d(),
+            new MecanumDriveWheelPositions(),
+            new Pose2d(),
+            VecBuilder.fill(0.05, 0.05, 0.02),
+            VecBuilder.fill(VISION_POSITION_NOISE, VISION_POSITION_NOISE, VISION_HEADING_NOISE));
+    estimator.setVisionGateThreshold(gateThreshold);
+    var squaredError = 0.0;
+    for (int i = 0; i < STEPS; i++) {
+      var pose = estimator.updateWithTime(i * PERIOD, gyroAngles[i], wheelPositions[i]);
+      if (i % VISION_INTERVAL == 0 && i >= VISION_LATENCY_STEPS) {
+        var visionStep = i - VISION_LATENCY_STEPS;
+        estimator.addVisionMeasurement(visionPoses[visionStep], visionStep * PERIOD);
+        pose = estimator.getEstimatedPosition();
+      }
+      squaredError += squaredError(pose, i);
+    }
+    rejectedMeasurements = estimator.getRejectedVisionMeasurements();
+    return Math.sqrt(squaredError / STEPS);
+  }
+
+  /** Returns the average bytes the WPILib estimator allocates per vision measurement. */
+  private double wpilibVisionBytes(int latencySteps) {
+    var estimator =
+        new MecanumDrivePoseEstimator(
+            kinematics, new Rotation2d(), new MecanumDriveWheelPositions(), new Pose2d());
+    // Reading the counter can allocate on its own
+    var counterBytes = Long.MAX_VALUE;
+    for (int i = 0; i < 100; i++) {
+      var startBytes = AllocationCounter.getAllocatedBytes();
+      counterBytes = Math.min(counterBytes, AllocationCounter.getAllocatedBytes() - startBytes);
+    }
+
+    var visionBytes = 0L;
+    var measurements = 0;
+    for (int i = 0; i < STEPS; i++) {
+      estimator.updateWithTime(i * PERIOD, gyroAngles[i], wheelPositions[i]);
+      if (i % VISION_INTERVAL == 0 && i >= latencySteps) {
+        var visionStep = i - latencySteps;
+        var startBytes = AllocationCounter.getAllocatedBytes();
+        estimator.addVisionMeasurement(visionPoses[visionStep], visionStep * PERIOD);
+        visionBytes += AllocationCounter.getAllocatedBytes() - startBytes - counterBytes;
+        measurements++;
+      }
+    }
+    return (double) visionBytes / measurements;
+  }
+
+  private double squaredError(Pose2d pose, int step) {
+    var error = pose.getTranslation().getDistance(truePoses[step].getTranslation());
+    return error * error;
+  }
+}
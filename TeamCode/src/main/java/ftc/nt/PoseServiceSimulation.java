@@ -0,0 +1,191 @@
+// Copyright (c) 2024-2025 FTC 8696
+// All rights reserved.
+
+package ftc.nt;
+
+import com.qualcomm.robotcore.eventloop.opmode.TeleOp;
+import ftc.lib.trobotix.BaseOpMode;
+import ftc.lib.trobotix.EndableThread;
+import ftc.lib.trobotix.Telemetry;
+import ftc.lib.trobotix.Utils;
+import ftc.lib.trobotix.estimator.PoseService;
+import ftc.lib.wpilib.Timer;
+import ftc.lib.wpilib.commands.Commands;
+import ftc.lib.wpilib.math.Matrix;
+import ftc.lib.wpilib.math.VecBuilder;
+import ftc.lib.wpilib.math.estimator.MecanumDrivePoseEstimator;
+import ftc.lib.wpilib.math.geometry.Pose2d;
+import ftc.lib.wpilib.math.geometry.Rotation2d;
+import ftc.lib.wpilib.math.geometry.Translation2d;
+import ftc.lib.wpilib.math.geometry.Twist2d;
+import ftc.lib.wpilib.math.kinematics.ChassisSpeeds;
+import ftc.lib.wpilib.math.kinematics.MecanumDriveKinematics;
+import ftc.lib.wpilib.math.kinematics.MecanumDriveWheelPositions;
+import ftc.lib.wpilib.math.numbers.N1;
+import ftc.lib.wpilib.math.numbers.N3;
+import java.util.Random;
+
+/**
+ * Runs a {@link PoseService} against a simulated robot, with fake odometry and vision sources
+ * instead of hardware, and checks what the control loop reads from it.
+ *
+ * <p>The simulated robot drives in a circle, so its true pose is known at any time. Its wheels read
+ * a few percent more or less than they travel and its gyro drifts, so odometry alone drifts. A
+ * simulated camera on its own thread adds noisy vision measurements that arrive late.
+ *
+ * <p>Every loop, the control loop reads the latest estimate, and publishes how far it is from the
+ * true pose at the estimate's timestamp, how old it is, and how many times an estimate was older
+ * than the one before it. Once vision has had time to correct the start, the simulation passes if
+ * no estimate was out of order, none was older than a few service periods, and the RMS error stays
+ * within the vision noise.
+ *
+ * <p>The fake sources only depend on the time, so unlike real encoders read through a hub, they're
+ * safe to read from the service's thread. See {@link PoseService}.
+ */
+@TeleOp
+public class PoseServiceSimulation extends BaseOpMode {
+  private static final ChassisSpeeds SPEEDS = new ChassisSpeeds(0.8, 0.3, 0.9);
+  private static final double[] WHEEL_SCALE_ERRORS = {0.03, -0.02, 0.01, -0.03};
+  private static final double GYRO_DRIFT = 0.01;
+  private static final double CAMERA_PERIOD = 0.05;
+  private static final double CAMERA_LATENCY = 0.04;
+  private static final double VISION_POSITION_NOISE = 0.03;
+  private static final double VISION_HEADING_NOISE = 0.02;
+  // Errors before this long after starting aren't checked, to give vision time to correct odometry
+  private static final double SETTLE_TIME = 2;
+  private static final double MAX_RMS_ERROR = VISION_POSITION_NOISE;
+  private static final double MAX_AGE = 0.05;
+
+  private final MecanumDriveKinematics kinematics =
+      new MecanumDriveKinematics(
+          new Translation2d(0.15, 0.15),
+          new Translation2d(0.15, -0.15),
+          new Translation2d(-0.15, 0.15),
+          new Translation2d(-0.15, -0.15));
+
+  private double startTime;
+  private PoseService service;
+
+  // Only used by the control loop
+  private double lastTimestamp = Double.NEGATIVE_INFINITY;
+  private int outOfOrderEstimates = 0;
+  private int reads = 0;
+  private double squaredError = 0;
+  private double maxAge = 0;
+
+  @Override
+  protected void startup() {
+    startTime = Utils.getTimeSeconds();
+    var estimator =
+        new MecanumDrivePoseEstimator(
+            kinematics,
+            readGyro(),
+            readWheels(),
+            truePose(startTime),
+            VecBuilder.fill(0.02, 0.02, 0.01),
+            VecBuilder.fill(VISION_POSITION_NOISE, VISION_POSITION_NOISE, VISION_HEADING_NOISE));
+    service =
+        new PoseService(
+            new PoseService.Estimator() {
+              @Override
+              public Pose2d update(double timestampSeconds) {
+                return estimator.updateWithTime(timestampSeconds, readGyro(), readWheels());
+              }
+
+              @Override
+              public void addVisionMeasurement(
+                  Pose2d visionRobotPoseMeters,
+                  double timestampSeconds,
+                  Matrix<N3, N1> visionMeasurementStdDevs) {
+                estimator.addVisionMeasurement(visionRobotPoseMeters, timestampSeconds);
+              }
+
+              @Override
+              public void resetPose(Pose2d poseMeters) {
+                estimator.resetPosition(readGyro(), readWheels(), poseMeters);
+              }
+
+              @Override
+              public Pose2d getEstimatedPosition() {
+                return estimator.getEstimatedPosition();
+              }
+            });
+
+    var random = new Random(8696);
+    new EndableThread("Simulated Camera") {
+      @Override
+      public void loop() {
+        Timer.delay(CAMERA_PERIOD);
+        var captureTime = Utils.getTimeSeconds() - CAMERA_LATENCY;
+        var pose = truePose(captureTime);
+        var headingNoise = new Rotation2d(VISION_HEADING_NOISE * random.nextGaussian());
+        service.addVisionMeasurement(
+            new Pose2d(
+                pose.getX() + VISION_POSITION_NOISE * random.nextGaussian(),
+                pose.getY() + VISION_POSITION_NOISE * random.nextGaussian(),
+                pose.getRotation().plus(headingNoise)),
+            captureTime);
+      }
+    };
+
+    enableTrigger().whileTrue(Commands.run(this::check));
+  }
+
+  /** Reads the latest estimate like a control loop would, and checks it. */
+  private void check() {
+    var estimate = service.getEstimate();
+    if (estimate.timestampSeconds() < lastTimestamp) {
+      outOfOrderEstimates++;
+    }
+    lastTimestamp = estimate.timestampSeconds();
+
+    var error =
+        estimate
+            .poseMeters()
+            .getTranslation()
+            .getDistance(truePose(estimate.timestampSeconds()).getTranslation());
+    var age = Utils.getTimeSeconds() - estimate.timestampSeconds();
+    if (estimate.timestampSeconds() - startTime >= SETTLE_TIME) {
+      squaredError += error * error;
+      maxAge = Math.max(maxAge, age);
+      reads++;
+    }
+    var rmsError = reads > 0 ? Math.sqrt(squaredError / reads) : 0;
+
+    Telemetry.put("PoseService Simulation/Error m", error);
+    Telemetry.put("PoseService Simulation/RMS Error m", rmsError);
+    Telemetry.put("PoseService Simulation/Age ms", age * 1000);
+    Telemetry.put("PoseService Simulation/Max Age ms", maxAge * 1000);
+    Telemetry.put("PoseService Simulation/Out Of Order Estimates", outOfOrderEstimates);
+    Telemetry.put(
+        "PoseService Simulation/Passed",
+        reads > 0 && outOfOrderEstimates == 0 && maxAge <= MAX_AGE && rmsError <= MAX_RMS_ERROR);
+  }
+
+  /** The simulated robot's pose. It drives at a constant speed, so it's an arc. */
+  private Pose2d truePose(double timeSeconds) {
+    var elapsed = timeSeconds - startTime;
+    return Pose2d.kZero.exp(
+        new Twist2d(
+            SPEEDS.vxMetersPerSecond * elapsed,
+            SPEEDS.vyMetersPerSecond * elapsed,
+            SPEEDS.omegaRadiansPerSecond * elapsed));
+  }
+
+  /** The fake gyro. */
+  private Rotation2d readGyro() {
+    var elapsed = Utils.getTimeSeconds() - startTime;
+    return new Rotation2d((SPEEDS.omegaRadiansPerSecond + GYRO_DRIFT) * elapsed);
+  }
+
+  /** The fake wheel encoders. */
+  private MecanumDriveWheelPositions readWheels() {
+    var elapsed = Utils.getTimeSeconds() - startTime;
+    var wheelSpeeds = kinematics.toWheelSpeeds(SPEEDS);
+    return new MecanumDriveWheelPositions(
+        wheelSpeeds.frontLeftMetersPerSecond * elapsed * (1 + WHEEL_SCALE_ERRORS[0]),
+        wheelSpeeds.frontRightMetersPerSecond * elapsed * (1 + WHEEL_SCALE_ERRORS[1]),
+        wheelSpeeds.rearLeftMetersPerSecond * elapsed * (1 + WHEEL_SCALE_ERRORS[2]),
+        wheelSpeeds.rearRightMetersPerSecond * elapsed * (1 + WHEEL_SCALE_ERRORS[3]));
+  }
+}
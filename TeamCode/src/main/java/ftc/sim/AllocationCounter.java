@@ -0,0 +1,71 @@
+// Copyright (c) 2024-2025 FTC 8696
+// All rights reserved.
+
+package ftc.sim;
+
+import android.os.Debug;
+import java.lang.reflect.Method;
+
+/**
+ * Counts allocated bytes, for benchmarks that check a path doesn't allocate.
+ *
+ * <p>On a desktop JVM, this counts the bytes allocated by the calling thread, so a count of zero
+ * shows the measured code didn't allocate. The Robot Controller can't count per thread, so there
+ * it counts the bytes allocated by the whole app, including telemetry, NetworkTables, and the SDK's
+ * own threads. Counts on the robot are only an upper bound, and can't show that code doesn't
+ * allocate. Check {@link #isPerThread()} before treating a count as exact.
+ */
+public final class AllocationCounter {
+  private AllocationCounter() {}
+
+  // The JVM's com.sun.management.ThreadMXBean, which Android doesn't have, so it's found by
+  // reflection
+  private static final Object threadBean;
+  private static final Method getThreadAllocatedBytes;
+
+  static {
+    Object bean = null;
+    Method method = null;
+    try {
+      bean =
+          Class.forName("java.lang.management.ManagementFactory")
+              .getMethod("getThreadMXBean")
+              .invoke(null);
+      method =
+          Class.forName("com.sun.management.ThreadMXBean")
+              .getMethod("getThreadAllocatedBytes", long.class);
+    } catch (ReflectiveOperationException e) {
+      bean = null;
+      method = null;
+    }
+    threadBean = bean;
+    getThreadAllocatedBytes = method;
+  }
+
+  /**
+   * Whether the count only includes the calling thread. If not, counts include every thread in the
+   * app, and are an upper bound.
+   *
+   * @return If allocations are counted per thread.
+   */
+  public static boolean isPerThread() {
+    return getThreadAllocatedBytes != null;
+  }
+
+  /**
+   * Gets the number of bytes allocated so far. Only differences between calls are meaningful.
+   *
+   * @return The allocated bytes.
+   */
+  public static long getAllocatedBytes() {
+    if (getThreadAllocatedBytes != null) {
+      try {
+        return (long) getThreadAllocatedBytes.invoke(threadBean, Thread.currentThread().getId());
+      } catch (ReflectiveOperationException e) {
+        throw new IllegalStateException("Couldn't count allocations", e);
+      }
+    }
+    var allocated = Debug.getRuntimeStat("art.gc.bytes-allocated");
+    return allocated != null ? Long.parseLong(allocated) : 0;
+  }
+}
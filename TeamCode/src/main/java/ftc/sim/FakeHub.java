@@ -0,0 +1,181 @@
+// Copyright (c) 2024-2025 FTC 8696
+// All rights reserved.
+
+package ftc.sim;
+
+import com.qualcomm.hardware.lynx.LynxModule;
+import ftc.lib.trobotix.hardware.HubManager;
+import ftc.lib.trobotix.hardware.HubWriter;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A simulated hub, for running {@link HubManager} without hardware.
+ *
+ * <p>Holds an encoder position for every motor port, and serves reads of them the way a {@link
+ * LynxModule} does in each bulk caching mode. With caching off, every read is a bulk read. In
+ * manual mode, the first read after the cache is cleared takes a snapshot of every port, and later
+ * reads are served from it until the cache is cleared again. In auto mode, the snapshot is also
+ * retaken when a port is read twice.
+ *
+ * <p>Motor powers can also be written, and each write blocks for a set latency like a real hub
+ * transaction. Writing through a {@link HubWriter} simulates asynchronous writes.
+ */
+public class FakeHub implements HubManager.Hub {
+  private final int[] positions;
+  private final int[] cachedPositions;
+  private final boolean[] readSinceBulkRead;
+  private boolean cacheValid = false;
+
+  private LynxModule.BulkCachingMode mode = LynxModule.BulkCachingMode.OFF;
+  private int bulkReads = 0;
+  private int clears = 0;
+
+  private final double[] powers;
+  private volatile long writeLatencyNanos = 0;
+  private int writes = 0;
+
+  /**
+   * Creates a new fake hub.
+   *
+   * @param ports The number of motor ports. 4 on a real hub.
+   */
+  public FakeHub(int ports) {
+    positions = new int[ports];
+    cachedPositions = new int[ports];
+    readSinceBulkRead = new boolean[ports];
+    powers = new double[ports];
+  }
+
+  @Override
+  public synchronized void setBulkCachingMode(LynxModule.BulkCachingMode mode) {
+    this.mode = mode;
+    cacheValid = false;
+  }
+
+  /**
+   * Gets the bulk caching mode the hub was last set to.
+   *
+   * @return The mode.
+   */
+  public synchronized LynxModule.BulkCachingMode getBulkCachingMode() {
+    return mode;
+  }
+
+  @Override
+  public synchronized void clearBulkCache() {
+    cacheValid = false;
+    clears++;
+  }
+
+  /**
+   * Sets the position the encoder on a port is at. Not seen by cached reads until the cache is
+   * refreshed.
+   *
+   * @param port The port.
+   * @param position The position. Ticks.
+   */
+  public synchronized void setEncoderPosition(int port, int position) {
+    positions[port] = position;
+  }
+
+  /**
+   * Reads the position of the encoder on a port, like {@link
+   * com.qualcomm.robotcore.hardware.DcMotor#getCurrentPosition()}.
+   *
+   * @param port The port.
+   * @return The position, as of the last bulk read. Ticks.
+   */
+  public synchronized int getEncoderPosition(int port) {
+    switch (mode) {
+      case OFF:
+        bulkRead();
+        break;
+      case AUTO:
+        if (!cacheValid || readSinceBulkRead[port]) {
+          bulkRead();
+        }
+        break;
+      case MANUAL:
+        if (!cacheValid) {
+          bulkRead();
+        }
+        break;
+    }
+    readSinceBulkRead[port] = true;
+    return cachedPositions[port];
+  }
+
+  private void bulkRead() {
+    System.arraycopy(positions, 0, cachedPositions, 0, positions.length);
+    for (int i = 0; i < readSinceBulkRead.length; i++) {
+      readSinceBulkRead[i] = false;
+    }
+    cacheValid = true;
+    bulkReads++;
+  }
+
+  /**
+   * Sets how long each write takes. Defaults to 0.
+   *
+   * @param seconds The write latency. Seconds.
+   */
+  public void setWriteLatency(double seconds) {
+    writeLatencyNanos = (long) (seconds * 1e9);
+  }
+
+  /**
+   * Sets the power of the motor on a port, like {@link
+   * com.qualcomm.robotcore.hardware.DcMotor#setPower(double)}. Blocks for the write latency.
+   *
+   * @param port The port.
+   * @param power The power.
+   */
+  public void setMotorPower(int port, double power) {
+    var deadline = System.nanoTime() + writeLatencyNanos;
+    long remaining;
+    while ((remaining = deadline - System.nanoTime()) > 0) {
+      LockSupport.parkNanos(remaining);
+    }
+    synchronized (this) {
+      powers[port] = power;
+      writes++;
+    }
+  }
+
+  /**
+   * Gets the last power written to the motor on a port.
+   *
+   * @param port The port.
+   * @return The power.
+   */
+  public synchronized double getMotorPower(int port) {
+    return powers[port];
+  }
+
+  /**
+   * Gets the number of writes made.
+   *
+   * @return The write count.
+   */
+  public synchronized int getWriteCount() {
+    return writes;
+  }
+
+  /**
+   * Gets the number of bulk reads made, which is the number of hub transactions reads would take.
+   *
+   * @return The bulk read count.
+   */
+  public synchronized int getBulkReadCount() {
+    return bulkReads;
+  }
+
+  /**
+   * Gets the number of times the bulk cache has been cleared.
+   *
+   * @return The clear count.
+   */
+  public synchronized int getClearCount() {
+    return clears;
+  }
+}
@@ -0,0 +1,97 @@
+// Copyright (c) 2024-2025 FTC 8696
+// All rights reserved.
+
+package ftc.sim;
+
+import ftc.lib.trobotix.Utils;
+import ftc.lib.trobotix.hardware.HubWriter;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Checks {@link HubWriter} against a {@link FakeHub} with a realistic write latency.
+ *
+ * <p>A plain Java program, so it runs on a computer with the library on the classpath, without an
+ * op mode or hardware. Exits with a nonzero status if any check fails.
+ *
+ * <p>First, the writer is stepped by hand to check that only the latest value is written, and that
+ * values still waiting when the writer ends are written. Then its thread writes a burst of values
+ * posted from the main thread, which shouldn't block on the writes.
+ */
+public final class HubWriterTest {
+  private static final int PORTS = 4;
+  private static final double WRITE_LATENCY = 0.002;
+  private static final int BURST = 100;
+
+  private final FakeHub hub = new FakeHub(PORTS);
+  private final HubWriter writer = new HubWriter("Fake Hub");
+  private final HubWriter.Mailbox[] mailboxes = new HubWriter.Mailbox[PORTS];
+  private int failures = 0;
+
+  private HubWriterTest() {
+    hub.setWriteLatency(WRITE_LATENCY);
+    for (int i = 0; i < PORTS; i++) {
+      int port = i;
+      mailboxes[i] = writer.addOutput("Motor " + i, value -> hub.setMotorPower(port, value));
+    }
+  }
+
+  public static void main(String[] args) {
+    var test = new HubWriterTest();
+    test.checkSteppedWrites();
+    test.checkBurst();
+    System.out.println("Failures: " + test.failures);
+    System.out.println(test.failures == 0 ? "Passed" : "Failed");
+    System.exit(test.failures == 0 ? 0 : 1);
+  }
+
+  private void checkSteppedWrites() {
+    // Only the latest value is written
+    mailboxes[0].post(0.1);
+    mailboxes[0].post(0.2);
+    mailboxes[0].post(0.3);
+    check(writer.flush() == 1, "Only the latest value is written");
+    check(hub.getMotorPower(0) == 0.3, "The latest value is the one written");
+    check(hub.getWriteCount() == 1, "One write is made");
+    check(mailboxes[0].getSupersededCount() == 2, "Older values are counted as superseded");
+    check(writer.flush() == 0, "Nothing is written twice");
+
+    // A stop posted just before the op mode ends still gets written
+    mailboxes[1].post(0);
+    mailboxes[2].post(-0.5);
+    writer.end();
+    check(hub.getMotorPower(1) == 0, "Pending values are written when the writer ends");
+    check(hub.getMotorPower(2) == -0.5, "Pending values are written when the writer ends");
+    check(hub.getWriteCount() == 3, "Each pending value is written once");
+  }
+
+  /** Posts values to every port as fast as possible, like a control loop that's fallen behind. */
+  private void checkBurst() {
+    writer.start();
+    var startTime = Utils.getTimeSeconds();
+    for (int i = 1; i <= BURST; i++) {
+      for (int port = 0; port < PORTS; port++) {
+        mailboxes[port].post(i * (port + 1));
+      }
+    }
+    var postSeconds = Utils.getTimeSeconds() - startTime;
+    LockSupport.parkNanos(250_000_000);
+
+    for (int port = 0; port < PORTS; port++) {
+      check(hub.getMotorPower(port) == BURST * (port + 1), "The last value of a burst is written");
+    }
+    // Writing everything synchronously would take this long
+    var blockingSeconds = BURST * PORTS * WRITE_LATENCY;
+    check(postSeconds < blockingSeconds / 10, "Posting doesn't block on writes");
+
+    System.out.println("Post ms: " + postSeconds * 1000);
+    System.out.println("Blocking write ms: " + blockingSeconds * 1000);
+    System.out.println("Writes: " + hub.getWriteCount());
+  }
+
+  private void check(boolean condition, String description) {
+    if (!condition) {
+      failures++;
+      System.out.println("Failed: " + description);
+    }
+  }
+}
@@ -0,0 +1,250 @@
+// Copyright (c) 2024-2025 FTC 8696
+// All rights reserved.
+
+package ftc.sim;
+
+import ftc.lib.trobotix.estimator.EstimatorReplay;
+import ftc.lib.trobotix.estimator.GoBildaPinpointPoseEstimator;
+import ftc.lib.trobotix.estimator.ReplayLog;
+import ftc.lib.wpilib.math.Matrix;
+import ftc.lib.wpilib.math.Nat;
+import ftc.lib.wpilib.math.VecBuilder;
+import ftc.lib.wpilib.math.geometry.Pose2d;
+import ftc.lib.wpilib.math.geometry.Rotation2d;
+import ftc.lib.wpilib.math.geometry.Twist2d;
+import ftc.lib.wpilib.math.interpolation.TimeInterpolatableBuffer;
+import ftc.lib.wpilib.math.numbers.N1;
+import ftc.lib.wpilib.math.numbers.N3;
+import java.util.ArrayList;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Replays a simulated Pinpoint log through {@link GoBildaPinpointPoseEstimator} with {@link
+ * EstimatorReplay}, and checks that every pose matches a straightforward reference exactly.
+ *
+ * <p>A plain Java program, so it runs on a computer with the library on the classpath, without an
+ * op mode or hardware. The log is generated from a synthetic trajectory, not recorded on a robot.
+ * Exits with a nonzero status if any pose differs.
+ *
+ * <p>The reference is the fusion the estimator did before its vision updates were kept in a ring
+ * and compensated without allocating, with the vision updates in a {@link TreeMap} and every step
+ * done with the geometry classes. The log has late, out of order, and too old vision measurements,
+ * measurements at the exact time of an odometry sample, and measurements with their own standard
+ * deviations.
+ */
+public final class PinpointFusionReplayTest {
+  private static final double PERIOD = 0.002;
+  private static final int STEPS = 40000;
+  private static final double VISION_CHANCE = 0.2;
+
+  private int comparisons = 0;
+  private int mismatches = 0;
+
+  private PinpointFusionReplayTest() {}
+
+  public static void main(String[] args) {
+    var test = new PinpointFusionReplayTest();
+    var config =
+        new EstimatorReplay.Config(
+            VecBuilder.fill(0.02, 0.02, 0.01), VecBuilder.fill(0.05, 0.05, 0.03));
+    var result = EstimatorReplay.replay(test.simulate(), test::createComparison, config);
+
+    var passed = test.comparisons > 0 && test.mismatches == 0;
+    System.out.println("Comparisons: " + test.comparisons);
+    System.out.println("Mismatches: " + test.mismatches);
+    System.out.println("RMS error: " + result.translationErrorMeters() + " m");
+    System.out.println(passed ? "Passed" : "Failed");
+    System.exit(passed ? 0 : 1);
+  }
+
+  /** Simulates a robot with a drifting Pinpoint and a noisy, late camera. */
+  private ReplayLog simulate() {
+    var random = new Random(8696);
+    var odometry = new ArrayList<double[]>();
+    var vision = new ArrayList<double[]>();
+    var truth = new ArrayList<double[]>();
+    var truePoses = new Pose2d[STEPS];
+    var pose = new Pose2d();
+    for (int i = 0; i < STEPS; i++) {
+      var time = i * PERIOD;
+      pose =
+          pose.exp(
+              new Twist2d(
+                  1.2 * Math.sin(0.3 * time) * PERIOD,
+                  0.8 * Math.cos(0.23 * time) * PERIOD,
+                  1.5 * Math.sin(0.5 * time) * PERIOD));
+      truePoses[i] = pose;
+      truth.add(new double[] {time, pose.getX(), pose.getY(), pose.getRotation().getRadians()});
+      // Rounded to floats, like the Pinpoint reports
+      odometry.add(
+          new double[] {
+            time,
+            (float) (pose.getX() * 1.02 + 0.0001 * i),
+            (float) (pose.getY() * 0.98),
+            (float) (pose.getRotation().getRadians() + 1e-5 * i)
+          });
+
+      if (i < 100 || random.nextDouble() >= VISION_CHANCE) {
+        continue;
+      }
+      // Mostly a few frames late, but sometimes late enough to be outside the pose buffer
+      var latencySteps =
+          Math.min(random.nextDouble() < 0.1 ? random.nextInt(1000) : random.nextInt(60), i);
+      var captureStep = i - latencySteps;
+      // Sometimes exactly at an odometry sample
+      var captureTime =
+          random.nextDouble() < 0.05 ? captureStep * PERIOD : captureStep * PERIOD + 1e-4;
+      var truePose = truePoses[captureStep];
+      var x = truePose.getX() + 0.05 * random.nextGaussian();
+      var y = truePose.getY() + 0.05 * random.nextGaussian();
+      var heading = truePose.getRotation().getRadians() + 0.03 * random.nextGaussian();
+      if (random.nextDouble() < 0.2) {
+        var xStdDev = 0.02 + random.nextDouble() * 0.2;
+        vision.add(new double[] {time, captureTime, x, y, heading, xStdDev, 0.05, 0.03});
+      } else {
+        vision.add(new double[] {time, captureTime, x, y, heading});
+      }
+    }
+    return new ReplayLog(odometry, vision, truth);
+  }
+
+  /** Creates the estimator under test, and checks it against the reference as it's replayed. */
+  private EstimatorReplay.Estimator createComparison(
+      EstimatorReplay.Config config, double[] initialOdometry, Pose2d initialPose) {
+    var estimator = EstimatorReplay.forPinpoint().create(config, initialOdometry, initialPose);
+    var reference = new ReferenceFusion(config);
+    return new EstimatorReplay.Estimator() {
+      @Override
+      public Pose2d update(double[] odometry) {
+        var pose = estimator.update(odometry);
+        reference.addOdometrySample(
+            odometry[0], new Pose2d(odometry[1], odometry[2], new Rotation2d(odometry[3])));
+        compare(pose, reference.getEstimatedPosition());
+        return pose;
+      }
+
+      @Override
+      public void addVisionMeasurement(
+          Pose2d visionRobotPoseMeters,
+          double timestampSeconds,
+          Matrix<N3, N1> visionMeasurementStdDevs) {
+        estimator.addVisionMeasurement(
+            visionRobotPoseMeters, timestampSeconds, visionMeasurementStdDevs);
+        reference.addVisionMeasurement(
+            visionRobotPoseMeters, timestampSeconds, visionMeasurementStdDevs);
+        compare(estimator.getEstimatedPosition(), reference.getEstimatedPosition());
+      }
+
+      @Override
+      public Pose2d getEstimatedPosition() {
+        return estimator.getEstimatedPosition();
+      }
+    };
+  }
+
+  private void compare(Pose2d pose, Pose2d expected) {
+    comparisons++;
+    if (pose.getX() != expected.getX()
+        || pose.getY() != expected.getY()
+        || pose.getRotation().getCos() != expected.getRotation().getCos()
+        || pose.getRotation().getSin() != expected.getRotation().getSin()) {
+      mismatches++;
+    }
+  }
+
+  /** The Pinpoint's vision fusion, written as simply as possible. Doesn't gate measurements. */
+  private static final class ReferenceFusion {
+    private static final double kBufferDuration = 1.5;
+
+    private final double[] stateVariances = new double[3];
+    private final Matrix<N3, N3> visionK = new Matrix<>(Nat.N3(), Nat.N3());
+    private final TimeInterpolatableBuffer<Pose2d> poseBuffer =
+        TimeInterpolatableBuffer.createBuffer(kBufferDuration);
+    // Maps timestamps to the vision-compensated pose and the odometry pose it compensates
+    private final NavigableMap<Double, Pose2d[]> visionUpdates = new TreeMap<>();
+    private Pose2d odometryPose = Pose2d.kZero;
+    private Pose2d poseEstimate = Pose2d.kZero;
+
+    ReferenceFusion(EstimatorReplay.Config config) {
+      for (int i = 0; i < 3; i++) {
+        stateVariances[i] = config.stateStdDevs().get(i, 0) * config.stateStdDevs().get(i, 0);
+      }
+      setVisionMeasurementStdDevs(config.visionMeasurementStdDevs());
+    }
+
+    void setVisionMeasurementStdDevs(Matrix<N3, N1> visionMeasurementStdDevs) {
+      for (int row = 0; row < 3; row++) {
+        var variance = visionMeasurementStdDevs.get(row, 0) * visionMeasurementStdDevs.get(row, 0);
+        visionK.set(
+            row,
+            row,
+            stateVariances[row] == 0.0
+                ? 0.0
+                : stateVariances[row]
+                    / (stateVariances[row] + Math.sqrt(stateVariances[row] * variance)));
+      }
+    }
+
+    Pose2d getEstimatedPosition() {
+      return poseEstimate;
+    }
+
+    void addOdometrySample(double timestampSeconds, Pose2d pose) {
+      odometryPose = pose;
+      poseBuffer.addSample(timestampSeconds, pose);
+      poseEstimate =
+          visionUpdates.isEmpty() ? pose : compensate(visionUpdates.lastEntry().getValue(), pose);
+    }
+
+    void addVisionMeasurement(
+        Pose2d visionRobotPoseMeters,
+        double timestampSeconds,
+        Matrix<N3, N1> visionMeasurementStdDevs) {
+      if (visionMeasurementStdDevs != null) {
+        // Like the Pinpoint estimator, these continue to apply to later measurements
+        setVisionMeasurementStdDevs(visionMeasurementStdDevs);
+      }
+      var newestTimestamp = poseBuffer.getTimestamp(poseBuffer.size() - 1);
+      if (newestTimestamp - kBufferDuration > timestampSeconds) {
+        return;
+      }
+
+      // Only keep the newest vision update before the oldest odometry sample
+      var oldestTimestamp = poseBuffer.getTimestamp(0);
+      var oldestNeeded = visionUpdates.floorKey(oldestTimestamp);
+      if (oldestNeeded != null) {
+        visionUpdates.headMap(oldestNeeded, false).clear();
+      }
+
+      var odometrySample = poseBuffer.getSample(timestampSeconds).orElseThrow();
+      var visionSample = sampleAt(timestampSeconds);
+      var twist = visionSample.log(visionRobotPoseMeters);
+      var scaledTwist = visionK.times(VecBuilder.fill(twist.dx, twist.dy, twist.dtheta));
+      var visionPose =
+          visionSample.exp(
+              new Twist2d(scaledTwist.get(0, 0), scaledTwist.get(1, 0), scaledTwist.get(2, 0)));
+      var visionUpdate = new Pose2d[] {visionPose, odometrySample};
+      visionUpdates.put(timestampSeconds, visionUpdate);
+      visionUpdates.tailMap(timestampSeconds, false).clear();
+      poseEstimate = compensate(visionUpdate, odometryPose);
+    }
+
+    private Pose2d sampleAt(double timestampSeconds) {
+      var clamped =
+          Math.max(
+              poseBuffer.getTimestamp(0),
+              Math.min(timestampSeconds, poseBuffer.getTimestamp(poseBuffer.size() - 1)));
+      var odometrySample = poseBuffer.getSample(clamped).orElseThrow();
+      var visionUpdate = visionUpdates.floorEntry(clamped);
+      return visionUpdate == null
+          ? odometrySample
+          : compensate(visionUpdate.getValue(), odometrySample);
+    }
+
+    private static Pose2d compensate(Pose2d[] visionUpdate, Pose2d pose) {
+      return visionUpdate[0].plus(pose.minus(visionUpdate[1]));
+    }
+  }
+}
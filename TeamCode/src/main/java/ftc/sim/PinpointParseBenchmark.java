@@ -0,0 +1,128 @@
+// Copyright (c) 2024-2025 FTC 8696
+// All rights reserved.
+
+package ftc.sim;
+
+import com.qualcomm.robotcore.hardware.I2cDeviceSynchSimple;
+import ftc.lib.trobotix.Utils;
+import ftc.lib.trobotix.hardware.GoBildaPinpointDriver;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Measures how much {@link GoBildaPinpointDriver#update()} allocates and how long it takes, against
+ * a fake Pinpoint, so no I2C traffic is involved.
+ *
+ * <p>A plain Java program, so it runs on a computer with the library on the classpath, without an
+ * op mode or hardware. Runs there rather than on the robot because only a desktop JVM can count
+ * allocations per thread, see {@link AllocationCounter}. Exits with a nonzero status if the
+ * updates allocate, if allocations can't be counted per thread, or if parsing is wrong.
+ *
+ * <p>The fake returns the same array for every read, where the SDK allocates a new one. The fake
+ * allocates on its own as well, so its allocations are measured separately and subtracted. Also
+ * checks that a short read is dropped rather than parsed.
+ */
+public final class PinpointParseBenchmark {
+  private static final int WARMUP = 200000;
+  private static final int ITERATIONS = 1000000;
+
+  private final byte[] bulkData = new byte[40];
+  private byte[] readData = bulkData;
+
+  private PinpointParseBenchmark() {}
+
+  public static void main(String[] args) {
+    new PinpointParseBenchmark().run();
+  }
+
+  private void run() {
+    var buffer = ByteBuffer.wrap(bulkData).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(0, 1); // READY
+    buffer.putInt(4, 1000); // Loop time, microseconds
+    buffer.putFloat(16, 1234.5f); // X, mm
+    buffer.putFloat(20, -250f); // Y, mm
+    buffer.putFloat(24, 1.5f); // Heading, radians
+    buffer.putFloat(36, -0.5f); // Heading velocity, radians per second
+
+    var device = fakeDevice();
+    var driver = new GoBildaPinpointDriver(device, false);
+
+    for (int i = 0; i < WARMUP; i++) {
+      driver.update();
+      device.read(0, 40);
+    }
+    var startBytes = AllocationCounter.getAllocatedBytes();
+    for (int i = 0; i < ITERATIONS; i++) {
+      device.read(0, 40);
+    }
+    var fakeBytes = AllocationCounter.getAllocatedBytes() - startBytes;
+
+    var startTime = Utils.getTimeSeconds();
+    startBytes = AllocationCounter.getAllocatedBytes();
+    for (int i = 0; i < ITERATIONS; i++) {
+      driver.update();
+    }
+    var updateBytes = AllocationCounter.getAllocatedBytes() - startBytes;
+    var updateNs = (Utils.getTimeSeconds() - startTime) * 1e9 / ITERATIONS;
+
+    var parsed =
+        driver.getPosX() == 1.2345
+            && driver.getPosY() == -0.25
+            && driver.getHeadingRadians() == 1.5
+            && driver.getLoopTime() == 1000
+            && driver.getDeviceStatus() == GoBildaPinpointDriver.DeviceStatus.READY;
+
+    // A short read keeps the previous values
+    readData = new byte[12];
+    driver.update();
+    var shortReadDropped = driver.getShortReadCount() == 1 && driver.getPosX() == 1.2345;
+
+    var bytesPerUpdate = (double) (updateBytes - fakeBytes) / ITERATIONS;
+    var perThread = AllocationCounter.isPerThread();
+    System.out.println("Per thread count: " + perThread);
+    System.out.printf("Bytes per update: %.4f%n", bytesPerUpdate);
+    System.out.printf("ns per update: %.1f%n", updateNs);
+    System.out.println("Parsed correctly: " + parsed);
+    System.out.println("Short read dropped: " + shortReadDropped);
+    if (!perThread) {
+      System.out.println("Allocations can't be counted per thread, so zero can't be shown");
+    }
+
+    // Less than a byte per thousand updates, which is the counter's own noise rather than anything
+    // update() could allocate
+    var passed = perThread && bytesPerUpdate < 1e-3 && parsed && shortReadDropped;
+    System.out.println(passed ? "Passed" : "Failed");
+    System.exit(passed ? 0 : 1);
+  }
+
+  /** A Pinpoint that returns {@link #readData} for every read and ignores everything else. */
+  private I2cDeviceSynchSimple fakeDevice() {
+    return (I2cDeviceSynchSimple)
+        Proxy.newProxyInstance(
+            I2cDeviceSynchSimple.class.getClassLoader(),
+            new Class<?>[] {I2cDeviceSynchSimple.class},
+            (proxy, method, args) -> {
+              if (method.getName().equals("read")) {
+                return readData;
+              }
+              return defaultValue(method.getReturnType());
+            });
+  }
+
+  private static Object defaultValue(Class<?> type) {
+    if (type == boolean.class) {
+      return false;
+    }
+    if (type == byte.class) {
+      return (byte) 0;
+    }
+    if (type == int.class) {
+      return 0;
+    }
+    if (type == long.class) {
+      return 0L;
+    }
+    return null;
+  }
+}
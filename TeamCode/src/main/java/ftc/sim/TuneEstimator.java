@@ -0,0 +1,119 @@
+// Copyright (c) 2024-2025 FTC 8696
+// All rights reserved.
+
+package ftc.sim;
+
+import ftc.lib.trobotix.Utils;
+import ftc.lib.trobotix.estimator.EstimatorReplay;
+import ftc.lib.trobotix.estimator.ReplayLog;
+import ftc.lib.wpilib.math.estimator.MecanumDrivePoseEstimator;
+import ftc.lib.wpilib.math.geometry.Translation2d;
+import ftc.lib.wpilib.math.kinematics.MecanumDriveKinematics;
+import ftc.lib.wpilib.math.kinematics.MecanumDriveWheelPositions;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tunes pose estimator standard deviations on a computer, by replaying a recorded log with every
+ * combination in a grid and printing every combination, best first. See {@link ReplayLog} for what
+ * to record.
+ *
+ * <p>A plain Java program, so it runs with the library on the classpath, without an op mode or
+ * hardware. Takes the path of the log, either a <code>.csv</code> or a <code>.wpilog</code>, and
+ * optionally the estimator to replay, either <code>mecanum</code> (the default) or <code>pinpoint
+ * </code>. The grid and the drive are also used by {@link ftc.nt.EstimatorTuning}, which runs the
+ * same search on the robot.
+ */
+public final class TuneEstimator {
+  private TuneEstimator() {}
+
+  private static final double[] POSITION_STD_DEVS = {0.005, 0.01, 0.02, 0.05, 0.1, 0.2};
+  private static final double[] HEADING_STD_DEVS = {0.005, 0.01, 0.02, 0.05, 0.1};
+
+  private static final MecanumDriveKinematics kinematics =
+      new MecanumDriveKinematics(
+          new Translation2d(0.15, 0.15),
+          new Translation2d(0.15, -0.15),
+          new Translation2d(-0.15, 0.15),
+          new Translation2d(-0.15, -0.15));
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    if (args.length < 1 || args.length > 2) {
+      System.err.println("Usage: TuneEstimator <log.csv | log.wpilog> [mecanum | pinpoint]");
+      System.exit(2);
+    }
+    var path = args[0];
+    var log = path.endsWith(".wpilog") ? ReplayLog.fromWpilog(path) : ReplayLog.fromCsv(path);
+    EstimatorReplay.Factory factory;
+    switch (args.length > 1 ? args[1] : "mecanum") {
+      case "mecanum":
+        factory = mecanumFactory();
+        break;
+      case "pinpoint":
+        factory = EstimatorReplay.forPinpoint();
+        break;
+      default:
+        System.err.println("Unknown estimator: " + args[1]);
+        System.exit(2);
+        return;
+    }
+
+    var startTime = Utils.getTimeSeconds();
+    var candidates = candidates();
+    var results = EstimatorReplay.gridSearch(log, factory, candidates, candidates);
+    var elapsed = Utils.getTimeSeconds() - startTime;
+
+    System.out.printf(
+        "%d combinations of %d odometry rows in %.2f s%n",
+        results.size(), log.getOdometry().length, elapsed);
+    printResults(results);
+  }
+
+  /**
+   * Gets the standard deviations to try, for both the state and vision measurements. X and Y are
+   * tuned together.
+   *
+   * @return The candidates, each in the form {x, y, theta}.
+   */
+  public static double[][] candidates() {
+    var candidates = new double[POSITION_STD_DEVS.length * HEADING_STD_DEVS.length][];
+    for (int i = 0; i < POSITION_STD_DEVS.length; i++) {
+      for (int j = 0; j < HEADING_STD_DEVS.length; j++) {
+        candidates[i * HEADING_STD_DEVS.length + j] =
+            new double[] {POSITION_STD_DEVS[i], POSITION_STD_DEVS[i], HEADING_STD_DEVS[j]};
+      }
+    }
+    return candidates;
+  }
+
+  /**
+   * Creates replay estimators for the mecanum drive. Odometry rows are the timestamp, the gyro
+   * angle, and the front left, front right, rear left, and rear right wheel positions.
+   *
+   * @return The factory.
+   */
+  public static EstimatorReplay.Factory mecanumFactory() {
+    return EstimatorReplay.forPoseEstimator(
+        (gyroAngle, wheelPositions, initialPose, stateStdDevs, visionStdDevs) ->
+            new MecanumDrivePoseEstimator(
+                kinematics, gyroAngle, wheelPositions, initialPose, stateStdDevs, visionStdDevs),
+        row -> new MecanumDriveWheelPositions(row[2], row[3], row[4], row[5]));
+  }
+
+  private static void printResults(List<EstimatorReplay.Result> results) {
+    System.out.printf(
+        "%4s  %-24s  %-24s  %10s  %12s%n",
+        "Rank", "State Std Devs", "Vision Std Devs", "Error m", "Heading rad");
+    for (int i = 0; i < results.size(); i++) {
+      var result = results.get(i);
+      System.out.printf(
+          "%4d  %-24s  %-24s  %10.5f  %12.5f%n",
+          i + 1,
+          Arrays.toString(result.config().stateStdDevs().getData()),
+          Arrays.toString(result.config().visionMeasurementStdDevs().getData()),
+          result.translationErrorMeters(),
+          result.headingErrorRadians());
+    }
+  }
+}